@@ -0,0 +1,297 @@
+package jSimPack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Calendar queue (R. Brown, "Calendar Queues: A Fast O(1) Priority Queue
+ * Implementation for the Simulation Event Set Problem", CACM 1988).
+ *
+ * Instants are hashed into an array of buckets by time, like days in a
+ * calendar.  Each bucket covers <code>width</code> nanoseconds of every
+ * "year" (<code>width * buckets.length</code> nanoseconds), and holds a
+ * short list of instants sorted by time.  Dequeuing walks forward from the
+ * bucket of the last dequeued instant, so when the bucket width is close to the
+ * typical spacing between instants, both operations take constant time
+ * regardless of how many events are pending.
+ *
+ * The elevator simulation is dominated by periodic timers (10, 50 and 200 ms
+ * controller and network periods), so most instants hold several events and
+ * the spacing between instants is very regular.  The bucket count is doubled
+ * or halved as the number of pending instants changes, and the width is
+ * re-estimated from the spacing of the earliest instants each time.
+ *
+ * Items scheduled for the same instant are kept together in the order they
+ * were added, exactly like {@link TreeEventQueue}.
+ *
+ * @param <T> Generic type for the data the queue is to hold.
+ */
+public class CalendarEventQueue<T> implements EventQueue<T> {
+
+    private final static int MIN_BUCKETS = 16;
+    /** number of instants sampled when estimating the bucket width */
+    private final static int WIDTH_SAMPLES = 25;
+    /** initial bucket width in nanoseconds (1 ms) */
+    private final static long DEFAULT_WIDTH = 1000000L;
+
+    /**
+     * All the items scheduled for one instant.  Instants in the same bucket
+     * form a singly linked list sorted by time.
+     */
+    private static class Instant<T> {
+
+        final long time;
+        final List<T> items = new ArrayList<T>(4);
+        Instant<T> next;
+
+        Instant(long time) {
+            this.time = time;
+        }
+    }
+    private final static Comparator<Instant<?>> TIME_ORDER = new Comparator<Instant<?>>() {
+
+        public int compare(Instant<?> a, Instant<?> b) {
+            return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+        }
+    };
+    private Instant<T>[] buckets;
+    private int mask;
+    /** width of each bucket in nanoseconds */
+    private long width;
+    /** number of instants in the queue */
+    private int size;
+    /** lower bound on the time of every instant in the queue */
+    private long lastTime;
+    /** bucket that contains lastTime */
+    private int lastBucket;
+    /** end of the year of lastBucket that contains lastTime */
+    private long bucketTop;
+    /** earliest instant in the queue, if it has already been located */
+    private Instant<T> nextInstant;
+
+    public CalendarEventQueue() {
+        lastTime = 0;
+        rebuild(MIN_BUCKETS, DEFAULT_WIDTH, null);
+    }
+
+    public void addItem(long time, T item) {
+        if (time < lastTime) {
+            //keep the search invariant if someone schedules in the past
+            setLastTime(time);
+        }
+        int index = bucketOf(time);
+        Instant<T> prev = null;
+        Instant<T> curr = buckets[index];
+        while (curr != null && curr.time < time) {
+            prev = curr;
+            curr = curr.next;
+        }
+        if (curr != null && curr.time == time) {
+            //add the item to the existing instant
+            curr.items.add(item);
+            return;
+        }
+
+        Instant<T> instant = new Instant<T>(time);
+        instant.items.add(item);
+        instant.next = curr;
+        if (prev == null) {
+            buckets[index] = instant;
+        } else {
+            prev.next = instant;
+        }
+        size++;
+        if (nextInstant != null && time < nextInstant.time) {
+            nextInstant = instant;
+        }
+        if (size > 2 * buckets.length) {
+            resize(2 * buckets.length);
+        }
+    }
+
+    public long peek() {
+        Instant<T> first = findNext();
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return first.time;
+    }
+
+    public List<T> getNextList() {
+        Instant<T> first = findNext();
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        //the earliest instant is always at the head of its bucket
+        int index = bucketOf(first.time);
+        buckets[index] = first.next;
+        first.next = null;
+        nextInstant = null;
+        size--;
+        setLastTime(first.time);
+        if (buckets.length > MIN_BUCKETS && size < buckets.length / 2) {
+            resize(buckets.length / 2);
+        }
+        return first.items;
+    }
+
+    public boolean removeItem(long time, T item) {
+        int index = bucketOf(time);
+        Instant<T> prev = null;
+        Instant<T> curr = buckets[index];
+        while (curr != null && curr.time < time) {
+            prev = curr;
+            curr = curr.next;
+        }
+        if (curr == null || curr.time != time || !curr.items.remove(item)) {
+            return false;
+        }
+        if (curr.items.isEmpty()) {
+            if (prev == null) {
+                buckets[index] = curr.next;
+            } else {
+                prev.next = curr.next;
+            }
+            curr.next = null;
+            size--;
+            if (nextInstant == curr) {
+                nextInstant = null;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int bucketOf(long time) {
+        return (int) ((time / width) & mask);
+    }
+
+    /**
+     * @return the end of the bucket-sized interval containing time, saturated
+     * at Long.MAX_VALUE
+     */
+    private long topOf(long time) {
+        long start = (time / width) * width;
+        if (start > Long.MAX_VALUE - width) {
+            return Long.MAX_VALUE;
+        }
+        return start + width;
+    }
+
+    private void setLastTime(long time) {
+        lastTime = time;
+        lastBucket = bucketOf(time);
+        bucketTop = topOf(time);
+    }
+
+    /**
+     * Locate the earliest instant without removing it.
+     */
+    private Instant<T> findNext() {
+        if (nextInstant != null || size == 0) {
+            return nextInstant;
+        }
+        //scan one year forward from the last dequeued instant
+        int index = lastBucket;
+        long top = bucketTop;
+        for (int n = 0; n < buckets.length; n++) {
+            Instant<T> head = buckets[index];
+            if (head != null && head.time < top) {
+                nextInstant = head;
+                return head;
+            }
+            index = (index + 1) & mask;
+            if (top > Long.MAX_VALUE - width) {
+                break;
+            }
+            top += width;
+        }
+        //nothing in the coming year, so fall back to a direct search
+        Instant<T> min = null;
+        for (Instant<T> head : buckets) {
+            if (head != null && (min == null || head.time < min.time)) {
+                min = head;
+            }
+        }
+        nextInstant = min;
+        return min;
+    }
+
+    /**
+     * Change the number of buckets and re-estimate the bucket width.
+     */
+    private void resize(int bucketCount) {
+        List<Instant<T>> instants = new ArrayList<Instant<T>>(size);
+        for (Instant<T> head : buckets) {
+            for (Instant<T> curr = head; curr != null; curr = curr.next) {
+                instants.add(curr);
+            }
+        }
+        Collections.sort(instants, TIME_ORDER);
+        for (Instant<T> instant : instants) {
+            instant.next = null;
+        }
+        rebuild(bucketCount, estimateWidth(instants), instants);
+    }
+
+    /**
+     * Brown's heuristic:  three times the average separation of the first few
+     * instants, ignoring separations that are more than twice the average.
+     */
+    private long estimateWidth(List<Instant<T>> instants) {
+        int samples = Math.min(instants.size(), WIDTH_SAMPLES + 1);
+        if (samples < 2) {
+            return width;
+        }
+        long total = 0;
+        for (int i = 1; i < samples; i++) {
+            total += instants.get(i).time - instants.get(i - 1).time;
+        }
+        double average = (double) total / (samples - 1);
+        long trimmedTotal = 0;
+        int trimmedCount = 0;
+        for (int i = 1; i < samples; i++) {
+            long gap = instants.get(i).time - instants.get(i - 1).time;
+            if (gap <= 2 * average) {
+                trimmedTotal += gap;
+                trimmedCount++;
+            }
+        }
+        if (trimmedCount == 0) {
+            return width;
+        }
+        long newWidth = 3 * trimmedTotal / trimmedCount;
+        return newWidth < 1 ? 1 : newWidth;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rebuild(int bucketCount, long newWidth, List<Instant<T>> sortedInstants) {
+        buckets = (Instant<T>[]) new Instant<?>[bucketCount];
+        mask = bucketCount - 1;
+        width = newWidth;
+        size = 0;
+        nextInstant = null;
+        setLastTime(lastTime);
+        if (sortedInstants == null) {
+            return;
+        }
+        //the instants are in time order, so appending keeps each bucket sorted
+        Instant<T>[] tails = (Instant<T>[]) new Instant<?>[bucketCount];
+        for (Instant<T> instant : sortedInstants) {
+            int index = bucketOf(instant.time);
+            if (tails[index] == null) {
+                buckets[index] = instant;
+            } else {
+                tails[index].next = instant;
+            }
+            tails[index] = instant;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package jSimPack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A one-way link between two logical processes of a
+ * {@link ConservativeSimulation}.
+ *
+ * A channel has a lookahead, which is the minimum delay of every message sent
+ * on it (e.g. the time to transmit the shortest frame on a network).  The
+ * lookahead is what lets the destination process run ahead of the source: the
+ * destination cannot receive a message from the source before the source's
+ * next event time plus the lookahead.
+ *
+ * Messages are held by the channel until the end of the current time window,
+ * and are then scheduled on the event list of the destination process in the
+ * order they were sent.
+ */
+public class Channel {
+
+    private final static class Message {
+
+        final long time;
+        final FutureEventListener handler;
+        final Object data;
+
+        Message(long time, FutureEventListener handler, Object data) {
+            this.time = time;
+            this.handler = handler;
+            this.data = data;
+        }
+    }
+    private final LogicalProcess from;
+    private final LogicalProcess to;
+    private final long lookahead;
+    /** messages sent in the current window, written only by the source process */
+    private final List<Message> outbox = new ArrayList<Message>();
+    private long sent = 0;
+
+    Channel(LogicalProcess from, LogicalProcess to, long lookahead) {
+        if (lookahead <= 0) {
+            throw new IllegalArgumentException("lookahead must be positive: " + lookahead + " ns");
+        }
+        this.from = from;
+        this.to = to;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Send a message to the destination process.  When it arrives, the
+     * handler is called with the data on the destination's event list, so the
+     * handler and the data must belong to the destination process (or be
+     * immutable).
+     *
+     * This must be called from an event of the source process.
+     *
+     * @param delay the delay from the current time of the source process
+     * until the message arrives, in nanoseconds
+     * @throws IllegalArgumentException if the delay is less than the lookahead
+     */
+    public void send(FutureEventListener handler, long delay, Object data) {
+        if (delay < lookahead) {
+            throw new IllegalArgumentException(this + ": delay " + delay + " ns is less than the lookahead "
+                    + lookahead + " ns");
+        }
+        outbox.add(new Message(from.getEventList().getWallClockNanoseconds() + delay, handler, data));
+        sent++;
+    }
+
+    public void send(FutureEventListener handler, SimTime delay, Object data) {
+        send(handler, delay.getTruncNanoseconds(), data);
+    }
+
+    /**
+     * Schedule the messages sent in the last window on the destination
+     * process.  Called between windows, when no process is running.
+     */
+    void deliver() {
+        FutureEventList destination = to.getEventList();
+        for (int i = 0; i < outbox.size(); i++) {
+            Message m = outbox.get(i);
+            destination.scheduleAt(m.handler, m.time, m.data);
+        }
+        outbox.clear();
+    }
+
+    public LogicalProcess getSource() {
+        return from;
+    }
+
+    public LogicalProcess getDestination() {
+        return to;
+    }
+
+    /**
+     * @return the minimum message delay, in nanoseconds
+     */
+    public long getLookahead() {
+        return lookahead;
+    }
+
+    /**
+     * @return the number of messages sent on this channel
+     */
+    public long getSentCount() {
+        return sent;
+    }
+
+    @Override
+    public String toString() {
+        return "Channel[" + from.getName() + "->" + to.getName() + "]";
+    }
+}
@@ -0,0 +1,467 @@
+package jSimPack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A parallel discrete event simulation made of several
+ * {@link LogicalProcess}es connected by {@link Channel}s, which is
+ * synchronized conservatively with time windows.
+ *
+ * Between windows, the messages sent on the channels are delivered, and each
+ * process gets a safe time: the earliest time a message could still arrive
+ * from one of its incoming channels, minus one nanosecond.  That is the
+ * earliest next event time of the channel's source plus the channel's
+ * lookahead, since every message sent in the window is sent from an event
+ * of the source at or after its next event time.  In the window, every
+ * process then processes its events up to its safe time, independently of
+ * the others, so the processes can run on separate threads.
+ *
+ * The windows and the messages delivered between them only depend on the
+ * simulation state, not on the number of threads or how they are scheduled,
+ * and each process has its own seeded random source.  So a run gives the same
+ * results with any number of threads, and a run with one thread (which does
+ * not start any threads) is the sequential reference for the parallel runs.
+ *
+ * Each window costs a barrier, so the speedup depends on how much work the
+ * processes have between windows, i.e. on the lookahead compared to the
+ * spacing of the events.
+ */
+public class ConservativeSimulation {
+
+    private final SplitMixRandom seeds;
+    private final List<LogicalProcess> processes = new ArrayList<LogicalProcess>();
+    private final List<Channel> channels = new ArrayList<Channel>();
+    //window state, indexed like processes
+    private long[] next;
+    private long[] safe;
+    private long windows = 0;
+    private boolean running = false;
+
+    /**
+     * @param seed the seed from which the random sources of the processes are
+     * derived
+     */
+    public ConservativeSimulation(long seed) {
+        seeds = new SplitMixRandom(seed);
+    }
+
+    /**
+     * Add a process.  Processes get their seeds in the order they are added.
+     */
+    public LogicalProcess addProcess(String name) {
+        checkNotRunning();
+        LogicalProcess lp = new LogicalProcess(name, processes.size(), seeds.nextLong());
+        processes.add(lp);
+        return lp;
+    }
+
+    /**
+     * Add a channel from one process to another.
+     *
+     * @param lookahead the minimum delay of the messages sent on the channel,
+     * which must be positive
+     */
+    public Channel connect(LogicalProcess from, LogicalProcess to, SimTime lookahead) {
+        checkNotRunning();
+        if (processes.get(from.getIndex()) != from || processes.get(to.getIndex()) != to) {
+            throw new IllegalArgumentException("process is not part of this simulation");
+        }
+        if (from == to) {
+            throw new IllegalArgumentException(from + ": a channel must connect two different processes");
+        }
+        Channel c = new Channel(from, to, lookahead.getTruncNanoseconds());
+        channels.add(c);
+        to.incoming.add(c);
+        return c;
+    }
+
+    private void checkNotRunning() {
+        if (running) {
+            throw new IllegalStateException("simulation is running");
+        }
+    }
+
+    /**
+     * Run the simulation until there are no events at or before the end
+     * time.  The run can be continued later with a later end time.
+     *
+     * @param threads the number of threads to run the processes on.  Process
+     * i runs on thread i % threads; with one thread, the processes are run on
+     * the calling thread.
+     * @throws RuntimeException if an event throws, after all the threads have
+     * stopped
+     */
+    public void run(SimTime end, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        checkNotRunning();
+        running = true;
+        try {
+            long endTime = end.getTruncNanoseconds();
+            next = new long[processes.size()];
+            safe = new long[processes.size()];
+            threads = Math.min(threads, processes.size());
+            if (threads <= 1) {
+                while (nextWindow(endTime)) {
+                    runWindow(0, 1);
+                }
+            } else {
+                runParallel(endTime, threads);
+            }
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Deliver the messages of the last window and compute the safe times of
+     * the next one.
+     *
+     * @return false if there are no more events at or before the end time
+     */
+    private boolean nextWindow(long endTime) {
+        for (int i = 0; i < channels.size(); i++) {
+            channels.get(i).deliver();
+        }
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < next.length; i++) {
+            next[i] = processes.get(i).getEventList().getNextEventTime();
+            earliest = Math.min(earliest, next[i]);
+        }
+        if (earliest > endTime) {
+            return false;
+        }
+        for (int i = 0; i < safe.length; i++) {
+            long s = endTime;
+            for (Channel c : processes.get(i).incoming) {
+                long sourceNext = next[c.getSource().getIndex()];
+                if (sourceNext != Long.MAX_VALUE) {
+                    s = Math.min(s, sourceNext + c.getLookahead() - 1);
+                }
+            }
+            safe[i] = s;
+        }
+        windows++;
+        return true;
+    }
+
+    /**
+     * Run the processes of one thread up to their safe times.
+     */
+    private void runWindow(int thread, int threads) {
+        for (int i = thread; i < safe.length; i += threads) {
+            if (next[i] <= safe[i]) {
+                processes.get(i).runUntil(safe[i]);
+            }
+        }
+    }
+
+    private void runParallel(final long endTime, final int threads) {
+        //the barrier action runs on the last thread to arrive, while the
+        //others wait, so it can safely touch every process
+        final boolean[] done = new boolean[1];
+        final Throwable[] failure = new Throwable[1];
+        done[0] = !nextWindow(endTime);
+        if (done[0]) {
+            return;
+        }
+        final CyclicBarrier barrier = new CyclicBarrier(threads, new Runnable() {
+
+            public void run() {
+                //a thread that failed keeps arriving at the barrier, so all
+                //the threads stop together after the window
+                if (failure[0] != null) {
+                    done[0] = true;
+                    return;
+                }
+                try {
+                    done[0] = !nextWindow(endTime);
+                } catch (Throwable ex) {
+                    fail(failure, ex);
+                    done[0] = true;
+                }
+            }
+        });
+        Thread[] workers = new Thread[threads - 1];
+        for (int t = 1; t < threads; t++) {
+            final int thread = t;
+            workers[t - 1] = new Thread(new Runnable() {
+
+                public void run() {
+                    work(thread, threads, barrier, done, failure);
+                }
+            }, "LogicalProcess worker " + t);
+            workers[t - 1].start();
+        }
+        work(0, threads, barrier, done, failure);
+        for (Thread worker : workers) {
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        } else if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+
+    /**
+     * Run windows until the barrier action ends the run.  A thread whose
+     * processes throw records the failure and keeps arriving at the barrier
+     * without running them, since the other threads may still be in the
+     * window and would wait at the barrier forever if it were reset.
+     */
+    private void work(int thread, int threads, CyclicBarrier barrier, boolean[] done, Throwable[] failure) {
+        boolean failed = false;
+        while (!done[0]) {
+            if (!failed) {
+                try {
+                    runWindow(thread, threads);
+                } catch (Throwable ex) {
+                    fail(failure, ex);
+                    failed = true;
+                }
+            }
+            try {
+                barrier.await();
+            } catch (InterruptedException ex) {
+                //breaks the barrier, so the other threads stop too
+                fail(failure, ex);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (BrokenBarrierException ex) {
+                //another thread was interrupted and reported it
+                return;
+            }
+        }
+    }
+
+    /**
+     * Record the first failure of a parallel run.
+     */
+    private static void fail(Throwable[] failure, Throwable ex) {
+        synchronized (failure) {
+            if (failure[0] == null) {
+                failure[0] = ex;
+            }
+        }
+    }
+
+    /**
+     * @return the number of time windows run so far
+     */
+    public long getWindowCount() {
+        return windows;
+    }
+
+    public List<LogicalProcess> getProcesses() {
+        return processes;
+    }
+
+    public List<Channel> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Node of the benchmark in main().  Every period, it does some work (like
+     * a controller computing its outputs) and sends a frame to a random other
+     * node, which folds it into its state.
+     */
+    private final static class BenchmarkNode implements FutureEventListener {
+
+        private final static Object TICK = new Object();
+        private final LogicalProcess lp;
+        private final long period;
+        private final int work;
+        private Channel[] out;
+        private BenchmarkNode[] peers;
+        long state;
+        long received = 0;
+
+        BenchmarkNode(LogicalProcess lp, long period, int work) {
+            this.lp = lp;
+            this.period = period;
+            this.work = work;
+            state = lp.getIndex();
+            lp.getEventList().schedule(this, 1 + lp.getRandomSource().getRandom().nextInt((int) period), TICK);
+        }
+
+        public void eventReleased(Object data) {
+            if (data == TICK) {
+                long x = state | 1;
+                for (int i = 0; i < work; i++) {
+                    x ^= x << 13;
+                    x ^= x >>> 7;
+                    x ^= x << 17;
+                }
+                state = x;
+                int peer = lp.getRandomSource().getRandom().nextInt(out.length);
+                long lookahead = out[peer].getLookahead();
+                out[peer].send(peers[peer], lookahead + lp.getRandomSource().getRandom().nextInt((int) lookahead),
+                        Long.valueOf(state));
+                lp.getEventList().schedule(this, period, TICK);
+            } else {
+                received++;
+                state = state * 31 + (Long) data + lp.getEventList().getWallClockNanoseconds();
+            }
+        }
+    }
+
+    /**
+     * Build the benchmark, and return its nodes.
+     */
+    private static BenchmarkNode[] buildBenchmark(ConservativeSimulation sim, int nodeCount, SimTime period,
+            SimTime lookahead, int work) {
+        BenchmarkNode[] nodes = new BenchmarkNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new BenchmarkNode(sim.addProcess("node" + i), period.getTruncNanoseconds(), work);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i].out = new Channel[nodeCount - 1];
+            nodes[i].peers = new BenchmarkNode[nodeCount - 1];
+            int k = 0;
+            for (int j = 0; j < nodeCount; j++) {
+                if (j != i) {
+                    nodes[i].out[k] = sim.connect(nodes[i].lp, nodes[j].lp, lookahead);
+                    nodes[i].peers[k] = nodes[j];
+                    k++;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Node of the failure check in main().  The first event of one node
+     * throws while the other node is still busy in its own event.
+     */
+    private final static class FailingNode implements FutureEventListener {
+
+        private final boolean fails;
+
+        FailingNode(LogicalProcess lp, boolean fails) {
+            this.fails = fails;
+            lp.getEventList().schedule(this, 1, null);
+        }
+
+        public void eventReleased(Object data) {
+            if (fails) {
+                throw new IllegalStateException("failure check");
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Run a simulation with a failing event on two threads.
+     *
+     * @return true if the run stopped and threw the failure
+     */
+    private static boolean checkFailure() {
+        final ConservativeSimulation sim = new ConservativeSimulation(1);
+        LogicalProcess a = sim.addProcess("failing");
+        LogicalProcess b = sim.addProcess("busy");
+        sim.connect(a, b, new SimTime(1, SimTime.SimTimeUnit.MILLISECOND));
+        sim.connect(b, a, new SimTime(1, SimTime.SimTimeUnit.MILLISECOND));
+        new FailingNode(a, true);
+        new FailingNode(b, false);
+        final Throwable[] thrown = new Throwable[1];
+        Thread runner = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    sim.run(new SimTime(1, SimTime.SimTimeUnit.SECOND), 2);
+                } catch (Throwable ex) {
+                    thrown[0] = ex;
+                }
+            }
+        }, "failure check");
+        runner.setDaemon(true);
+        runner.start();
+        try {
+            runner.join(10000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !runner.isAlive() && thrown[0] instanceof IllegalStateException;
+    }
+
+    /**
+     * Runs a benchmark of nodes exchanging frames over a shared network
+     * sequentially and in parallel, checks that both runs give the same
+     * results, and reports the speedup.  Also checks that a failing event
+     * stops a parallel run.
+     *
+     * Usage: java jSimPack.ConservativeSimulation [nodes [threads [runtime
+     * [period [lookahead [work]]]]]]
+     */
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        SimTime runtime = new SimTime(args.length > 2 ? args[2] : "10s");
+        SimTime period = new SimTime(args.length > 3 ? args[3] : "10ms");
+        //a minimum length CAN frame (111 bits) at 200 kbps
+        SimTime lookahead = new SimTime(args.length > 4 ? args[4] : "555us");
+        int work = args.length > 5 ? Integer.parseInt(args[5]) : 20000;
+        if (nodeCount < 2) {
+            throw new IllegalArgumentException("need at least two nodes");
+        }
+
+        long[] results = null;
+        long sequentialTime = 0;
+        for (int t : new int[]{1, threads}) {
+            ConservativeSimulation sim = new ConservativeSimulation(1);
+            BenchmarkNode[] nodes = buildBenchmark(sim, nodeCount, period, lookahead, work);
+            long start = System.nanoTime();
+            sim.run(runtime, t);
+            long elapsed = System.nanoTime() - start;
+            long[] r = new long[2 * nodeCount];
+            long messages = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                r[2 * i] = nodes[i].state;
+                r[2 * i + 1] = nodes[i].received;
+                messages += nodes[i].received;
+            }
+            System.out.println(String.format("%d thread(s): %.3f s, %d windows, %d messages", t, elapsed / 1e9,
+                    sim.getWindowCount(), messages));
+            if (results == null) {
+                results = r;
+                sequentialTime = elapsed;
+            } else {
+                System.out.println(String.format("Speedup: %.2f", (double) sequentialTime / elapsed));
+                if (Arrays.equals(results, r)) {
+                    System.out.println("Determinism check passed");
+                } else {
+                    System.out.println("Determinism check FAILED");
+                    System.exit(1);
+                }
+            }
+        }
+        if (checkFailure()) {
+            System.out.println("Failure check passed");
+        } else {
+            System.out.println("Failure check FAILED");
+            System.exit(1);
+        }
+    }
+}
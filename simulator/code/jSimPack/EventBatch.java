@@ -0,0 +1,68 @@
+package jSimPack;
+
+import java.util.Random;
+
+/**
+ * Reusable, array-backed list of the events released at one instant.  The
+ * batch grows as needed and is never shrunk, so after the first few instants
+ * collecting and permuting a batch does not allocate.
+ */
+final class EventBatch {
+
+    private FutureEvent[] events = new FutureEvent[16];
+    private int size = 0;
+
+    void add(FutureEvent e) {
+        if (size == events.length) {
+            FutureEvent[] larger = new FutureEvent[2 * events.length];
+            System.arraycopy(events, 0, larger, 0, size);
+            events = larger;
+        }
+        events[size++] = e;
+    }
+
+    FutureEvent get(int index) {
+        return events[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Remove all the events.  The references are cleared so that the batch
+     * does not keep released events reachable.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            events[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Permute the events in place (Fisher-Yates).  This draws the same
+     * sequence of random numbers as Collections.shuffle(), so the resulting
+     * order is the same as shuffling the equivalent list.
+     */
+    void shuffle(Random random) {
+        for (int i = size; i > 1; i--) {
+            swap(i - 1, random.nextInt(i));
+        }
+    }
+
+    /**
+     * Permute the events in place (Fisher-Yates) using a SplitMixRandom.
+     */
+    void shuffle(SplitMixRandom random) {
+        for (int i = size; i > 1; i--) {
+            swap(i - 1, random.nextInt(i));
+        }
+    }
+
+    private void swap(int i, int j) {
+        FutureEvent tmp = events[i];
+        events[i] = events[j];
+        events[j] = tmp;
+    }
+}
@@ -0,0 +1,50 @@
+package jSimPack;
+
+import java.util.List;
+
+/**
+ * Data structure used by FutureEventList to hold pending events in time order.
+ * Items are grouped by the instant they are scheduled for, and each group is
+ * removed from the queue as a unit.  Instants are given in nanoseconds (see
+ * {@link SimTime#getTruncNanoseconds()}) so that the queue does not need to
+ * allocate SimTime objects.
+ *
+ * Implementations must return the items of an instant in the order they were
+ * added.  FutureEventList permutes each batch with the simulation's random
+ * source, so two implementations that follow this rule produce exactly the
+ * same simulation for the same seed.
+ *
+ * @param <T> Generic type for the data the queue is to hold.
+ */
+public interface EventQueue<T> {
+
+    /**
+     * Add an item to the queue.
+     * @param time the instant the item is scheduled for, in nanoseconds
+     * @param item the item
+     */
+    public void addItem(long time, T item);
+
+    /**
+     * @return the earliest instant in the queue, in nanoseconds
+     * @throws java.util.NoSuchElementException if the queue is empty
+     */
+    public long peek();
+
+    /**
+     * Remove all items scheduled for the earliest instant in the queue.
+     * @return the items, in the order they were added
+     */
+    public List<T> getNextList();
+
+    /**
+     * Remove a single item from the queue.  If it was the last item for its
+     * instant, the instant is removed as well.
+     * @param time the instant the item was scheduled for, in nanoseconds
+     * @param item the item to remove
+     * @return true if the item was found in the queue
+     */
+    public boolean removeItem(long time, T item);
+
+    public boolean isEmpty();
+}
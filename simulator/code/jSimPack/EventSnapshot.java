@@ -0,0 +1,104 @@
+package jSimPack;
+
+import java.util.ArrayList;
+
+/**
+ * The pending events of one {@link QuiescenceDetector} window:  the offset of
+ * each event from the start of the window, the queue it is in, its listener
+ * and its callback data.
+ *
+ * Two snapshots are the same if they have the same events at the same
+ * offsets.  The order of the events of one instant does not matter, since
+ * the event list permutes them anyway.  Listeners are compared by identity
+ * and callbacks with equals().
+ */
+final class EventSnapshot {
+
+    private final ArrayList<FutureEventListener> handlers = new ArrayList<FutureEventListener>();
+    private final ArrayList<Object> callbacks = new ArrayList<Object>();
+    private long[] offsets = new long[64];
+    private boolean[] system = new boolean[64];
+    private boolean[] matched = new boolean[64];
+
+    void clear() {
+        handlers.clear();
+        callbacks.clear();
+    }
+
+    int size() {
+        return handlers.size();
+    }
+
+    /**
+     * Add an event.  Events must be added in order of their offsets.
+     */
+    void add(long offset, boolean isSystem, FutureEventListener handler, Object callback) {
+        int i = handlers.size();
+        if (i == offsets.length) {
+            offsets = grow(offsets);
+            boolean[] larger = new boolean[2 * i];
+            System.arraycopy(system, 0, larger, 0, i);
+            system = larger;
+            matched = new boolean[2 * i];
+        }
+        offsets[i] = offset;
+        system[i] = isSystem;
+        handlers.add(handler);
+        callbacks.add(callback);
+    }
+
+    private static long[] grow(long[] a) {
+        long[] larger = new long[2 * a.length];
+        System.arraycopy(a, 0, larger, 0, a.length);
+        return larger;
+    }
+
+    /**
+     * @return true if the other snapshot has the same events at the same
+     * offsets
+     */
+    boolean sameAs(EventSnapshot other) {
+        int n = size();
+        if (other.size() != n) {
+            return false;
+        }
+        int start = 0;
+        while (start < n) {
+            //the events of one instant
+            int end = start + 1;
+            while (end < n && offsets[end] == offsets[start]) {
+                end++;
+            }
+            if (other.offsets[start] != offsets[start]
+                    || (end < n && other.offsets[end] == offsets[start])
+                    || other.offsets[end - 1] != offsets[start]) {
+                return false;
+            }
+            for (int j = start; j < end; j++) {
+                other.matched[j] = false;
+            }
+            for (int i = start; i < end; i++) {
+                if (!other.match(start, end, system[i], handlers.get(i), callbacks.get(i))) {
+                    return false;
+                }
+            }
+            start = end;
+        }
+        return true;
+    }
+
+    /**
+     * Find an unmatched event in the range that is the same as the given one
+     * and mark it as matched.
+     */
+    private boolean match(int start, int end, boolean isSystem, FutureEventListener handler, Object callback) {
+        for (int j = start; j < end; j++) {
+            if (!matched[j] && system[j] == isSystem && handlers.get(j) == handler
+                    && (callbacks.get(j) == callback || (callback != null && callback.equals(callbacks.get(j))))) {
+                matched[j] = true;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,29 +3,82 @@ package jSimPack;
 /**
  * Data object that encodes event information.  These objects are scheduled and
  * executed by FutureEventList.
+ *
+ * Events created by the pooled scheduling methods of FutureEventList are
+ * recycled once they have been released or cancelled, so the same object can
+ * represent many different events over its lifetime.  The generation number
+ * is incremented each time the object is scheduled, so a holder can tell
+ * whether the object still represents the event it scheduled.
  * 
  */
 public class FutureEvent implements Comparable<FutureEvent>
 {
-    final FutureEventListener handler;
-    final SimTime when;
-    final Object callback;
+    FutureEventListener handler;
+    /** wall clock time for the event, in nanoseconds */
+    long when;
+    Object callback;
+    /** the queue the event is scheduled in */
+    EventQueue<FutureEvent> queue;
+    /** true if the event list may recycle this object */
+    final boolean pooled;
     private boolean isScheduled;
+    private int generation;
 
     /**
-     * 
+     * Create an unscheduled event.
+     * @param pooled true if the event list may recycle this object
+     */
+    FutureEvent(boolean pooled)
+    {
+        this.pooled = pooled;
+        isScheduled = false;
+        generation = 0;
+    }
+
+    /**
+     * (Re)initialize the event and mark it as scheduled.
      * @param handler the class that gets the callback when the event occurs
-     * @param when wall clock time for the event to happen
+     * @param when wall clock time for the event to happen, in nanoseconds
      * @param callback data that is passed back to the listener when the event occurs
      * this allows listeners that get more than one event to distinguish between
      * them.
      */
-    FutureEvent(FutureEventListener handler, SimTime when, Object callback)
+    void schedule(FutureEventListener handler, long when, Object callback)
     {
+        if (isScheduled)
+            throw new IllegalStateException("event is already scheduled: "+this);
 	this.handler = handler;
 	this.when = when;
 	this.callback = callback;
         isScheduled = true;
+        generation++;
+    }
+
+    /**
+     * Clear the references held by the event so it can be returned to the pool.
+     */
+    void clear()
+    {
+        handler = null;
+        callback = null;
+        queue = null;
+    }
+
+    /**
+     * @return the number of times this object has been scheduled.
+     */
+    public int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * @return true if the event is scheduled and this object still represents
+     * the event that was scheduled in the specified generation
+     */
+    public boolean isScheduled(int generation)
+    {
+        return isScheduled && this.generation == generation;
     }
 
     /**
@@ -37,6 +90,14 @@ public class FutureEvent implements Comparable<FutureEvent>
         return isScheduled;
     }
 
+    /**
+     * @return the wall clock time at which the event occurs
+     */
+    public SimTime getTime()
+    {
+        return new SimTime(when, SimTime.SimTimeUnit.NANOSECOND);
+    }
+
     /**
      * mark the event as having occurred
      */
@@ -53,11 +114,11 @@ public class FutureEvent implements Comparable<FutureEvent>
      */
     public int compareTo(FutureEvent e)
     {
-        return when.compareTo(e.when);
+        return when < e.when ? -1 : (when == e.when ? 0 : 1);
     }
 
     @Override
     public String toString() {
-        return "Time:" + when + " Callback" + callback;
+        return "Time:" + getTime() + " Callback" + callback;
     }
 }
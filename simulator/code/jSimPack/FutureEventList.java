@@ -2,7 +2,8 @@ package jSimPack;
 
 import jSimPack.SimTime.SimTimeUnit;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Dispatches abstract events that occur at discrete points in time.  Events
@@ -20,7 +21,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * The FutureEventList has a setting called realtimeRate.  This allows the simulation
  * to be clocked against the system clock so that simulation can be observed by
  * the user.  The system does not make a hard real-time guarantee of execution. 
- * It only guarantees that the simulator will execute no faster than the realtimeRate.
+ * It only guarantees that, on average, the simulator will execute no faster than the
+ * realtimeRate.  Pacing is measured from a fixed starting point with System.nanoTime(),
+ * so when the simulator falls behind (e.g. during a slow step) it runs without waiting
+ * until it has caught up, rather than drifting further behind.
  * The maximum rate can be set to POSITIVE_INFINITY for fastest execution, but the
  * true maximum speed is limited by CPU speed.
  *
@@ -45,69 +49,89 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class FutureEventList {
 
-    /**
-     * Data structure class for executing events in time order.  This implementation
-     * uses a TreeMap of Lists data structure.  Each list is associated with a SimTime
-     * that represents the time when that event is to occur, and the list contains
-     * all events sheduled for that time.  The TreeMap provides total ordering of events.
-     * 
-     * This implementation is prefered over a PriorityQueue because testing shows
-     * that there are many sets of events that occur simulataneously.  Since we have
-     * to pull all these events from the queue, put them in a list, permute them, then
-     * execute them, it is (slightly) faster to store them in a list to begin with.
-     * 
-     * @param <T> Generic type for the data the queue is to hold.
-     */
-    private class ArrayQueue<T> {
-
-        private TreeMap<SimTime, List<T>> events = new TreeMap<SimTime, List<T>>();
-
-        public void addItem(SimTime when, T item) {
-            List<T> itemList = events.get(when);
-            if (itemList == null) {
-                itemList = new LinkedList<T>();
-                itemList.add(item);
-                events.put(when, itemList);
-            } else {
-                //add the item to the list for that time.
-                //Don't need to put() into the map because the list is already there.
-                itemList.add(item);
-            }
-        }
-
-        public SimTime peek() {
-            return events.firstKey();
-        }
-
-        public List<T> getNextList() {
-            return events.pollFirstEntry().getValue();
-        }
-
-        public boolean isEmpty() {
-            return events.isEmpty();
-        }
-    }
-    
     //private final Queue<FutureEvent> futureEvents;
     //private final Queue<FutureEvent> systemEvents;
      /*
-     * Data structures to hold the events.  See documentation of ArrayQueue for
+     * Data structures to hold the events.  See documentation of TreeEventQueue for
       * discussion.  JR 2010-05-22
      */
-    private final ArrayQueue<FutureEvent> futureEvents;
-    private final ArrayQueue<FutureEvent> systemEvents;
-    /** Current simulation time */
-    private SimTime wallClock;
-    /** Time at which simulation should end */
-    private SimTime endTime;
+    private EventQueue<FutureEvent> futureEvents;
+    private final EventQueue<FutureEvent> systemEvents;
+    /** Current simulation time, in nanoseconds */
+    private long wallClock;
+    /** SimTime object for the current simulation time, created on demand */
+    private SimTime wallClockTime;
+    /** Time at which simulation should end, in nanoseconds */
+    private long endTime;
     /**
      * Whether the simulation should end immediately, regardless of
      * <code>endTime</code>.
      */
     private boolean endNow;
     private RandomSource randomSource;
-    private double realtimeRate = 1.0;
-    private boolean blockFlag = false;
+    private volatile double realtimeRate = 1.0;
+    /** true while the simulation thread is halted by a realtime rate of 0 */
+    private volatile boolean blockFlag = false;
+    /** set by stepSimulation() to release the blocked simulation thread */
+    private volatile boolean stepRequested = false;
+    /** thread that is currently running the simulation, if any */
+    private volatile Thread simulationThread = null;
+    /**
+     * Commands posted by other threads (mainly the GUI) that are executed by
+     * the simulation thread between instants.  See {@link #invokeBetweenSteps}.
+     */
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+    /**
+     * Realtime pacing is anchored at a pair of real (System.nanoTime()) and
+     * simulation times.  Each instant is released when the real time elapsed
+     * since the anchor catches up with the simulation time elapsed since the
+     * anchor, so rounding errors and oversleeping do not accumulate.  The
+     * anchor is reset whenever the rate changes or the simulation blocks.
+     */
+    private boolean paceAnchored = false;
+    private long paceAnchorReal;
+    private long paceAnchorSim;
+    private double paceAnchorRate;
+    /** real time at which the last paced instant was released */
+    private long paceLastReal;
+    /** largest amount (in real nanoseconds) that pacing has fallen behind */
+    private long paceMaxLag = 0;
+    /** number of times pacing fell too far behind and was re-anchored */
+    private int paceSlips = 0;
+    /** don't bother parking the thread for less than this (real nanoseconds) */
+    private final static long PACE_MIN_WAIT = 200000L;
+    /** longest single park, so rate changes take effect promptly */
+    private final static long PACE_MAX_PARK = 50000000L;
+    /**
+     * if pacing falls further behind than this, give up catching up and
+     * re-anchor at the current time instead of running flat out
+     */
+    private final static long PACE_MAX_LAG = 1000000000L;
+    /** number of events that are scheduled and have not occurred or been cancelled */
+    private int liveEvents = 0;
+    /**
+     * number of cancelled events that are still referenced by the event list.
+     * These are events that were cancelled after their batch was removed
+     * from the queue.
+     */
+    private int deadEvents = 0;
+    /** total number of events removed from the queues by cancellation */
+    private long cancelledEvents = 0;
+    /** released and cancelled events that can be scheduled again */
+    private final ArrayList<FutureEvent> eventPool = new ArrayList<FutureEvent>();
+    /** the event whose listener is currently being called */
+    private FutureEvent releasingEvent = null;
+    /** groups of periodic events that share an entry in one of the queues */
+    private final ArrayList<PeriodicGroup> periodicGroups = new ArrayList<PeriodicGroup>();
+    /** reusable lists for the events released at one instant */
+    private final EventBatch systemBatch = new EventBatch();
+    private final EventBatch eventBatch = new EventBatch();
+    /** permute simultaneous events with the dedicated SplitMixRandom stream */
+    private boolean splitPermutation = false;
+    /** skips quiescent stretches of time, if set */
+    private QuiescenceDetector quiescenceDetector = null;
+    /** start of the next quiescence window, in nanoseconds */
+    private long nextWindowStart;
     //breakpoint
     //private final Queue<SimTime> breakpoints;
     private final HashMap<SimTime, Breakpoint> breakpoints;
@@ -115,27 +139,93 @@ public class FutureEventList {
 
     /** used for stepping through the simulation */
     public FutureEventList(RandomSource randomSource) {
-        wallClock = SimTime.ZERO;
+        wallClock = 0;
+        wallClockTime = SimTime.ZERO;
         endNow = false;
-        endTime = SimTime.FOREVER;
+        endTime = Long.MAX_VALUE;
 
         //futureEvents = new PriorityQueue<FutureEvent>();
         //systemEvents = new PriorityQueue<FutureEvent>();
-        futureEvents = new ArrayQueue<FutureEvent>();
-        systemEvents = new ArrayQueue<FutureEvent>();
+        futureEvents = new TreeEventQueue<FutureEvent>();
+        systemEvents = new TreeEventQueue<FutureEvent>();
 
         this.randomSource = randomSource;
         breakpoints = new HashMap<SimTime, Breakpoint>();
         breakpointListeners = new ArrayList<BreakpointListener>();
     }
 
+    /**
+     * Replace the data structure that holds the simulation events.  The system
+     * events always use a TreeEventQueue since there are only a few of them.
+     *
+     * @param queue an empty event queue
+     * @throws IllegalStateException if simulation events have already been
+     * scheduled
+     */
+    public void setEventQueue(EventQueue<FutureEvent> queue) {
+        if (!futureEvents.isEmpty()) {
+            throw new IllegalStateException("cannot change the event queue after events have been scheduled");
+        }
+        if (!queue.isEmpty()) {
+            throw new IllegalArgumentException("event queue is not empty");
+        }
+        futureEvents = queue;
+    }
+
+    /**
+     * Select the random stream used to permute simultaneous events.  By
+     * default, the permutation draws from the same java.util.Random as the
+     * rest of the simulation.  The split stream is a faster generator derived
+     * from the same seed (see {@link RandomSource#getPermutationRandom()}), so
+     * runs are still repeatable, but the results for a given seed differ from
+     * the default.
+     *
+     * @param splitPermutation true to use the dedicated permutation stream
+     */
+    public void setSplitPermutation(boolean splitPermutation) {
+        this.splitPermutation = splitPermutation;
+    }
+
     /**
      * Halt the simulator at a specified time
      * @param endTime When to stop the simulator.  This should be interpreted as
      * clock time.
      */
     public void setEndTime(SimTime time) {
-        endTime = time;
+        endTime = time.getTruncNanoseconds();
+    }
+
+    /**
+     * @return the time at which the simulation ends, in nanoseconds, or
+     * Long.MAX_VALUE if no end time is set
+     */
+    public long getEndTimeNanoseconds() {
+        return endTime;
+    }
+
+    /**
+     * Start checking for quiescence at the start of every window of the
+     * detector, beginning with the next one.  Called by the detector.
+     */
+    void setQuiescenceDetector(QuiescenceDetector detector) {
+        quiescenceDetector = detector;
+        long window = detector.getWindow();
+        nextWindowStart = (wallClock / window + 1) * window;
+    }
+
+    /**
+     * @return the distinct periods of the periodic simulation events, in
+     * nanoseconds.  Periodic nonsimulation events (e.g. statistics samplers)
+     * are not included.
+     */
+    public Set<Long> getPeriods() {
+        Set<Long> periods = new TreeSet<Long>();
+        for (PeriodicGroup g : periodicGroups) {
+            if (g.carrier.queue == futureEvents) {
+                periods.add(g.period);
+            }
+        }
+        return periods;
     }
 
     /**
@@ -145,6 +235,8 @@ public class FutureEventList {
      * The simulator can run as slow as is needed, but to run faster than realtime,
      * the upper limit is based on the performance of the system and the java VM.
      *
+     * Pacing restarts from the current time whenever the rate is changed.
+     *
      * @param rate  the realtime rate
      */
     public void setRealtimeRate(double rate) {
@@ -152,6 +244,7 @@ public class FutureEventList {
             throw new IllegalArgumentException("negative rate: " + rate);
         }
         realtimeRate = rate;
+        wakeSimulationThread();
     }
 
     /**
@@ -162,6 +255,39 @@ public class FutureEventList {
         return realtimeRate;
     }
 
+    /**
+     * @return the rate at which simulation time has actually advanced relative
+     * to real time, up to the last paced instant, since pacing last started (at the beginning of the run,
+     * the last rate change or the last time the simulation was blocked), or
+     * NaN if the simulation is not being paced.
+     */
+    public double getAchievedRealtimeRate() {
+        if (!paceAnchored) {
+            return Double.NaN;
+        }
+        long realElapsed = paceLastReal - paceAnchorReal;
+        if (realElapsed <= 0) {
+            return Double.NaN;
+        }
+        return (double) (wallClock - paceAnchorSim) / realElapsed;
+    }
+
+    /**
+     * @return the furthest (in real seconds) that the simulation has fallen
+     * behind the requested realtime rate.
+     */
+    public double getMaximumPacingLag() {
+        return paceMaxLag / 1e9;
+    }
+
+    /**
+     * @return the number of times the simulation fell so far behind the
+     * requested realtime rate that pacing was restarted instead of catching up.
+     */
+    public int getPacingSlips() {
+        return paceSlips;
+    }
+
     /**
      * Schedules the specified event to happen in the future.  The event will
      * happen <code>timeInterval</code> time ticks into the future.  The specified
@@ -169,21 +295,48 @@ public class FutureEventList {
      * when the event occurs.
      * 
      * @return
-     * A unique object that can be passed to {@link #cancelEvent(Object, boolean)}
+     * A unique object that can be passed to {@link #cancelEvent(FutureEvent)}
      * to identify this event.
      * 
      * @throws IllegalArgumentException
      * if <code>timeInterval</code> is negative
      */
     public FutureEvent schedule(FutureEventListener event, SimTime timeInterval, Object data) {
-        if (timeInterval.isNegative()) {
-            throw new IllegalArgumentException("negative timeInterval");
+        return schedule(event, timeInterval.getTruncNanoseconds(), data);
+    }
+
+    /**
+     * Works just like {@link #schedule(FutureEventListener, SimTime, Object)},
+     * but the interval is given in nanoseconds.  This avoids creating SimTime
+     * objects on the critical path of the simulator.
+     */
+    public FutureEvent schedule(FutureEventListener event, long timeInterval, Object data) {
+        return scheduleAt(event, timeAfter(timeInterval), data);
+    }
+
+    /**
+     * Schedules the specified event at an absolute time (in nanoseconds).
+     *
+     * @throws IllegalArgumentException
+     * if <code>time</code> is before the current time
+     */
+    public FutureEvent scheduleAt(FutureEventListener event, long time, Object data) {
+        if (time < wallClock) {
+            throw new IllegalArgumentException("time is in the past: " + time);
         }
+        return insert(futureEvents, new FutureEvent(false), event, time, data);
+    }
 
-        FutureEvent e = new FutureEvent(event,
-                SimTime.add(wallClock, timeInterval), data);
-        futureEvents.addItem(e.when, e);
-        return e;
+    /**
+     * Works just like {@link #schedule(FutureEventListener, long, Object)},
+     * but the event object is owned by the event list and is recycled as soon
+     * as it has been released or cancelled.  The caller must not use the
+     * returned object after that point, except through the methods that take
+     * a generation number.  Save {@link FutureEvent#getGeneration()} and pass
+     * it to {@link #cancelEvent(FutureEvent, int)}.
+     */
+    public FutureEvent schedulePooled(FutureEventListener event, long timeInterval, Object data) {
+        return insert(futureEvents, obtainEvent(), event, timeAfter(timeInterval), data);
     }
 
     /**
@@ -191,16 +344,201 @@ public class FutureEventList {
      * affect the random permutation of other events).
      */
     public FutureEvent scheduleNonsimulationEvent(FutureEventListener event, SimTime timeInterval, Object data) {
-        if (timeInterval.isNegative()) {
+        return scheduleNonsimulationEvent(event, timeInterval.getTruncNanoseconds(), data);
+    }
+
+    /**
+     * Works just like {@link #scheduleNonsimulationEvent(FutureEventListener, SimTime, Object)},
+     * but the interval is given in nanoseconds.
+     */
+    public FutureEvent scheduleNonsimulationEvent(FutureEventListener event, long timeInterval, Object data) {
+        return insert(systemEvents, new FutureEvent(false), event, timeAfter(timeInterval), data);
+    }
+
+    /**
+     * Works just like {@link #schedulePooled(FutureEventListener, long, Object)}
+     * but for nonsimulation events.
+     */
+    public FutureEvent schedulePooledNonsimulationEvent(FutureEventListener event, long timeInterval, Object data) {
+        return insert(systemEvents, obtainEvent(), event, timeAfter(timeInterval), data);
+    }
+
+    /**
+     * Schedule the event that is currently being released again, reusing the
+     * same object.  This may only be called from the
+     * {@link FutureEventListener#eventReleased(Object)} method of the event's
+     * listener.  The event goes back into the same queue (simulation or
+     * nonsimulation) and its generation number is incremented.
+     *
+     * @throws IllegalStateException if the event is not the one that is
+     * currently being released, or if it has already been rescheduled
+     */
+    public void reschedule(FutureEvent event, long timeInterval, Object data) {
+        if (event != releasingEvent || event.isScheduled()) {
+            throw new IllegalStateException("only the event that is being released can be rescheduled: " + event);
+        }
+        insert(event.queue, event, event.handler, timeAfter(timeInterval), data);
+    }
+
+    /**
+     * Schedules the specified event to happen once every <code>period</code>
+     * nanoseconds until it is cancelled with
+     * {@link #cancelPeriodic(PeriodicEvent)}.  The first release happens
+     * <code>phase</code> nanoseconds from now.  The specified <code>data</code>
+     * is passed to {@link FutureEventListener#eventReleased(Object)} every time.
+     *
+     * Periodic events with the same period and release times share one entry
+     * in the queue, which is put back into the queue once per period instead
+     * of once per event.  Each member is still released as a separate event
+     * and is permuted along with the other events of its instant.
+     *
+     * @throws IllegalArgumentException if <code>period</code> is not positive
+     * or <code>phase</code> is negative
+     */
+    public PeriodicEvent schedulePeriodic(FutureEventListener event, long period, long phase, Object data) {
+        return addPeriodic(futureEvents, event, period, phase, data);
+    }
+
+    /**
+     * Works just like {@link #schedulePeriodic(FutureEventListener, long, long, Object)}
+     * but for nonsimulation events.
+     */
+    public PeriodicEvent schedulePeriodicNonsimulationEvent(FutureEventListener event, long period, long phase, Object data) {
+        return addPeriodic(systemEvents, event, period, phase, data);
+    }
+
+    private PeriodicEvent addPeriodic(EventQueue<FutureEvent> queue, FutureEventListener event,
+            long period, long phase, Object data) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period is not positive: " + period);
+        }
+        long time = timeAfter(phase);
+        PeriodicGroup group = null;
+        for (PeriodicGroup g : periodicGroups) {
+            if (g.carrier.queue == queue && g.period == period && g.carrier.when == time) {
+                group = g;
+                break;
+            }
+        }
+        if (group == null) {
+            group = new PeriodicGroup(period);
+            group.carrier.schedule(group, time, null);
+            group.carrier.queue = queue;
+            queue.addItem(time, group.carrier);
+            periodicGroups.add(group);
+        }
+
+        PeriodicEvent e = new PeriodicEvent(period);
+        e.schedule(event, time, data);
+        e.queue = queue;
+        e.carrier = group.carrier;
+        group.members.add(e);
+        liveEvents++;
+        return e;
+    }
+
+    /**
+     * Stop a periodic event.  If the event is due at the current instant and
+     * has not been released yet, it will not be released.
+     */
+    public void cancelPeriodic(PeriodicEvent event) {
+        if (!event.isScheduled()) {
+            throw new IllegalArgumentException("event is not scheduled: " + event);
+        }
+        event.expire();
+        liveEvents--;
+        cancelledEvents++;
+        PeriodicGroup group = (PeriodicGroup) event.carrier.handler;
+        group.members.remove(event);
+        if (group.members.isEmpty()) {
+            FutureEvent carrier = group.carrier;
+            carrier.queue.removeItem(carrier.when, carrier);
+            carrier.expire();
+            periodicGroups.remove(group);
+        }
+    }
+
+    /**
+     * All the periodic events in one queue that have the same period and are
+     * released at the same times.  The group is represented in the queue by a
+     * single carrier event.
+     */
+    private class PeriodicGroup implements FutureEventListener {
+
+        final long period;
+        final FutureEvent carrier = new FutureEvent(false);
+        final ArrayList<PeriodicEvent> members = new ArrayList<PeriodicEvent>();
+
+        PeriodicGroup(long period) {
+            this.period = period;
+        }
+
+        public void eventReleased(Object data) {
+            //the members are released individually
+            throw new IllegalStateException("periodic group released directly");
+        }
+    }
+
+    /**
+     * Copy the events of one instant into a batch, replacing the carrier
+     * events of periodic groups with the members of the group.  Each carrier
+     * is put back into its queue for the next period.
+     */
+    private void collectBatch(List<FutureEvent> events, EventBatch batch) {
+        batch.clear();
+        for (FutureEvent e : events) {
+            if (e.handler instanceof PeriodicGroup) {
+                PeriodicGroup group = (PeriodicGroup) e.handler;
+                for (PeriodicEvent member : group.members) {
+                    member.when = e.when;
+                    batch.add(member);
+                }
+                e.when += group.period;
+                e.queue.addItem(e.when, e);
+            } else {
+                batch.add(e);
+            }
+        }
+    }
+
+    /**
+     * @return the absolute time that is timeInterval nanoseconds from now
+     */
+    private long timeAfter(long timeInterval) {
+        if (timeInterval < 0) {
             throw new IllegalArgumentException("negative timeInterval");
         }
+        long time = wallClock + timeInterval;
+        if (time < 0) {
+            //overflow, so the event will never be reached
+            time = Long.MAX_VALUE;
+        }
+        return time;
+    }
 
-        FutureEvent e = new FutureEvent(event,
-                SimTime.add(wallClock, timeInterval), data);
-        systemEvents.addItem(e.when, e);
+    private FutureEvent insert(EventQueue<FutureEvent> queue, FutureEvent e,
+            FutureEventListener event, long time, Object data) {
+        e.schedule(event, time, data);
+        e.queue = queue;
+        queue.addItem(time, e);
+        liveEvents++;
         return e;
     }
 
+    private FutureEvent obtainEvent() {
+        if (eventPool.isEmpty()) {
+            return new FutureEvent(true);
+        }
+        return eventPool.remove(eventPool.size() - 1);
+    }
+
+    private void recycle(FutureEvent e) {
+        if (e.pooled) {
+            e.clear();
+            eventPool.add(e);
+        }
+    }
+
     /**
      * Works jsut like cancelEvent but for nonsimulation events.
      * @param event
@@ -208,23 +546,92 @@ public class FutureEventList {
      * @return
      */
     public void cancelNonsimulationEvent(FutureEvent event) {
+        if (event instanceof PeriodicEvent) {
+            cancelPeriodic((PeriodicEvent) event);
+            return;
+        }
         if (!event.isScheduled()) {
             throw new IllegalArgumentException("event is not scheduled: " + event);
         }
         event.expire();
+        removeCancelled(systemEvents, event);
     }
 
     /**
-     * Cancel the event associated with <code>label</code>. If the
-     * event's release time coincides with the current simulation time,
-     * the event will be removed if and only if <code>deleteNow</code>
-     * is <code>true</code>.
+     * Works just like {@link #cancelNonsimulationEvent(FutureEvent)}, but
+     * checks that the event object has not been recycled since it was
+     * scheduled.
+     * @param generation the generation of the event when it was scheduled
+     */
+    public void cancelNonsimulationEvent(FutureEvent event, int generation) {
+        if (!event.isScheduled(generation)) {
+            throw new IllegalArgumentException("event is not scheduled: " + event);
+        }
+        cancelNonsimulationEvent(event);
+    }
+
+    /**
+     * Cancel the specified event.  The event is removed from the queue
+     * immediately, unless it belongs to the batch of events that is currently
+     * being executed, in which case it is skipped when its turn comes.
      */
     public void cancelEvent(FutureEvent event) {
+        if (event instanceof PeriodicEvent) {
+            cancelPeriodic((PeriodicEvent) event);
+            return;
+        }
         if (!event.isScheduled()) {
             throw new IllegalArgumentException("event is not scheduled: " + event);
         }
         event.expire();
+        removeCancelled(futureEvents, event);
+    }
+
+    /**
+     * Works just like {@link #cancelEvent(FutureEvent)}, but checks that the
+     * event object has not been recycled since it was scheduled.
+     * @param generation the generation of the event when it was scheduled
+     */
+    public void cancelEvent(FutureEvent event, int generation) {
+        if (!event.isScheduled(generation)) {
+            throw new IllegalArgumentException("event is not scheduled: " + event);
+        }
+        cancelEvent(event);
+    }
+
+    private void removeCancelled(EventQueue<FutureEvent> queue, FutureEvent event) {
+        liveEvents--;
+        if (queue.removeItem(event.when, event)) {
+            cancelledEvents++;
+            recycle(event);
+        } else {
+            deadEvents++;
+        }
+    }
+
+    /**
+     * @return the number of events (simulation and non-simulation) that are
+     * scheduled and have not yet occurred or been cancelled
+     */
+    public int getLiveEventCount() {
+        return liveEvents;
+    }
+
+    /**
+     * @return the number of cancelled events that are still held by the event
+     * list because they were cancelled after their batch was removed from the
+     * queue.  These are discarded as soon as the batch finishes.
+     */
+    public int getDeadEventCount() {
+        return deadEvents;
+    }
+
+    /**
+     * @return the total number of events that have been cancelled and removed
+     * from the queue
+     */
+    public long getCancelledEventCount() {
+        return cancelledEvents;
     }
 
     /**
@@ -233,7 +640,7 @@ public class FutureEventList {
      * interval.
      */
     public void runSimulationUntil(SimTime end) {
-        endTime = end;
+        setEndTime(end);
         runSimulation();
     }
 
@@ -243,8 +650,67 @@ public class FutureEventList {
      * the simulation is ended immediately by calling {@link #endSimulation()}.
      */
     public void runSimulation() {
-        while (!endNow && executeSimulationStep()) {
-            // empty loop
+        simulationThread = Thread.currentThread();
+        try {
+            while (!endNow && executeSimulationStep()) {
+                // empty loop
+            }
+        } finally {
+            simulationThread = null;
+            //run anything that was posted while the simulation was finishing
+            runCommands();
+        }
+    }
+
+    /**
+     * Execute a command on the simulation thread, between instants.  This is
+     * how other threads (mainly the GUI) interact with a running simulation:
+     * the command may safely read simulation state and change the event list,
+     * because no event is being released while it runs.  Commands are executed
+     * in the order they are posted, and while the simulation is blocked.
+     *
+     * If the simulation is not running, or this is called from the
+     * simulation thread (e.g. from an event), the command is executed
+     * immediately.
+     *
+     * The simulation thread does not take any locks to check for commands, so
+     * runs without a GUI pay nothing for this.
+     *
+     * @param command the command to execute
+     */
+    public void invokeBetweenSteps(Runnable command) {
+        Thread thread = simulationThread;
+        if (thread == null || thread == Thread.currentThread()) {
+            command.run();
+            return;
+        }
+        commands.add(command);
+        if (simulationThread == null) {
+            //the simulation finished before it could see the command
+            runCommands();
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Execute the commands that have been posted with invokeBetweenSteps().
+     */
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Wake the simulation thread if it is parked, so that it notices commands
+     * and rate changes promptly.
+     */
+    private void wakeSimulationThread() {
+        Thread thread = simulationThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            LockSupport.unpark(thread);
         }
     }
 
@@ -257,76 +723,184 @@ public class FutureEventList {
      * released.
      */
     private boolean executeSimulationStep() {
-        interleaveLock.lock();
-        try {
-            if (futureEvents.isEmpty()) {
-                return false;
-            }
+        if (!commands.isEmpty()) {
+            runCommands();
+        }
+        if (futureEvents.isEmpty()) {
+            return false;
+        }
 
-            SimTime nextEventTime = futureEvents.peek();
+        long nextEventTime = futureEvents.peek();
 
-            //long nextEventNS = nextEventTime.getTruncNanoseconds();
-            //nextEventNS = nextEventNS - (Math.round((double) nextEventNS / 1000.0) * 1000);
-            // if (nextEventNS != 0) {
-            //     System.out.println("Noteworthy event:"  + nextEventTime);
-            // }
+        //long nextEventNS = nextEventTime.getTruncNanoseconds();
+        //nextEventNS = nextEventNS - (Math.round((double) nextEventNS / 1000.0) * 1000);
+        // if (nextEventNS != 0) {
+        //     System.out.println("Noteworthy event:"  + nextEventTime);
+        // }
+
+        if (nextEventTime > endTime) {
+            return false;
+        }
 
-            if (nextEventTime.isGreaterThan(endTime)) {
-                return false;
+        if (quiescenceDetector != null) {
+            long next = systemEvents.isEmpty() ? nextEventTime : Math.min(nextEventTime, systemEvents.peek());
+            if (next >= nextWindowStart) {
+                //the detector may move the pending events forward
+                long window = quiescenceDetector.getWindow();
+                long start = next - next % window;
+                nextWindowStart = start + quiescenceDetector.windowStarted(start) + window;
+                nextEventTime = futureEvents.peek();
+                if (nextEventTime > endTime) {
+                    return false;
+                }
             }
+        }
 
-            //execute any pending system events
-            SimTime nextSystemEventTime = systemEvents.peek();
-            while (!systemEvents.isEmpty() && nextSystemEventTime.isLessThanOrEqual(nextEventTime)) {
-                List<FutureEvent> nextSystemEvents = systemEvents.getNextList();
+        //execute any pending system events
+        while (!systemEvents.isEmpty() && systemEvents.peek() <= nextEventTime) {
+            long nextSystemEventTime = systemEvents.peek();
+            collectBatch(systemEvents.getNextList(), systemBatch);
 
-                waitUntil(nextSystemEventTime);
+            waitUntil(nextSystemEventTime);
 
-                wallClock = nextSystemEventTime;
+            wallClock = nextSystemEventTime;
 
-                for (FutureEvent e : nextSystemEvents) {
-                    if (e.isScheduled()) {
-                        e.expire();
-                        e.handler.eventReleased(e.callback);
-                    }
-                }
-                nextSystemEventTime = systemEvents.peek();
+            for (int i = 0; i < systemBatch.size(); i++) {
+                releaseEvent(systemBatch.get(i));
             }
+            systemBatch.clear();
+        }
 
-            //wait for next non-system event time
-            waitUntil(nextEventTime);
+        //wait for next non-system event time
+        waitUntil(nextEventTime);
 
-            wallClock = nextEventTime;
+        wallClock = nextEventTime;
 
-            //pull all the simultaneous events from the queue
-            //List<FutureEvent> eventBatch = new LinkedList<FutureEvent>();
-            //while (!futureEvents.isEmpty() && futureEvents.peek().when.equals(nextEventTime)) {
-            //eventBatch.add(futureEvents.remove());
-            //}
-            List<FutureEvent> eventBatch = futureEvents.getNextList();
+        //pull all the simultaneous events from the queue
+        collectBatch(futureEvents.getNextList(), eventBatch);
 
-            //shuffle the events
-            Collections.shuffle(eventBatch, randomSource.getRandom());
+        //shuffle the events in place
+        if (splitPermutation) {
+            eventBatch.shuffle(randomSource.getPermutationRandom());
+        } else {
+            eventBatch.shuffle(randomSource.getRandom());
+        }
 
-            //JR 2010-05-21
-            //even though this call has no effect, it provides a noticeable speeds up in the simulator
-            //probably a side-effect of this call is some cleanup on the internal data structtres that 
-            //makes the enumeration that follows faster
-            eventBatch.size();
+        for (int i = 0; i < eventBatch.size(); i++) {
+            releaseEvent(eventBatch.get(i));
+        }
+        //clear the event list
+        eventBatch.clear();
+        return !futureEvents.isEmpty();
+        //return true;
+    }
 
-            for (FutureEvent e : eventBatch) {
-                if (e.isScheduled()) {
-                    e.expire();
-                    e.handler.eventReleased(e.callback);
+    /**
+     * Add the events (simulation and nonsimulation) that are due before the
+     * end of a quiescence window to a snapshot, with their offsets from the
+     * start of the window.  The members of periodic groups are added
+     * individually.  The queues are left as they were.
+     *
+     * @return the time of the first event at or after the end, or
+     * Long.MAX_VALUE if there is none
+     */
+    long snapshotPending(long start, long end, EventSnapshot snapshot) {
+        snapshot.clear();
+        ArrayList<FutureEvent> system = drainBefore(systemEvents, end);
+        ArrayList<FutureEvent> simulation = drainBefore(futureEvents, end);
+        int i = 0;
+        int j = 0;
+        while (i < system.size() || j < simulation.size()) {
+            //merge the queues by time, so the snapshot is in time order
+            boolean isSystem = j == simulation.size()
+                    || (i < system.size() && system.get(i).when <= simulation.get(j).when);
+            FutureEvent e = isSystem ? system.get(i++) : simulation.get(j++);
+            if (e.handler instanceof PeriodicGroup) {
+                for (PeriodicEvent member : ((PeriodicGroup) e.handler).members) {
+                    snapshot.add(e.when - start, isSystem, member.handler, member.callback);
                 }
+            } else {
+                snapshot.add(e.when - start, isSystem, e.handler, e.callback);
             }
-            //clear the event list
-            //eventBatch.clear();
-        } finally {
-            interleaveLock.unlock();
         }
-        return !futureEvents.isEmpty();
-        //return true;
+        long far = Long.MAX_VALUE;
+        if (!systemEvents.isEmpty()) {
+            far = systemEvents.peek();
+        }
+        if (!futureEvents.isEmpty()) {
+            far = Math.min(far, futureEvents.peek());
+        }
+        restore(systemEvents, system);
+        restore(futureEvents, simulation);
+        return far;
+    }
+
+    /**
+     * Move the events (simulation and nonsimulation) that are due before the
+     * given time forward by the given amount.  Used by the quiescence detector
+     * to skip windows.  Pacing restarts after the skip.
+     */
+    void shiftPending(long before, long shift) {
+        ArrayList<FutureEvent> system = drainBefore(systemEvents, before);
+        ArrayList<FutureEvent> simulation = drainBefore(futureEvents, before);
+        for (FutureEvent e : system) {
+            e.when += shift;
+        }
+        for (FutureEvent e : simulation) {
+            e.when += shift;
+        }
+        restore(systemEvents, system);
+        restore(futureEvents, simulation);
+        paceAnchored = false;
+    }
+
+    /**
+     * Remove the events that are due before the given time from a queue.
+     * @return the events, in time order
+     */
+    private ArrayList<FutureEvent> drainBefore(EventQueue<FutureEvent> queue, long before) {
+        ArrayList<FutureEvent> events = new ArrayList<FutureEvent>();
+        while (!queue.isEmpty() && queue.peek() < before) {
+            events.addAll(queue.getNextList());
+        }
+        return events;
+    }
+
+    /**
+     * Put events removed with drainBefore() back, keeping the order of the
+     * events of each instant.
+     */
+    private void restore(EventQueue<FutureEvent> queue, ArrayList<FutureEvent> events) {
+        for (FutureEvent e : events) {
+            queue.addItem(e.when, e);
+        }
+    }
+
+    /**
+     * Execute an event that was removed from the queue, unless it has been
+     * cancelled in the meantime.
+     */
+    private void releaseEvent(FutureEvent e) {
+        if (e instanceof PeriodicEvent) {
+            //periodic events stay scheduled until they are cancelled
+            if (e.isScheduled()) {
+                e.handler.eventReleased(e.callback);
+            }
+        } else if (e.isScheduled()) {
+            e.expire();
+            liveEvents--;
+            int generation = e.getGeneration();
+            releasingEvent = e;
+            e.handler.eventReleased(e.callback);
+            releasingEvent = null;
+            //recycle the event unless the listener rescheduled it
+            if (e.getGeneration() == generation) {
+                recycle(e);
+            }
+        } else {
+            deadEvents--;
+            recycle(e);
+        }
     }
 
     /**
@@ -340,126 +914,174 @@ public class FutureEventList {
 
     /**
      * Utility method that clocks the simulator against the system clock using
-     * the current realtime rate.
-     * @param targetTime
-     */
-    private void waitUntil(SimTime targetTime) {
-        //compute the offest from start time in microseconds, multiply it by the realtime rate
-        //the subtract from the target time to get the wait time
-        //long start, end;
-        //start = System.nanoTime();
-        if (realtimeRate == Double.POSITIVE_INFINITY) {
+     * the current realtime rate.  The deadline for each instant is computed
+     * from the pacing anchor rather than from the previous instant, so the
+     * simulation catches up after a slow step instead of drifting behind, and
+     * short gaps are accumulated rather than rounded down to nothing.
+     *
+     * @param targetTime simulation time of the next instant
+     */
+    private void waitUntil(long targetTime) {
+        double rate = realtimeRate;
+        if (rate == Double.POSITIVE_INFINITY) {
+            paceAnchored = false;
             return;
         }
 
-        if (targetTime.equals(wallClock)) {
+        if (targetTime == wallClock) {
             return;
         }
 
-        if (realtimeRate == 0) {
+        if (rate == 0) {
             blockSimulation();
-
-
+            paceAnchored = false;
             return;
+        }
 
-
-        } //System.out.println("waitUntil:targetTime  " + targetTime);
-        //compute the amount of real time to wait based on the offset between the 
-        long realtimeOffsetMs = (long) ((targetTime.getFracMilliseconds() - wallClock.getFracMilliseconds()) / realtimeRate);
-        //System.out.println("realtimeOffsetMs = " + realtimeOffsetMs);
-
-
-        if (realtimeOffsetMs > 0) {
-            //use sleep to wait
-            try {
-                Thread.sleep(realtimeOffsetMs);
-
-
-            } catch (InterruptedException ex) {
-                //do nothing on interrupt
+        if (!paceAnchored || rate != paceAnchorRate) {
+            anchorPacing(rate);
+        }
+        while (true) {
+            long deadline = paceAnchorReal + (long) ((targetTime - paceAnchorSim) / rate);
+            long now = System.nanoTime();
+            long remaining = deadline - now;
+            if (remaining < PACE_MIN_WAIT) {
+                paceLastReal = now;
+            }
+            if (remaining < 0) {
+                //behind schedule, so run without waiting until we catch up
+                if (-remaining > paceMaxLag) {
+                    paceMaxLag = -remaining;
+                }
+                if (-remaining > PACE_MAX_LAG) {
+                    paceSlips++;
+                    anchorPacing(rate);
+                }
+                return;
+            }
+            if (remaining < PACE_MIN_WAIT) {
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, PACE_MAX_PARK));
+            //ignore interrupts, like the rest of the event loop
+            Thread.interrupted();
+            if (!commands.isEmpty()) {
+                runCommands();
+            }
+            if (realtimeRate != rate) {
+                //the rate was changed while we were waiting
+                rate = realtimeRate;
+                if (rate == 0 || rate == Double.POSITIVE_INFINITY) {
+                    waitUntil(targetTime);
+                    return;
+                }
+                anchorPacing(rate);
             }
         }
     }
 
+    /**
+     * Start pacing from the current real and simulation times.
+     */
+    private void anchorPacing(double rate) {
+        paceAnchored = true;
+        paceAnchorReal = System.nanoTime();
+        paceAnchorSim = wallClock;
+        paceAnchorRate = rate;
+        paceLastReal = paceAnchorReal;
+    }
+
     /**
      * Halt the simulation temporarily -- used for breakpoints and rate adjustments.
+     * Commands posted with invokeBetweenSteps() are still executed while the
+     * simulation is halted.
      */
-    private synchronized void blockSimulation() {
+    private void blockSimulation() {
         blockFlag = true;
-
-
-        while (blockFlag) {
-            try {
-                wait();
-
-
-            } catch (InterruptedException ex) {
-                //do nothing on interrupt
+        while (!stepRequested) {
+            runCommands();
+            if (stepRequested) {
+                break;
             }
+            LockSupport.park(this);
+            //do nothing on interrupt
+            Thread.interrupted();
         }
+        stepRequested = false;
+        blockFlag = false;
     }
 
     /**
-     * Move the simulation forward to the next event instant.
+     * Move the simulation forward to the next event instant.  Does nothing if
+     * the simulation is not blocked.
      */
-    public synchronized void stepSimulation() {
-        blockFlag = false;
-        notifyAll();
-
-
+    public void stepSimulation() {
+        if (blockFlag) {
+            stepRequested = true;
+            wakeSimulationThread();
+        }
     }
 
     /**
      * Add a breakpoint at the specified time.  The breakpoint stops execution
      * before any events that occur at that time.
+     *
+     * If the simulation is running on another thread, the breakpoint is added
+     * between instants (see {@link #invokeBetweenSteps(Runnable)}).  If the
+     * simulation passes the breakpoint time before that happens, the
+     * breakpoint is discarded.
      * 
      * @throws IllegalArgumentException if the specified time is in the past
      * or at the current simulation time
      *        
      * @param breakpointTime the absolute time at which to pause execution
      *
-     * @return <code>true</code> if the breakpoint was added,
-     * <code>false</code> if there was already a breakpoint at that time.
+     * @return <code>true</code> if the breakpoint was added (or will be added
+     * by the simulation thread), <code>false</code> if there was already a
+     * breakpoint at that time.
      */
-    public boolean addBreakpoint(SimTime breakpointTime) {
-        if (breakpoints.containsKey(breakpointTime)) {
-            return false;
-
-
+    public boolean addBreakpoint(final SimTime breakpointTime) {
+        if (breakpointTime.getTruncNanoseconds() <= wallClock) {
+            throw new IllegalArgumentException("breakpoint time is not in the future: " + breakpointTime);
         }
-        breakpoints.put(breakpointTime, new Breakpoint(breakpointTime));
-
-
-        return true;
-
-
+        final boolean[] added = {true};
+        invokeBetweenSteps(new Runnable() {
+
+            public void run() {
+                if (breakpoints.containsKey(breakpointTime)
+                        || breakpointTime.getTruncNanoseconds() <= wallClock) {
+                    added[0] = false;
+                    return;
+                }
+                breakpoints.put(breakpointTime, new Breakpoint(breakpointTime));
+            }
+        });
+        return added[0];
     }
 
     /**
-     * Remove a breakpoint
+     * Remove a breakpoint.  If the simulation is running on another thread,
+     * the breakpoint is removed between instants.
+     *
      * @param breakpointTime
-     * @return
+     * @return <code>false</code> if there was no breakpoint at that time.
+     * Always <code>true</code> if the simulation is running on another thread.
      */
-    public boolean removeBreakpoint(SimTime breakpointTime) {
-        if (!breakpoints.containsKey(breakpointTime)) {
-            return false;
-
-
-        }
-        //breakpoint exists so cancel the event and remove it from the list
-        Breakpoint bp = breakpoints.remove(breakpointTime);
-        cancelNonsimulationEvent(bp.breakpointEvent);
-
-
-        return true;
-
-
-
-
-
-
-
-
+    public boolean removeBreakpoint(final SimTime breakpointTime) {
+        final boolean[] removed = {true};
+        invokeBetweenSteps(new Runnable() {
+
+            public void run() {
+                Breakpoint bp = breakpoints.remove(breakpointTime);
+                if (bp == null) {
+                    removed[0] = false;
+                    return;
+                }
+                //breakpoint exists so cancel the event
+                cancelNonsimulationEvent(bp.breakpointEvent);
+            }
+        });
+        return removed[0];
     }
 
     /**
@@ -469,13 +1091,15 @@ public class FutureEventList {
     private class Breakpoint implements FutureEventListener {
 
         public final FutureEvent breakpointEvent;
+        private final SimTime breakpointTime;
 
         public Breakpoint(SimTime breakpointTime) {
-            if (breakpointTime.isLessThanOrEqual(wallClock)) {
+            if (breakpointTime.getTruncNanoseconds() <= wallClock) {
                 throw new IllegalArgumentException("breakpoint time is not in the future: " + breakpointTime);
             }
-            breakpointEvent = new FutureEvent(this, breakpointTime, null);
-            systemEvents.addItem(breakpointEvent.when, breakpointEvent);
+            this.breakpointTime = breakpointTime;
+            breakpointEvent = insert(systemEvents, new FutureEvent(false), this,
+                    breakpointTime.getTruncNanoseconds(), null);
         }
 
         public void eventReleased(Object data) {
@@ -483,9 +1107,9 @@ public class FutureEventList {
             setRealtimeRate(0.0);
             //notify the listeners
             for (BreakpointListener l : breakpointListeners) {
-                l.breakpointOccured(wallClock);
+                l.breakpointOccured(getWallClock());
             }
-            breakpoints.remove(breakpointEvent.when);
+            breakpoints.remove(breakpointTime);
         }
     }
 
@@ -493,21 +1117,30 @@ public class FutureEventList {
      * Add an object that can respond when a breakpoint occurs.
      * @param l  The object that gets a callback when the breakpoint happens
      */
-    public void addBreakpointListener(BreakpointListener l) {
-        breakpointListeners.add(l);
-
+    public void addBreakpointListener(final BreakpointListener l) {
+        invokeBetweenSteps(new Runnable() {
 
+            public void run() {
+                breakpointListeners.add(l);
+            }
+        });
     }
 
     /**
      * stop listeneing to breakpoint callbacks.
      * @param l
-     * @return
+     * @return <code>false</code> if the listener was not registered.  Always
+     * <code>true</code> if the simulation is running on another thread.
      */
-    public boolean removeBreakpointListener(BreakpointListener l) {
-        return breakpointListeners.remove(l);
-
+    public boolean removeBreakpointListener(final BreakpointListener l) {
+        final boolean[] removed = {true};
+        invokeBetweenSteps(new Runnable() {
 
+            public void run() {
+                removed[0] = breakpointListeners.remove(l);
+            }
+        });
+        return removed[0];
     }
 
     /**
@@ -525,9 +1158,30 @@ public class FutureEventList {
      * @return The current simulation time
      */
     public SimTime getWallClock() {
-        return wallClock;
+        //only create one SimTime object per instant
+        if (wallClockTime.getTruncNanoseconds() != wallClock) {
+            wallClockTime = new SimTime(wallClock, SimTime.SimTimeUnit.NANOSECOND);
+        }
+        return wallClockTime;
+    }
 
+    /**
+     * @return The current simulation time, in nanoseconds
+     */
+    public long getWallClockNanoseconds() {
+        return wallClock;
+    }
 
+    /**
+     * @return the time of the next simulation event, in nanoseconds, or
+     * Long.MAX_VALUE if no events are scheduled.  Cancelled events that are
+     * still in the queue count, so the next event may actually be later.
+     */
+    public long getNextEventTime() {
+        if (futureEvents.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return futureEvents.peek();
     }
 
     private void log(Object... msg) {
@@ -754,25 +1408,5 @@ public class FutureEventList {
         //sleepTest();
 
 
-    }
-    private final ReentrantLock interleaveLock = new ReentrantLock(true);
-
-    /**
-     * call to acquire a lock on the event queue.  While locked, the simulator
-     * will not step forward.  This allows other threads (mainly the gui threads)
-     * to syncronize with the main simulation thread.
-     */
-    public void interleaveLock() {
-        interleaveLock.lock();
-
-
-    }
-
-    /**
-     * Release the lock on the event queue.
-     */
-    public void interleaveUnlock() {
-        interleaveLock.unlock();
-
     }
 }
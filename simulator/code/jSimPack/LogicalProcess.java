@@ -0,0 +1,71 @@
+package jSimPack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One partition of a {@link ConservativeSimulation}.  A logical process has
+ * its own {@link FutureEventList} and {@link RandomSource}, and shares no
+ * state with the other logical processes except through {@link Channel}s.
+ *
+ * Events of a logical process are scheduled on its event list as usual.  The
+ * event list runs as fast as possible (the realtime rate is infinite), and is
+ * driven by the ConservativeSimulation, so do not call runSimulation() on it
+ * directly.
+ */
+public class LogicalProcess {
+
+    private final String name;
+    private final int index;
+    private final RandomSource randomSource;
+    private final FutureEventList eventList;
+    /** channels whose messages arrive at this process */
+    final List<Channel> incoming = new ArrayList<Channel>();
+
+    LogicalProcess(String name, int index, long seed) {
+        this.name = name;
+        this.index = index;
+        randomSource = new RandomSource();
+        randomSource.setSeed(seed);
+        eventList = new FutureEventList(randomSource);
+        eventList.setRealtimeRate(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Process the events up to and including the given time.
+     */
+    void runUntil(long time) {
+        eventList.runSimulationUntil(new SimTime(time, SimTime.SimTimeUnit.NANOSECOND));
+    }
+
+    /**
+     * @return the event list of this process
+     */
+    public FutureEventList getEventList() {
+        return eventList;
+    }
+
+    /**
+     * @return the random source of this process, which is seeded from the
+     * seed of the simulation
+     */
+    public RandomSource getRandomSource() {
+        return randomSource;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the position of this process in the simulation, starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "LogicalProcess[" + name + "]";
+    }
+}
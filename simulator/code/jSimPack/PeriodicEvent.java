@@ -0,0 +1,38 @@
+package jSimPack;
+
+/**
+ * An event that is released once every period until it is cancelled.  These
+ * objects are created by
+ * {@link FutureEventList#schedulePeriodic(FutureEventListener, long, long, Object)}.
+ *
+ * Periodic events that have the same period and are released at the same
+ * times share a single entry in the event queue.  When that entry comes up,
+ * each member is released as a separate event, so periodic events take part
+ * in the random permutation of simultaneous events just like other events.
+ */
+public class PeriodicEvent extends FutureEvent
+{
+    /** period of the event, in nanoseconds */
+    final long period;
+    /** the queue entry shared by all the members of this event's group */
+    FutureEvent carrier;
+
+    PeriodicEvent(long period)
+    {
+        super(false);
+        this.period = period;
+    }
+
+    /**
+     * @return the period of the event, in nanoseconds
+     */
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    @Override
+    public String toString() {
+        return "Period:" + new SimTime(period, SimTime.SimTimeUnit.NANOSECOND) + " " + super.toString();
+    }
+}
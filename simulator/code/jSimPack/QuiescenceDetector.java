@@ -0,0 +1,206 @@
+package jSimPack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skips stretches of simulation time in which nothing happens except the
+ * same periodic work over and over, e.g. an elevator parked with its doors
+ * closed while every controller recomputes the same outputs.
+ *
+ * Time is divided into windows of a fixed length, which should be the
+ * hyperperiod (least common multiple) of all the periods in the simulation.
+ * At the start of each window, the detector asks its {@link Participant}s
+ * whether anything they watch changed during the last window, and takes a
+ * snapshot of the events pending in the new window.  The simulation is
+ * quiescent if no participant saw a change and the pending events are the
+ * same as at the start of the last window (same listeners and callbacks at
+ * the same offsets into the window).  After a number of quiescent windows in
+ * a row, every window until the next event beyond the current one (e.g. the
+ * next passenger, or the end of the simulation) would repeat the last one,
+ * so the detector moves the events of the current window forward by a whole
+ * number of windows instead of releasing them, and the participants fast
+ * forward their statistics by the same number of windows.
+ *
+ * This is a heuristic:  state that the participants do not watch and that
+ * does not show in the pending events (e.g. a counter that a listener
+ * increments every period) is assumed not to change.  Also, the random
+ * permutations of simultaneous events continue from where they were, so a
+ * run with skipping does not reproduce the run without it exactly.
+ */
+public class QuiescenceDetector {
+
+    /**
+     * Something whose changes keep the simulation from being quiescent, and
+     * whose statistics are fast forwarded when windows are skipped.
+     */
+    public interface Participant {
+
+        /**
+         * Called at the start of every window.
+         *
+         * @return true if nothing the participant watches has changed since
+         * the last call
+         */
+        public boolean isQuiescent();
+
+        /**
+         * Called after windows were skipped.  The participant should add the
+         * change of its statistics over the last window the given number of
+         * times, and move any absolute times it keeps for pending work
+         * forward by window * repeats nanoseconds.
+         */
+        public void skipped(long window, long repeats);
+    }
+    private final FutureEventList eventList;
+    private final long window;
+    private final int quietWindows;
+    private final List<Participant> participants = new ArrayList<Participant>();
+    //the events pending at the start of the last window, and of this one
+    private EventSnapshot previous = new EventSnapshot();
+    private EventSnapshot current = new EventSnapshot();
+    private long previousStart = -1;
+    private int quietStreak = 0;
+    //statistics
+    private long windows = 0;
+    private long quietCount = 0;
+    private long skips = 0;
+    private long skippedNanos = 0;
+
+    /**
+     * Create a detector and start it on the event list.
+     *
+     * @param window the length of the windows, in nanoseconds
+     * @param quietWindows the number of quiescent windows in a row before
+     * time is skipped.  It must be at least one.
+     */
+    public QuiescenceDetector(FutureEventList eventList, long window, int quietWindows) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window is not positive: " + window);
+        }
+        if (quietWindows < 1) {
+            throw new IllegalArgumentException("quietWindows must be at least 1: " + quietWindows);
+        }
+        this.eventList = eventList;
+        this.window = window;
+        this.quietWindows = quietWindows;
+        eventList.setQuiescenceDetector(this);
+    }
+
+    public void addParticipant(Participant p) {
+        participants.add(p);
+    }
+
+    /**
+     * @return the length of the windows, in nanoseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Called by the event list before the first event at or after the start
+     * of a window.  All the events before the start have been released.
+     *
+     * @param start the start of the window, in nanoseconds
+     * @return the amount of time skipped, in nanoseconds.  The window now
+     * starts that much later.
+     */
+    long windowStarted(long start) {
+        windows++;
+        boolean quiet = true;
+        for (Participant p : participants) {
+            //ask everyone, so they all start their next window now
+            quiet &= p.isQuiescent();
+        }
+        EventSnapshot s = previous;
+        previous = current;
+        current = s;
+        long far = eventList.snapshotPending(start, start + window, current);
+        if (!quiet || previousStart != start - window || !current.sameAs(previous)) {
+            quietStreak = 0;
+            previousStart = start;
+            return 0;
+        }
+        quietCount++;
+        previousStart = start;
+        if (++quietStreak < quietWindows) {
+            return 0;
+        }
+        long endTime = eventList.getEndTimeNanoseconds();
+        long limit = Math.min(far, endTime == Long.MAX_VALUE ? endTime : endTime + 1);
+        if (limit == Long.MAX_VALUE) {
+            //nothing would ever end the quiescence
+            return 0;
+        }
+        long repeats = (limit - start) / window - 1;
+        if (repeats < 1) {
+            return 0;
+        }
+        long shift = repeats * window;
+        eventList.shiftPending(start + window, shift);
+        for (Participant p : participants) {
+            p.skipped(window, repeats);
+        }
+        previousStart = start + shift;
+        skips++;
+        skippedNanos += shift;
+        return shift;
+    }
+
+    /**
+     * @return the number of window starts checked
+     */
+    public long getWindowCount() {
+        return windows;
+    }
+
+    /**
+     * @return the number of times time was skipped
+     */
+    public long getSkipCount() {
+        return skips;
+    }
+
+    /**
+     * @return the total simulation time skipped, in nanoseconds
+     */
+    public long getSkippedNanoseconds() {
+        return skippedNanos;
+    }
+
+    /**
+     * @return a summary of the windows checked and the time skipped, out of
+     * the simulation time so far
+     */
+    public String getSummary() {
+        long now = eventList.getWallClockNanoseconds();
+        return String.format("Window %.3f s, %d quiet windows before skipping%n"
+                + "%d windows checked, %d quiescent, %d skips%n"
+                + "%.3f s of %.3f s simulation time skipped (%.1f %%)",
+                window / 1e9, quietWindows, windows, quietCount, skips,
+                skippedNanos / 1e9, now / 1e9, now > 0 ? 100.0 * skippedNanos / now : 0.0);
+    }
+
+    /**
+     * @return the least common multiple of two positive numbers, or
+     * Long.MAX_VALUE if it overflows
+     */
+    public static long lcm(long a, long b) {
+        if (a <= 0 || b <= 0) {
+            throw new IllegalArgumentException("not positive: " + a + ", " + b);
+        }
+        long x = a;
+        long y = b;
+        while (y != 0) {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        long m = a / x;
+        if (m > Long.MAX_VALUE / b) {
+            return Long.MAX_VALUE;
+        }
+        return m * b;
+    }
+}
@@ -17,6 +17,8 @@ import java.util.Random;
 public class RandomSource {
     protected Random r;
     protected long seed;
+    /** separate stream for permuting simultaneous events, created on demand */
+    private SplitMixRandom permutationRandom;
     
     /**
      * Create a random source using the current unix time as a seed.
@@ -40,6 +42,19 @@ public class RandomSource {
     public void setSeed(long seed) {
         this.seed = seed;
         r = new Random(seed);
+        permutationRandom = null;
+    }
+
+    /**
+     * @return a fast generator dedicated to permuting simultaneous events.
+     * It is derived from the seed, so it is repeatable, but it is independent
+     * of the stream returned by {@link #getRandom()}.
+     */
+    public SplitMixRandom getPermutationRandom() {
+        if (permutationRandom == null) {
+            permutationRandom = new SplitMixRandom(seed).split();
+        }
+        return permutationRandom;
     }
 
     /**
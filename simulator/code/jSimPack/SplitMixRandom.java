@@ -0,0 +1,87 @@
+package jSimPack;
+
+/**
+ * Small, fast pseudorandom generator based on SplitMix64 (G. Steele, D. Lea and
+ * C. Flood, "Fast Splittable Pseudorandom Number Generators", OOPSLA 2014).
+ *
+ * Unlike java.util.Random, this class is not thread safe, which makes each
+ * call a handful of arithmetic operations instead of an atomic update.  A
+ * generator can be split into an independent stream, so one seed can drive
+ * several generators without the streams affecting each other.
+ */
+public final class SplitMixRandom {
+
+    private final static long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private long state;
+    private final long gamma;
+
+    /**
+     * Create a generator.  Generators created with the same seed produce the
+     * same sequence.
+     */
+    public SplitMixRandom(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMixRandom(long seed, long gamma) {
+        this.state = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * @return a new generator whose sequence is independent of this one.
+     * Advances this generator.
+     */
+    public SplitMixRandom split() {
+        return new SplitMixRandom(nextLong(), mixGamma(nextSeed()));
+    }
+
+    /**
+     * @return the next pseudorandom long
+     */
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    /**
+     * @return a pseudorandom int in the range [0, bound)
+     * @throws IllegalArgumentException if bound is not positive
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        //Lemire's multiply-and-shift with rejection, so the result is unbiased
+        long m = (nextLong() >>> 32) * bound;
+        long low = m & 0xffffffffL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                low = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    private long nextSeed() {
+        return state += gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gammas must be odd and should have a reasonable mix of bits.
+     */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,61 @@
+package jSimPack;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Data structure class for executing events in time order.  This implementation
+ * uses a TreeMap of Lists data structure.  Each list is associated with a time
+ * (in nanoseconds) that represents the time when that event is to occur, and the
+ * list contains all events sheduled for that time.  The TreeMap provides total ordering of events.
+ *
+ * This implementation is prefered over a PriorityQueue because testing shows
+ * that there are many sets of events that occur simulataneously.  Since we have
+ * to pull all these events from the queue, put them in a list, permute them, then
+ * execute them, it is (slightly) faster to store them in a list to begin with.
+ *
+ * @param <T> Generic type for the data the queue is to hold.
+ */
+public class TreeEventQueue<T> implements EventQueue<T> {
+
+    private TreeMap<Long, List<T>> events = new TreeMap<Long, List<T>>();
+
+    public void addItem(long time, T item) {
+        Long when = time;
+        List<T> itemList = events.get(when);
+        if (itemList == null) {
+            itemList = new LinkedList<T>();
+            itemList.add(item);
+            events.put(when, itemList);
+        } else {
+            //add the item to the list for that time.
+            //Don't need to put() into the map because the list is already there.
+            itemList.add(item);
+        }
+    }
+
+    public long peek() {
+        return events.firstKey();
+    }
+
+    public List<T> getNextList() {
+        return events.pollFirstEntry().getValue();
+    }
+
+    public boolean removeItem(long time, T item) {
+        Long when = time;
+        List<T> itemList = events.get(when);
+        if (itemList == null || !itemList.remove(item)) {
+            return false;
+        }
+        if (itemList.isEmpty()) {
+            events.remove(when);
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+}
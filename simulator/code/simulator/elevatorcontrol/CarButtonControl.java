@@ -171,6 +171,9 @@ public class CarButtonControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the outputs depend only on the state, and the button and the
+            //door, floor and dispatcher inputs are only read by the transitions
+            setStable();
         } else {
             log("Transition:", state, "->", newState);
         }
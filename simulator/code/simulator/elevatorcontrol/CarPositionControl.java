@@ -176,6 +176,9 @@ public class CarPositionControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the committed floor only moves past its last value in the drive
+            //direction, so with the same inputs the next run would keep it
+            setStable();
         } else {
             log("Transition:", state, "->", newState);
         }
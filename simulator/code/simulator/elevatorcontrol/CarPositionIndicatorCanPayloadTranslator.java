@@ -12,7 +12,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * This is an example CAN payload translator for desired floor messages.  It
@@ -67,16 +66,14 @@ public class CarPositionIndicatorCanPayloadTranslator extends CanPayloadTranslat
      * @param floor
      */
     public void setFloor(int floor) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, floor - 1, 0, 4);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), floor - 1, 0, 4), getByteSize());
     }
 
     /**
      * @return the floor value from the can message payload
      */
     public int getFloor() {
-        return getIntFromBitset(getMessagePayload(), 0, 4) + 1;
+        return getIntFromBits(getMessageBits(), 0, 4) + 1;
     }
 
     /**
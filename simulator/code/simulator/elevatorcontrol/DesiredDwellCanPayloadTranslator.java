@@ -14,7 +14,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * @author Rajeev Sharma (rdsharma)
@@ -56,13 +55,11 @@ public class DesiredDwellCanPayloadTranslator extends CanPayloadTranslator {
 
 
     public int getValue() {
-        return getIntFromBitset(getMessagePayload(), 0, 8);
+        return getIntFromBits(getMessageBits(), 0, 8);
     }
 
     public void setValue(int position) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, position, 0, 8);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), position, 0, 8), getByteSize());
     }
 
     @Override
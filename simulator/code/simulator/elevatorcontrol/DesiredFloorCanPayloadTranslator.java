@@ -14,7 +14,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * This is an example CAN payload translator for desired floor messages.  It
@@ -87,16 +86,14 @@ public class DesiredFloorCanPayloadTranslator extends CanPayloadTranslator {
      * @param floor
      */
     public void setFloor(int floor) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, floor - 1, 0, 4);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), floor - 1, 0, 4), getByteSize());
     }
 
     /**
      * @return the floor value from the can message payload
      */
     public int getFloor() {
-        return getIntFromBitset(getMessagePayload(), 0, 4) + 1;
+        return getIntFromBits(getMessageBits(), 0, 4) + 1;
     }
 
     /**
@@ -105,16 +102,14 @@ public class DesiredFloorCanPayloadTranslator extends CanPayloadTranslator {
      * @param dir
      */
     public void setDirection(Direction dir) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, dir.ordinal() - 2, 4, 2);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), dir.ordinal() - 2, 4, 2), getByteSize());
     }
 
     /**
      * @return the direction value from the can payload
      */
     public Direction getDirection() {
-        int val = getIntFromBitset(getMessagePayload(), 4, 2) + 2;
+        int val = getIntFromBits(getMessageBits(), 4, 2) + 2;
         for (Direction d : Direction.values()) {
             if (d.ordinal() == val) {
                 return d;
@@ -129,16 +124,14 @@ public class DesiredFloorCanPayloadTranslator extends CanPayloadTranslator {
      * @param hallway
      */
     public void setHallway(Hallway hallway) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, hallway.ordinal() - 2, 6, 2);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), hallway.ordinal() - 2, 6, 2), getByteSize());
     }
 
     /**
      * @return the hallway value from the CAN payload.
      */
     public Hallway getHallway() {
-        int val = getIntFromBitset(getMessagePayload(), 6, 2) + 2;
+        int val = getIntFromBits(getMessageBits(), 6, 2) + 2;
         for (Hallway h : Hallway.values()) {
             if (h.ordinal() == val) {
                 return h;
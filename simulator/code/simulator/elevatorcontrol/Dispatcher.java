@@ -298,6 +298,12 @@ public class Dispatcher extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the commit point and direction are updated from their last
+            //values while serving calls, the other states would repeat this
+            //run unless an input changes
+            if (state == State.STATE_RESET || state == State.STATE_IDLE) {
+                setStable();
+            }
         } else {
             log("Transition:", state, "->", newState);
         }
@@ -346,6 +346,11 @@ public class DoorControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the dwell countdown changes every run in the open and reversed
+            //states, the others would repeat this run unless an input changes
+            if (state != State.STATE_DOOR_OPEN && state != State.STATE_DOOR_REVERSED) {
+                setStable();
+            }
         } else {
             log("Transition:", state, "->", newState);
         }
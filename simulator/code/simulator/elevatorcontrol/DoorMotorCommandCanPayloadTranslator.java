@@ -18,7 +18,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  *
@@ -73,9 +72,7 @@ public class DoorMotorCommandCanPayloadTranslator extends CanPayloadTranslator {
      * @param command DoorCommand to set
      */
     public void set(DoorCommand command) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, command.ordinal(), 0, 8);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), command.ordinal(), 0, 8), getByteSize());
     }
     
     /**
@@ -83,7 +80,7 @@ public class DoorMotorCommandCanPayloadTranslator extends CanPayloadTranslator {
      * @return DoorCommand currently set
      */
     public DoorCommand getCommand() {
-        int val = getIntFromBitset(getMessagePayload(), 0, 8);
+        int val = getIntFromBits(getMessageBits(), 0, 8);
         for (DoorCommand command : DoorCommand.values()) {
             if (val == command.ordinal()) {
                 return command;
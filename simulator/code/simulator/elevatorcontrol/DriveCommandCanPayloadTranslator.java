@@ -14,7 +14,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * Can payload translator for the drive command, which includes a speed value and a direction.
@@ -50,13 +49,11 @@ public class DriveCommandCanPayloadTranslator extends CanPayloadTranslator {
     }
 
     public void setSpeed(Speed speed) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, speed.ordinal() - 2, 0, 2);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), speed.ordinal() - 2, 0, 2), getByteSize());
     }
 
     public Speed getSpeed() {
-        int val = getIntFromBitset(getMessagePayload(), 0, 2) + 2;
+        int val = getIntFromBits(getMessageBits(), 0, 2) + 2;
         for (Speed s : Speed.values()) {
             if (s.ordinal() == val) {
                 return s;
@@ -66,13 +63,11 @@ public class DriveCommandCanPayloadTranslator extends CanPayloadTranslator {
     }
 
     public void setDirection(Direction dir) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, dir.ordinal() - 2, 2, 2);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), dir.ordinal() - 2, 2, 2), getByteSize());
     }
 
     public Direction getDirection() {
-        int val = getIntFromBitset(getMessagePayload(), 2, 2) + 2;
+        int val = getIntFromBits(getMessageBits(), 2, 2) + 2;
         for (Direction d : Direction.values()) {
             if (d.ordinal() == val) {
                 return d;
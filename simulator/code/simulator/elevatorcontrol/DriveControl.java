@@ -287,6 +287,9 @@ public class DriveControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the drive direction is recomputed from the floors (and kept while
+            //between floors), so it does not drift between runs with the same inputs
+            setStable();
         } else {
             log("Transition:", state, "->", newState);
         }
@@ -13,7 +13,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * Can payload translator for the DriveSpeed command, which includes a speed value and a direction.
@@ -53,10 +52,8 @@ public class DriveSpeedCanPayloadTranslator extends CanPayloadTranslator {
         int numBits = 14;
         int offset = (int) Math.pow(2.0, numBits - 1);
 
-        BitSet b = getMessagePayload();
-        //addIntToBitset(b, Float.floatToRawIntBits((float) ((speed * 1000))) - offset, 0, 14);
-        addIntToBitset(b, (int) (speed * 1000 - offset), 0, 14);
-        setMessagePayload(b, getByteSize());
+        //setMessageBits(addIntToBits(getMessageBits(), Float.floatToRawIntBits((float) ((speed * 1000))) - offset, 0, 14), getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), (int) (speed * 1000 - offset), 0, 14), getByteSize());
     }
 
     public double getSpeed() {
@@ -64,18 +61,16 @@ public class DriveSpeedCanPayloadTranslator extends CanPayloadTranslator {
         int numBits = 14;
         int offset = (int) Math.pow(2.0, numBits - 1);
 
-        //return (double) Float.intBitsToFloat(getIntFromBitset(getMessagePayload(), 0, 14) + offset) / 1000;
-        return (double) (getIntFromBitset(getMessagePayload(), 0, 14) + offset) / 1000;
+        //return (double) Float.intBitsToFloat(getIntFromBits(getMessageBits(), 0, 14) + offset) / 1000;
+        return (double) (getIntFromBits(getMessageBits(), 0, 14) + offset) / 1000;
     }
 
     public void setDirection(Direction dir) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, dir.ordinal() - 2, 14, 2);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), dir.ordinal() - 2, 14, 2), getByteSize());
     }
 
     public Direction getDirection() {
-        int val = getIntFromBitset(getMessagePayload(), 14, 2) + 2;
+        int val = getIntFromBits(getMessageBits(), 14, 2) + 2;
         for (Direction d : Direction.values()) {
             if (d.ordinal() == val) {
                 return d;
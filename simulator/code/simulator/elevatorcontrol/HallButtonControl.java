@@ -190,6 +190,9 @@ public class HallButtonControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the light and the call are fixed by the state and no counter or
+            //timer is kept, the transitions only read the inputs
+            setStable();
         } else {
             log("Transition:", state, "->", newState);
         }
@@ -156,6 +156,9 @@ public class LanternControl extends Controller {
         //log the results of this iteration
         if (state == newState) {
             log("remains in state: ", state);
+            //the lantern and the saved desired floor are set from the inputs
+            //alone, there is no countdown to advance
+            setStable();
         } else {
             log("Transition:", state, "->", newState);
         }
@@ -12,7 +12,6 @@ import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
 
-import java.util.BitSet;
 
 /**
  * Translates a single boolean value into a 1-byte payload.
@@ -46,13 +45,11 @@ public class TinyBooleanCanPayloadTranslator extends CanPayloadTranslator {
 
     
     public void setValue(boolean value) {       
-        BitSet b = new BitSet(8);
-        b.set(0, value);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(setBit(0, 0, value), getByteSize());
     }
     
     public boolean getValue() {
-        return getMessagePayload().get(0);
+        return getBit(getMessageBits(), 0);
     }
     
     @Override
@@ -15,7 +15,7 @@ import simulator.payloads.DriveSpeedPayload.ReadableDriveSpeedPayload;
  * indicate whether the Car is within the specified range.
  */
 
-public class AtFloorSensor extends Module
+public class AtFloorSensor extends Module implements CarStateSensor
 {
 
     public final static double AT_FLOOR_OFFSET = 0.08;
@@ -28,6 +28,9 @@ public class AtFloorSensor extends Module
     private ReadableCarPositionPayload carPosition;
     private AtFloorCanPayloadTranslator localStateTranslator;
     private ReadableDriveSpeedPayload localSpeed;
+    private final CarStateThresholds thresholds;
+    /** output of the last threshold evaluation, kept in VALIDATE mode */
+    private boolean thresholdValue;
 
     /**
      * Creates a sensor that detects when the car is near the specified floor.
@@ -37,8 +40,10 @@ public class AtFloorSensor extends Module
      *
      * @param period
      * time in microseconds between AtFloor messages
+     * @param thresholds
+     * where to register the edges of the floor range and the slow speed
      */
-    public AtFloorSensor (SimTime period, int floor, Hallway hallway) {
+    public AtFloorSensor (SimTime period, int floor, Hallway hallway, CarStateThresholds thresholds) {
         super(period, "AtFloor["+floor+","+hallway+"]", false);
 
         bottomPosition = (floor-1)*Elevator.DISTANCE_BETWEEN_FLOORS - AT_FLOOR_OFFSET;
@@ -50,11 +55,21 @@ public class AtFloorSensor extends Module
         localStateNwk = CanMailbox.getWriteableCanMailbox(MessageDictionary.AT_FLOOR_BASE_CAN_ID + ReplicationComputer.computeReplicationId(floor, hallway));
         localStateTranslator = new AtFloorCanPayloadTranslator(localStateNwk, floor, hallway);       
 
-        physicalConnection.registerEventTriggered(carPosition);
-        physicalConnection.registerEventTriggered(localSpeed);
+        this.thresholds = thresholds;
+        if (thresholds.isSampled()) {
+            physicalConnection.registerEventTriggered(carPosition);
+            physicalConnection.registerEventTriggered(localSpeed);
+        }
 
         canNetworkConnection.sendTimeTriggered(localStateNwk, period);
         physicalConnection.sendTimeTriggered(localState, period);
+
+        thresholds.register(this, name, new double[]{bottomPosition, topPosition}, new double[]{DriveObject.SlowSpeed});
+        thresholdValue = localState.value();
+    }
+
+    private boolean isAtFloor(double position, double speed) {
+        return bottomPosition <= position && (position <= topPosition) && speed <= DriveObject.SlowSpeed;
     }
 
     @Override
@@ -70,10 +85,26 @@ public class AtFloorSensor extends Module
         //convert mm to meters
         double position = carPosition.position();
 
-        localState.set(bottomPosition <= position && (position <= topPosition) && localSpeed.speed() <= DriveObject.SlowSpeed);
+        localState.set(isAtFloor(position, localSpeed.speed()));
         /*localState.value = (bottomPosition <= carPosition.position)
 	&& (carPosition.position <= topPosition);*/
+        if (thresholds.isValidating()) {
+            thresholds.validate(this, position, localSpeed.speed(), null, localState.value(), thresholdValue);
+        }
+        update(previousValue);
+    }
+
+    public void carStateChanged(double position, double speed, Direction direction) {
+        if (thresholds.isValidating()) {
+            thresholdValue = isAtFloor(position, speed);
+            return;
+        }
+        boolean previousValue = localState.value();
+        localState.set(isAtFloor(position, speed));
+        update(previousValue);
+    }
 
+    private void update(boolean previousValue) {
         if(previousValue != localState.value()) {
             // BL 10/22/02 removed this since we now care about bandwidth
             //canNetworkConnection.SendNetworkMessage(localState);
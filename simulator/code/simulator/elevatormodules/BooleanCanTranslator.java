@@ -4,7 +4,6 @@
  */
 package simulator.elevatormodules;
 
-import java.util.BitSet;
 import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
@@ -44,13 +43,11 @@ public class BooleanCanTranslator extends CanPayloadTranslator {
     }
 
     public void setValue(boolean value) {
-        BitSet b = getMessagePayload();
-        b.set(0, value);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(setBit(getMessageBits(), 0, value), getByteSize());
     }
 
     public boolean getValue() {
-        return getMessagePayload().get(0);
+        return getBit(getMessageBits(), 0);
     }
 
     @Override
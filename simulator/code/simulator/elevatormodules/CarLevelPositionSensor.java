@@ -17,7 +17,7 @@ import simulator.payloads.DriveSpeedPayload.ReadableDriveSpeedPayload;
  *
  * @author Charles Shelton 
  */
-public class CarLevelPositionSensor extends Module {
+public class CarLevelPositionSensor extends Module implements CarStateSensor {
 
     // For verbose output 
     private ReadableCarPositionPayload localCarPosition;
@@ -25,12 +25,17 @@ public class CarLevelPositionSensor extends Module {
     private CarLevelPositionCanPayloadTranslator carLevelNwkTranslator;
     private ReadableDrivePayload driveOrderedState;
     private ReadableDriveSpeedPayload driveSpeedState;
+    private final CarStateThresholds thresholds;
+    /** output of the last threshold evaluation, kept in VALIDATE mode */
+    private int thresholdRoundedPosition;
 
     /**
      * @param periodicity_
      * time between <code>CarLevelPositionPayload</code> messages
+     * @param thresholds
+     * where to register the 10 cm steps of the car position
      */
-    public CarLevelPositionSensor(SimTime period, boolean verbose) {
+    public CarLevelPositionSensor(SimTime period, boolean verbose, CarStateThresholds thresholds) {
         super(period, "CarLevelPositionSensor", verbose);
 
         localCarPosition = CarPositionPayload.getReadablePayload();
@@ -48,24 +53,46 @@ public class CarLevelPositionSensor extends Module {
         physicalConnection.registerTimeTriggered(driveSpeedState);
 
         // Receive CarPosition events on the framework and update CarLevelPosition on the network 
-        physicalConnection.registerEventTriggered(localCarPosition);
+        this.thresholds = thresholds;
+        if (thresholds.isSampled()) {
+            physicalConnection.registerEventTriggered(localCarPosition);
+        }
         canNetworkConnection.sendTimeTriggered(carLevelNwk, period);
+
+        // the output changes at every 10 cm step the car can reach
+        long lowest = (long) Math.floor(-Modules.HOISTWAY_LIMIT_DISTANCE * 10) - 1;
+        long highest = (long) Math.ceil((Elevator.DISTANCE_BETWEEN_FLOORS * (Elevator.numFloors - 1)
+                + Modules.HOISTWAY_LIMIT_DISTANCE) * 10) + 1;
+        double[] steps = new double[(int) (highest - lowest + 1)];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = (lowest + i) / 10.0;
+        }
+        thresholds.register(this, name, steps, new double[0]);
+        thresholdRoundedPosition = currentRoundedPosition;
     }
 
     private int currentRoundedPosition;
 
     private void computeRoundedPosition() {
+        currentRoundedPosition = roundPosition(currentRoundedPosition, localCarPosition.position(),
+                driveSpeedState.direction());
+    }
+
+    /**
+     * @return the rounded position for the given car position and direction
+     * of travel
+     */
+    private int roundPosition(int previousRoundedPosition, double position, Direction speedDirection) {
         // Calculate Car Level Postion for closest integer 10 centimeters 
 
-        double tempCarPos = localCarPosition.position() * 10;
-        int previousRoundedPosition = currentRoundedPosition;
+        double tempCarPos = position * 10;
         long tempCarLevelPos;
         //long prevCarLevelPos = localCarLevelPos.position;
 
         // If we're going down, take the ceiling, if we're going up take the floor 
-        if (driveSpeedState.direction() == Direction.DOWN ||
+        if (speedDirection == Direction.DOWN ||
                 (driveOrderedState.direction() == Direction.DOWN &&
-                (driveSpeedState.direction() == Direction.DOWN || driveSpeedState.direction() == Direction.STOP))) {
+                (speedDirection == Direction.DOWN || speedDirection == Direction.STOP))) {
 
             tempCarLevelPos = (long) Math.ceil(tempCarPos);
             // multiply by 100 to get value in millimeters
@@ -73,7 +100,7 @@ public class CarLevelPositionSensor extends Module {
 
             // make sure we don't output a value above the current position when going down
             if (tempCarLevelPos <= previousRoundedPosition) {
-                currentRoundedPosition = (int) tempCarLevelPos;
+                return (int) tempCarLevelPos;
             }
 
         } else {
@@ -84,14 +111,32 @@ public class CarLevelPositionSensor extends Module {
 
             // make sure we don't out a value below the current position when going up 
             if (tempCarLevelPos >= previousRoundedPosition) {
-                currentRoundedPosition = (int) tempCarLevelPos;
+                return (int) tempCarLevelPos;
             }
         }
+        return previousRoundedPosition;
     }
 
     @Override
     public void receive(ReadableCarPositionPayload msg) {
         computeRoundedPosition();
+        if (thresholds.isValidating()) {
+            thresholds.validate(this, localCarPosition.position(), Double.NaN, driveSpeedState.direction(),
+                    currentRoundedPosition, thresholdRoundedPosition);
+        }
+        update();
+    }
+
+    public void carStateChanged(double position, double speed, Direction direction) {
+        if (thresholds.isValidating()) {
+            thresholdRoundedPosition = roundPosition(thresholdRoundedPosition, position, direction);
+            return;
+        }
+        currentRoundedPosition = roundPosition(currentRoundedPosition, position, direction);
+        update();
+    }
+
+    private void update() {
         carLevelNwkTranslator.setPosition(currentRoundedPosition);
         //System.out.println("CarLevelPosSensor:  " + carLevelNwk);
         log(this,
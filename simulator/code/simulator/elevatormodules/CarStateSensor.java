@@ -0,0 +1,22 @@
+package simulator.elevatormodules;
+
+import simulator.framework.Direction;
+
+/**
+ * A sensor whose output depends only on the state of the car, and changes
+ * only at the thresholds it registers with {@link CarStateThresholds}.
+ */
+interface CarStateSensor {
+
+    /**
+     * Called when the car reaches or crosses one of the sensor's thresholds
+     * (except in SAMPLED mode).  The sensor computes its output for the given
+     * state and, unless the thresholds are only being validated, sends it if
+     * it changed.
+     *
+     * @param position the car position, in meters
+     * @param speed the car speed, in meters per second
+     * @param direction the direction the car is moving in
+     */
+    public void carStateChanged(double position, double speed, Direction direction);
+}
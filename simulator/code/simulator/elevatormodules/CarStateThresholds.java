@@ -0,0 +1,376 @@
+package simulator.elevatormodules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import simulator.framework.Direction;
+import simulator.framework.Harness;
+import simulator.framework.SimulationContext;
+import simulator.framework.TimeSensitive;
+import simulator.framework.Timer;
+
+/**
+ * The positions and speeds of the car at which the outputs of the sensors
+ * that measure the car (AtFloor, Leveling, HoistwayLimit and
+ * CarLevelPosition) change.  Each sensor registers its thresholds here when it
+ * is created, and the {@link DriveObject} reports every change of the car
+ * state with {@link #carMoved(double, double, double, double)}.
+ *
+ * What happens then depends on the {@link Mode}.  In the default SAMPLED mode,
+ * nothing:  the sensors evaluate every CarPosition message, and the thresholds
+ * only tell the analytic drive model when to send one.  In THRESHOLD mode,
+ * the sensors do not listen to CarPosition at all, and a sensor is evaluated
+ * only when the car crosses one of its thresholds.  GRID mode is the same,
+ * except that the evaluation waits for the next drive period, which is when
+ * a SAMPLED sensor would have seen the crossing with the integrating drive.
+ * VALIDATE mode runs the sensors as in SAMPLED mode, evaluates them as in
+ * THRESHOLD mode as well without using the result, and compares the two.
+ */
+public class CarStateThresholds implements TimeSensitive {
+
+    /**
+     * How the sensors that measure the car are evaluated.
+     */
+    public enum Mode {
+
+        /** on every CarPosition message */
+        SAMPLED,
+        /** when the car crosses one of the sensor's thresholds */
+        THRESHOLD,
+        /** at the first drive period after the car crosses a threshold */
+        GRID,
+        /** as SAMPLED, compared against THRESHOLD */
+        VALIDATE
+    }
+    /** number of mismatches that are listed in the summary */
+    private final static int MAX_LISTED_MISMATCHES = 10;
+    private final static Object INITIAL = "initial";
+    private final static Object GRID_TICK = "grid";
+    private final SimulationContext context;
+    private final Mode mode;
+    private final long gridNanos;
+    private final Timer timer;
+    private DriveObject drive;
+    private final List<CarStateSensor> sensors = new ArrayList<CarStateSensor>();
+    private final List<String> sensorNames = new ArrayList<String>();
+    /** sensor indexes for each threshold, until the thresholds are frozen */
+    private final Map<Double, List<Integer>> positionMap = new TreeMap<Double, List<Integer>>();
+    private final Map<Double, List<Integer>> speedMap = new TreeMap<Double, List<Integer>>();
+    //thresholds in increasing order, and the indexes of the sensors for each
+    private double[] positions;
+    private int[][] positionSensors;
+    private double[] speeds;
+    private int[][] speedSensors;
+    /** the crossing each sensor was last woken for, so it is woken once per crossing */
+    private int[] wokenAt;
+    private int crossing = 0;
+    /** false until the threshold outputs are computed for the first time in VALIDATE mode */
+    private boolean validating = false;
+    /** sensors waiting for the next grid time, in the order they were woken */
+    private final List<Integer> pending = new ArrayList<Integer>();
+    private boolean[] isPending;
+    //statistics
+    private long crossings = 0;
+    private long evaluations = 0;
+    private long compared = 0;
+    private long skipped = 0;
+    private long mismatches = 0;
+    private final List<String> listedMismatches = new ArrayList<String>();
+
+    public CarStateThresholds(Mode mode) {
+        this.context = SimulationContext.current();
+        this.mode = mode;
+        gridNanos = Modules.DRIVE_PERIOD.getTruncNanoseconds();
+        if (mode == Mode.SAMPLED || mode == Mode.VALIDATE) {
+            //VALIDATE schedules nothing, so the run is the same as SAMPLED
+            timer = null;
+        } else {
+            //evaluate every sensor for the initial car state, like the first
+            //CarPosition message does in SAMPLED mode
+            timer = new Timer(context, this);
+            timer.start(0, INITIAL);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the sensors should listen to CarPosition messages, false
+     * if they are only evaluated at threshold crossings
+     */
+    boolean isSampled() {
+        return mode == Mode.SAMPLED || mode == Mode.VALIDATE;
+    }
+
+    /**
+     * @return true if the threshold evaluations are only compared with the
+     * sampled ones
+     */
+    boolean isValidating() {
+        return mode == Mode.VALIDATE;
+    }
+
+    void setDrive(DriveObject drive) {
+        if (this.drive != null) {
+            throw new IllegalStateException("drive is already set");
+        }
+        this.drive = drive;
+    }
+
+    /**
+     * Register the thresholds of a sensor.  The sensor is evaluated when the
+     * car position reaches or crosses one of the positions, or the car speed
+     * reaches or crosses one of the speeds.
+     *
+     * @throws IllegalStateException if the simulation has already started
+     */
+    void register(CarStateSensor sensor, String name, double[] sensorPositions, double[] sensorSpeeds) {
+        if (positions != null) {
+            throw new IllegalStateException(name + ": thresholds must be registered before the simulation starts");
+        }
+        int index = sensors.size();
+        sensors.add(sensor);
+        sensorNames.add(name);
+        for (double p : sensorPositions) {
+            add(positionMap, p, index);
+        }
+        for (double s : sensorSpeeds) {
+            add(speedMap, s, index);
+        }
+    }
+
+    private static void add(Map<Double, List<Integer>> map, double threshold, int index) {
+        List<Integer> list = map.get(threshold);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            map.put(threshold, list);
+        }
+        if (!list.contains(index)) {
+            list.add(index);
+        }
+    }
+
+    /**
+     * Build the threshold arrays.  No more sensors can be registered after
+     * this.
+     */
+    private void freeze() {
+        if (positions != null) {
+            return;
+        }
+        positions = new double[positionMap.size()];
+        positionSensors = new int[positionMap.size()][];
+        toArrays(positionMap, positions, positionSensors);
+        speeds = new double[speedMap.size()];
+        speedSensors = new int[speedMap.size()][];
+        toArrays(speedMap, speeds, speedSensors);
+        wokenAt = new int[sensors.size()];
+        isPending = new boolean[sensors.size()];
+    }
+
+    private static void toArrays(Map<Double, List<Integer>> map, double[] thresholds, int[][] indexes) {
+        int i = 0;
+        for (Map.Entry<Double, List<Integer>> e : map.entrySet()) {
+            thresholds[i] = e.getKey();
+            indexes[i] = new int[e.getValue().size()];
+            for (int j = 0; j < indexes[i].length; j++) {
+                indexes[i][j] = e.getValue().get(j);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return the position thresholds of all the sensors, in increasing order
+     */
+    double[] getPositions() {
+        freeze();
+        return positions.clone();
+    }
+
+    /**
+     * @return the speed thresholds of all the sensors, in increasing order
+     */
+    double[] getSpeeds() {
+        freeze();
+        return speeds.clone();
+    }
+
+    /**
+     * Called by the drive when the car state has changed.  Wakes the sensors
+     * with a threshold in the closed interval between the old and new
+     * position, or the old and new speed.
+     *
+     * @param fromSpeed the old speed, which is never negative
+     * @param toSpeed the new speed, which is never negative
+     */
+    void carMoved(double fromPosition, double toPosition, double fromSpeed, double toSpeed) {
+        if (mode == Mode.SAMPLED) {
+            return;
+        }
+        freeze();
+        startValidating();
+        crossing++;
+        boolean crossed = false;
+        if (fromPosition != toPosition) {
+            crossed |= wake(positions, positionSensors, fromPosition, toPosition);
+        }
+        if (fromSpeed != toSpeed) {
+            crossed |= wake(speeds, speedSensors, fromSpeed, toSpeed);
+        }
+        if (crossed) {
+            crossings++;
+        }
+    }
+
+    private boolean wake(double[] thresholds, int[][] indexes, double from, double to) {
+        double low = Math.min(from, to);
+        double high = Math.max(from, to);
+        boolean crossed = false;
+        for (int i = firstAtLeast(thresholds, low); i < thresholds.length && thresholds[i] <= high; i++) {
+            crossed = true;
+            for (int sensor : indexes[i]) {
+                if (wokenAt[sensor] != crossing) {
+                    wokenAt[sensor] = crossing;
+                    wake(sensor);
+                }
+            }
+        }
+        return crossed;
+    }
+
+    /**
+     * @return the index of the first threshold that is not less than the
+     * value, or the length of the array if there is none
+     */
+    private static int firstAtLeast(double[] thresholds, double value) {
+        int low = 0;
+        int high = thresholds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (thresholds[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void wake(int sensor) {
+        long now = context.getTimeNanoseconds();
+        if (mode == Mode.GRID && now % gridNanos != 0) {
+            if (!isPending[sensor]) {
+                isPending[sensor] = true;
+                pending.add(sensor);
+            }
+            if (!timer.isRunning()) {
+                timer.start(gridNanos - now % gridNanos, GRID_TICK);
+            }
+        } else {
+            evaluate(sensor);
+        }
+    }
+
+    private void evaluate(int sensor) {
+        evaluations++;
+        sensors.get(sensor).carStateChanged(drive.getCarPosition(), drive.getCarSpeed(), drive.getCarDirection());
+    }
+
+    /**
+     * In VALIDATE mode, compute the threshold outputs of all the sensors the
+     * first time they are needed.
+     */
+    private void startValidating() {
+        if (mode == Mode.VALIDATE && !validating) {
+            validating = true;
+            for (int i = 0; i < sensors.size(); i++) {
+                evaluate(i);
+            }
+        }
+    }
+
+    public void timerExpired(Object callbackData) {
+        freeze();
+        if (callbackData == INITIAL) {
+            for (int i = 0; i < sensors.size(); i++) {
+                evaluate(i);
+            }
+        }
+        for (int sensor : pending) {
+            isPending[sensor] = false;
+            evaluate(sensor);
+        }
+        pending.clear();
+    }
+
+    /**
+     * In VALIDATE mode, compare the output a sensor computed from a
+     * CarPosition message with the output it computed at the last threshold
+     * crossing.  The comparison is skipped if the inputs of the sampled
+     * evaluation are out of date, i.e. a message that was sent before the
+     * latest change of the car state.
+     *
+     * @param speed the speed the sampled evaluation used, or NaN if the
+     * output does not depend on the speed
+     * @param direction the direction the sampled evaluation used, or null if
+     * the output does not depend on the direction
+     */
+    void validate(CarStateSensor sensor, double position, double speed, Direction direction,
+            Object sampledOutput, Object thresholdOutput) {
+        freeze();
+        if (!validating) {
+            //the threshold output passed in predates the first evaluation
+            startValidating();
+            skipped++;
+            return;
+        }
+        if (position != drive.getCarPosition()
+                || (!Double.isNaN(speed) && speed != drive.getCarSpeed())
+                || (direction != null && direction != drive.getCarDirection())) {
+            skipped++;
+            return;
+        }
+        compared++;
+        if (!sampledOutput.equals(thresholdOutput)) {
+            mismatches++;
+            if (listedMismatches.size() < MAX_LISTED_MISMATCHES) {
+                listedMismatches.add(String.format("%s %s: sampled %s, threshold %s at position %s",
+                        Harness.getTime(), sensorNames.get(sensors.indexOf(sensor)), sampledOutput,
+                        thresholdOutput, position));
+            }
+        }
+    }
+
+    /**
+     * @return the number of sampled evaluations whose output differed from
+     * the threshold evaluation in VALIDATE mode
+     */
+    public long getMismatchCount() {
+        return mismatches;
+    }
+
+    /**
+     * @return a summary of the sensor evaluations, and in VALIDATE mode of the
+     * comparison
+     */
+    public String getSummary() {
+        freeze();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Sensor mode %s: %d sensors, %d position and %d speed thresholds%n", mode,
+                sensors.size(), positions.length, speeds.length));
+        sb.append(String.format("%d threshold evaluations at %d crossings", evaluations, crossings));
+        if (mode == Mode.VALIDATE) {
+            sb.append(String.format("%n%d sampled evaluations compared, %d skipped (out of date), %d mismatches",
+                    compared, skipped, mismatches));
+            for (String m : listedMismatches) {
+                sb.append("\n  ");
+                sb.append(m);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -36,7 +36,7 @@ public class DoorMotor extends Module implements TimeSensitive {
     private final ReadableDoorMotorPayload localCommand;
     private final WriteableDoorPositionPayload localDoorPosition;
     private final WriteableDoorReversalPayload reversal;
-    private final Timer timer;
+    private final PeriodicTimer timer;
 
     public DoorMotor(Hallway hallway, Side side, boolean verbose) {
         //don't use the period variable here
@@ -57,7 +57,7 @@ public class DoorMotor extends Module implements TimeSensitive {
         // door is closed and stopped at initialization
         doorPosition = 0;
 
-        timer = new Timer(this);
+        timer = new PeriodicTimer(this);
         timer.start(CONTROL_PERIOD);
     }
 
@@ -115,7 +115,6 @@ public class DoorMotor extends Module implements TimeSensitive {
 
         //prepare for next loop
         previousCommand = localCommand.command();
-        timer.start(CONTROL_PERIOD);
     }
 
     void blockDoor(double width) {
@@ -1,7 +1,9 @@
 package simulator.elevatormodules;
 
 import jSimPack.SimTime;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.TreeSet;
 import simulator.framework.*;
 import simulator.payloads.*;
 import simulator.payloads.CarPositionPayload.WriteableCarPositionPayload;
@@ -18,6 +20,19 @@ import simulator.payloads.DriveSpeedPayload.WriteableDriveSpeedPayload;
  * Complex information about the drive is available by setting verbose to true
  * (mostly for debuug purposes), as well as setting verboseMode to true.
  *
+ * With the -analyticdrive option, the motion is not integrated every period.
+ * Instead, the car moves in segments of constant acceleration (speeding up or
+ * slowing down to the commanded speed) followed by constant speed, and the
+ * position and speed are computed in closed form.  A new segment starts when
+ * the drive command changes or the car reaches the commanded speed.  The
+ * position and speed are sent when a segment starts, when the car crosses one
+ * of the thresholds registered with {@link CarStateThresholds} by the sensors,
+ * when the speed crosses the leveling or slow speed, and every period while
+ * the speed is changing (the controllers use the speed to decide when to slow
+ * down).  While the car is
+ * stopped or moving at constant speed between sensors, the drive sends
+ * nothing.
+ *
  * @author jdevale
  */
 public class DriveObject extends Module implements TimeSensitive {
@@ -57,16 +72,46 @@ public class DriveObject extends Module implements TimeSensitive {
     public final static double LevelingSpeed = 0.05;
     /**
      * The maximum speed, in meters per second, at which the drive can propel
-     * the car.
+     * the car.  This is set per simulation by the -fs commandline option.
      */
-    public final static double FastSpeed = Elevator.getFastElevatorSpeed();
-    private final Timer timer;
+    private final double fastSpeed = Elevator.getFastElevatorSpeed();
+    private final PeriodicTimer timer;
     SimTime lastRunTime;
+    /**
+     * speeds at which the outputs of monitors and controllers change, in
+     * meters per second, in addition to the thresholds of the sensors
+     */
+    private final static double[] SPEED_THRESHOLDS = {LevelingSpeed, SlowSpeed};
+    private final CarStateThresholds thresholds;
+    /** true to use the analytic model instead of integrating every period */
+    private final boolean analytic;
+    /** wakes the analytic model at the next time the car state must be sent */
+    private final Timer segmentTimer;
+    private final long periodNanos;
+    /**
+     * positions and speeds at which the outputs of sensors change, in
+     * increasing order, fetched when the analytic model first needs them
+     */
+    private double[] sensorPositions;
+    private double[] speedThresholds;
+    //current segment of the analytic model.  Speeds are negative going down.
+    private long segmentStart;
+    private double segmentPosition;
+    private double segmentSpeed;
+    private double segmentAcceleration;
+    /** the speed the segment accelerates to, and keeps after segmentEnd */
+    private double segmentTarget;
+    private long segmentEnd;
+    /** the drive command the current segment was started for */
+    private Speed segmentCommandSpeed;
+    private Direction segmentCommandDirection;
     private final Random randomSource;
     private final static double DROP_PROBABILITY = 0.1;
 
-    DriveObject(SimTime period, boolean verbose) {
+    DriveObject(SimTime period, boolean verbose, CarStateThresholds thresholds) {
         super(period, "Drive", verbose);
+        this.thresholds = thresholds;
+        thresholds.setDrive(this);
 
         randomSource = new Random(Harness.getRandomSeed());
 
@@ -79,8 +124,11 @@ public class DriveObject extends Module implements TimeSensitive {
         driveSpeedState.set(Direction.STOP, 0);
         carPositionState.set(0);
 
-        physicalConnection.sendTimeTriggered(carPositionState, period);
-        physicalConnection.sendTimeTriggered(driveSpeedState, period);
+        analytic = context.getAnalyticDrive();
+        if (!analytic) {
+            physicalConnection.sendTimeTriggered(carPositionState, period);
+            physicalConnection.sendTimeTriggered(driveSpeedState, period);
+        }
         physicalConnection.registerTimeTriggered(driveOrderedState);
         physicalConnection.registerEventTriggered(driveOrderedState);
         physicalConnection.registerEventTriggered(carWeight);
@@ -97,13 +145,30 @@ public class DriveObject extends Module implements TimeSensitive {
 
         lastRunTime = Harness.getTime();
 
-        timer = new Timer(this);
-        timer.start(period);
+        periodNanos = period.getTruncNanoseconds();
+        if (analytic) {
+            timer = null;
+            segmentTimer = new Timer(this);
+            segmentStart = context.getTimeNanoseconds();
+            segmentEnd = segmentStart;
+            segmentCommandSpeed = driveOrderedState.speed();
+            segmentCommandDirection = driveOrderedState.direction();
+        } else {
+            timer = new PeriodicTimer(this);
+            timer.start(period);
+            segmentTimer = null;
+        }
     }
 
     @Override
     public void receive(ReadableDrivePayload msg) {
-        run();
+        if (!analytic) {
+            run();
+        } else if (msg.speed() != segmentCommandSpeed || msg.direction() != segmentCommandDirection) {
+            //the command is also delivered every period, so only a change
+            //starts a new segment
+            updateAnalytic();
+        }
     }
 
     @Override
@@ -117,8 +182,17 @@ public class DriveObject extends Module implements TimeSensitive {
                 //occasionally drop the car
                 if (randomSource.nextDouble() < DROP_PROBABILITY ) {
                     //drop the car so that it goes out of level
-                    carPositionState.set(carPositionState.position() - 2*LevelingSensor.MAX_LEVEL_ERROR);
-                    physicalConnection.sendOnce(carPositionState);
+                    if (analytic) {
+                        advance(context.getTimeNanoseconds());
+                        segmentPosition -= 2*LevelingSensor.MAX_LEVEL_ERROR;
+                        updateAnalytic();
+                    } else {
+                        double oldPosition = carPositionState.position();
+                        carPositionState.set(carPositionState.position() - 2*LevelingSensor.MAX_LEVEL_ERROR);
+                        physicalConnection.sendOnce(carPositionState);
+                        thresholds.carMoved(oldPosition, carPositionState.position(),
+                                driveSpeedState.speed(), driveSpeedState.speed());
+                    }
                     log("Drop car out of level");
                 }
             }
@@ -130,27 +204,18 @@ public class DriveObject extends Module implements TimeSensitive {
 
 
     public void timerExpired(Object callbackData) {
-        run();
-        timer.start(period);
+        if (analytic) {
+            updateAnalytic();
+        } else {
+            run();
+        }
     }
 
     /**
-     * Calculates the current speed and position of the car.
+     * @return the speed ordered by the drive command, negative going down
      */
-    private void run() {
-
-        //if no time has elapsed, do not do anything
-        if (Harness.getTime().equals(lastRunTime)) {
-            return;
-        }
-
-        //double deltaV, deltaX;
-        double newSpeed;
-        double newPosition;
-        double targetSpeed = 0;
-        double currentSpeed = 0;
-        double acceleration = 0;
-
+    private double orderedSpeed() {
+        double targetSpeed;
         switch (driveOrderedState.speed()) {
             case STOP:
                 targetSpeed = 0.0;
@@ -162,7 +227,7 @@ public class DriveObject extends Module implements TimeSensitive {
                 targetSpeed = SlowSpeed;
                 break;
             case FAST:
-                targetSpeed = FastSpeed;
+                targetSpeed = fastSpeed;
                 break;
             default:
                 throw new RuntimeException("Unknown speed");
@@ -177,6 +242,25 @@ public class DriveObject extends Module implements TimeSensitive {
         if (driveOrderedState.direction() == Direction.DOWN) {
             targetSpeed *= -1;
         }
+        return targetSpeed;
+    }
+
+    /**
+     * Calculates the current speed and position of the car.
+     */
+    private void run() {
+
+        //if no time has elapsed, do not do anything
+        if (Harness.getTime().equals(lastRunTime)) {
+            return;
+        }
+
+        //double deltaV, deltaX;
+        double newSpeed;
+        double newPosition;
+        double targetSpeed = orderedSpeed();
+        double currentSpeed = 0;
+        double acceleration = 0;
 
         currentSpeed = driveSpeedState.speed();
         if (driveSpeedState.direction() == Direction.DOWN) {
@@ -202,6 +286,9 @@ public class DriveObject extends Module implements TimeSensitive {
         //remember this time as the last update
         lastRunTime = Harness.getTime();
 
+        double oldPosition = carPositionState.position();
+        double oldSpeed = driveSpeedState.speed();
+
         //now update speed
         //deltav = at
         newSpeed = currentSpeed + (acceleration * timeOffset);
@@ -231,12 +318,217 @@ public class DriveObject extends Module implements TimeSensitive {
 
         physicalConnection.sendOnce(carPositionState);
         physicalConnection.sendOnce(driveSpeedState);
+        thresholds.carMoved(oldPosition, newPosition, oldSpeed, driveSpeedState.speed());
+
+        log(" Ordered State=", driveOrderedState,
+                " Speed State=", driveSpeedState,
+                " Car Position=", carPositionState.position(), " meters");
+    }
+
+    /**
+     * Analytic model:  bring the car state up to date, start a new segment for
+     * the current drive command, send the state and schedule the next update.
+     */
+    private void updateAnalytic() {
+        long now = context.getTimeNanoseconds();
+        advance(now);
+        startSegment(now);
+
+        double speed = Math.abs(segmentSpeed);
+        Direction direction = Direction.STOP;
+        if (segmentSpeed > 0) {
+            direction = Direction.UP;
+        } else if (segmentSpeed < 0) {
+            direction = Direction.DOWN;
+        }
+        double oldPosition = carPositionState.position();
+        double oldSpeed = driveSpeedState.speed();
+        carPositionState.set(segmentPosition);
+        driveSpeedState.set(direction, speed);
+        physicalConnection.sendOnce(carPositionState);
+        physicalConnection.sendOnce(driveSpeedState);
+        thresholds.carMoved(oldPosition, segmentPosition, oldSpeed, speed);
+
+        long next = nextCrossing(now);
+        if (segmentEnd > now) {
+            next = Math.min(next, segmentEnd);
+        }
+        if (segmentAcceleration != 0) {
+            next = Math.min(next, now + periodNanos);
+        }
+        if (next == Long.MAX_VALUE) {
+            segmentTimer.cancel();
+        } else {
+            segmentTimer.start(next - now);
+        }
 
         log(" Ordered State=", driveOrderedState,
                 " Speed State=", driveSpeedState,
                 " Car Position=", carPositionState.position(), " meters");
     }
 
+    /**
+     * Move the start of the current segment to the given time, so the segment
+     * position and speed are the car state at that time.
+     */
+    private void advance(long time) {
+        segmentPosition = positionAt(time);
+        segmentSpeed = speedAt(time);
+        segmentStart = time;
+        segmentEnd = Math.max(segmentEnd, time);
+    }
+
+    /**
+     * @return the position of the car at the given time, which must not be
+     * before the start of the current segment
+     */
+    private double positionAt(long time) {
+        double t = (Math.min(time, segmentEnd) - segmentStart) / 1e9;
+        double position = segmentPosition + (segmentSpeed * t + 0.5 * segmentAcceleration * t * t);
+        if (time > segmentEnd) {
+            position += segmentTarget * ((time - segmentEnd) / 1e9);
+        }
+        return position;
+    }
+
+    /**
+     * @return the speed of the car at the given time, negative going down
+     */
+    private double speedAt(long time) {
+        if (time >= segmentEnd) {
+            return segmentTarget;
+        }
+        return segmentSpeed + segmentAcceleration * ((time - segmentStart) / 1e9);
+    }
+
+    /**
+     * @return the current position of the car.  With the analytic model, this
+     * is computed for the current time, so it may be newer than the last
+     * CarPosition message.
+     */
+    double getCarPosition() {
+        if (analytic) {
+            return positionAt(context.getTimeNanoseconds());
+        }
+        return carPositionState.position();
+    }
+
+    /**
+     * @return the current speed of the car, which is never negative
+     */
+    double getCarSpeed() {
+        if (analytic) {
+            return Math.abs(speedAt(context.getTimeNanoseconds()));
+        }
+        return driveSpeedState.speed();
+    }
+
+    /**
+     * @return the current direction the car is moving in
+     */
+    Direction getCarDirection() {
+        if (analytic) {
+            double speed = speedAt(context.getTimeNanoseconds());
+            if (speed > 0) {
+                return Direction.UP;
+            } else if (speed < 0) {
+                return Direction.DOWN;
+            }
+            return Direction.STOP;
+        }
+        return driveSpeedState.direction();
+    }
+
+    /**
+     * Start a segment that accelerates from the current speed to the speed
+     * ordered by the drive command.  If the command reverses the direction of
+     * travel, the segment stops the car, and the next one starts in the new
+     * direction.  Either way, the car does not change direction during a
+     * segment, so its position is monotonic.
+     */
+    private void startSegment(long now) {
+        double target = orderedSpeed();
+        if (segmentSpeed != 0 && target != 0 && (segmentSpeed > 0) != (target > 0)) {
+            target = 0;
+        }
+        double rate = Math.abs(target) > Math.abs(segmentSpeed) ? Acceleration : Deceleration;
+        segmentTarget = target;
+        segmentCommandSpeed = driveOrderedState.speed();
+        segmentCommandDirection = driveOrderedState.direction();
+        if (target == segmentSpeed) {
+            segmentAcceleration = 0;
+            segmentEnd = now;
+        } else {
+            segmentAcceleration = target > segmentSpeed ? rate : -rate;
+            segmentEnd = now + (long) Math.ceil(Math.abs(target - segmentSpeed) / rate * 1e9);
+        }
+    }
+
+    /**
+     * @return the first time after now that the car crosses one of the sensor
+     * positions, or its speed crosses one of the speed thresholds, or
+     * Long.MAX_VALUE if that does not happen in the current segment.  The time
+     * is rounded up so that the car has passed the threshold.
+     */
+    private long nextCrossing(long now) {
+        if (sensorPositions == null) {
+            sensorPositions = thresholds.getPositions();
+            TreeSet<Double> speeds = new TreeSet<Double>();
+            for (double threshold : SPEED_THRESHOLDS) {
+                speeds.add(threshold);
+            }
+            for (double threshold : thresholds.getSpeeds()) {
+                speeds.add(threshold);
+            }
+            speedThresholds = new double[speeds.size()];
+            int i = 0;
+            for (double threshold : speeds) {
+                speedThresholds[i++] = threshold;
+            }
+        }
+        double seconds = Double.POSITIVE_INFINITY;
+        //speed thresholds, while the speed is changing
+        if (segmentAcceleration != 0) {
+            double from = Math.abs(segmentSpeed);
+            double to = Math.abs(segmentTarget);
+            for (double threshold : speedThresholds) {
+                if ((from < threshold && threshold < to) || (to < threshold && threshold < from)) {
+                    seconds = Math.min(seconds, Math.abs(threshold - from) / Math.abs(segmentAcceleration));
+                }
+            }
+        }
+        //position thresholds, in the direction of travel
+        double sign = Math.signum(segmentSpeed + segmentTarget);
+        if (sign != 0) {
+            int i = Arrays.binarySearch(sensorPositions, segmentPosition);
+            int next;
+            if (sign > 0) {
+                next = i >= 0 ? i + 1 : -i - 1;
+            } else {
+                next = i >= 0 ? i - 1 : -i - 2;
+            }
+            if (next >= 0 && next < sensorPositions.length) {
+                //distances and speeds are taken in the direction of travel
+                double distance = Math.abs(sensorPositions[next] - segmentPosition);
+                double speed = sign * segmentSpeed;
+                double acceleration = sign * segmentAcceleration;
+                double duration = (segmentEnd - now) / 1e9;
+                double accelerating = speed * duration + 0.5 * acceleration * duration * duration;
+                if (distance <= accelerating) {
+                    //the root of distance = speed*t + acceleration*t^2/2, in a
+                    //form that is stable for small accelerations
+                    seconds = Math.min(seconds,
+                            2 * distance / (speed + Math.sqrt(speed * speed + 2 * acceleration * distance)));
+                } else if (segmentTarget != 0) {
+                    seconds = Math.min(seconds, duration + (distance - accelerating) / Math.abs(segmentTarget));
+                }
+            }
+        }
+        if (Double.isInfinite(seconds)) {
+            return Long.MAX_VALUE;
+        }
+        return now + (long) Math.floor(seconds * 1e9) + 1;
+    }
 
     @Override
     public String toString() {
@@ -13,7 +13,7 @@ import simulator.payloads.HoistwayLimitPayload.WriteableHoistwayLimitPayload;
  * network and framework <code>HoistwayLimitPayload</code> messages when the
  * Car exceeds a specified position.
  */
-public class HoistwayLimitSensor extends Module {
+public class HoistwayLimitSensor extends Module implements CarStateSensor {
 
     protected Direction direction;
     protected double threshold;
@@ -22,6 +22,9 @@ public class HoistwayLimitSensor extends Module {
     protected boolean previousValue;
     protected WriteableCanMailbox networkState;
     protected HoistwayLimitSensorCanPayloadTranslator networkStateTranslator;
+    private final CarStateThresholds thresholds;
+    /** output of the last threshold evaluation, kept in VALIDATE mode */
+    private boolean thresholdValue;
 
     /**
      * @param direction
@@ -30,8 +33,11 @@ public class HoistwayLimitSensor extends Module {
      * @param threshold
      * when the Car goes beyond this position value, this hoistway limit
      * switch is triggered
+     *
+     * @param thresholds
+     * where to register the threshold position
      */
-    public HoistwayLimitSensor(SimTime period, Direction direction, double threshold) {
+    public HoistwayLimitSensor(SimTime period, Direction direction, double threshold, CarStateThresholds thresholds) {
         super(period, "HoistwayLimitSensor(" + direction + ")", false);
         this.direction = direction;
         this.threshold = threshold;
@@ -44,24 +50,49 @@ public class HoistwayLimitSensor extends Module {
         networkStateTranslator.setValue(localState.exceeded());
 
         //register for car position updates
-        physicalConnection.registerEventTriggered(carPosition);
+        this.thresholds = thresholds;
+        if (thresholds.isSampled()) {
+            physicalConnection.registerEventTriggered(carPosition);
+        }
         //send physical and can state
         canNetworkConnection.sendTimeTriggered(networkState, period);
         physicalConnection.sendTimeTriggered(localState, period);
 
         previousValue = false;
+        thresholds.register(this, name, new double[]{threshold}, new double[0]);
+        thresholdValue = false;
+    }
+
+    private boolean isExceeded(double position) {
+        if ((direction == Direction.UP) && (position >= threshold)) {
+            return true;
+        } else if ((direction == Direction.DOWN) && (position <= threshold)) {
+            return true;
+        } else {
+            return false;
+        }
     }
 
     // event triggered so we always have the latest CarPosition information
     @Override
     public void receive(ReadableCarPositionPayload carPosition) {
-        if ((direction == Direction.UP) && (carPosition.position() >= threshold)) {
-            localState.set(true);
-        } else if ((direction == Direction.DOWN) && (carPosition.position() <= threshold)) {
-            localState.set(true);
-        } else {
-            localState.set(false);
+        localState.set(isExceeded(carPosition.position()));
+        if (thresholds.isValidating()) {
+            thresholds.validate(this, carPosition.position(), Double.NaN, null, localState.exceeded(), thresholdValue);
+        }
+        update();
+    }
+
+    public void carStateChanged(double position, double speed, Direction direction) {
+        if (thresholds.isValidating()) {
+            thresholdValue = isExceeded(position);
+            return;
         }
+        localState.set(isExceeded(position));
+        update();
+    }
+
+    private void update() {
         //update network state
         networkStateTranslator.setValue(localState.exceeded());
 
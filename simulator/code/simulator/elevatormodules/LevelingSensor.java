@@ -42,7 +42,7 @@ import simulator.payloads.LevelingPayload.WriteableLevelingPayload;
  *
  * @author justinr2
  */
-public class LevelingSensor extends Module {
+public class LevelingSensor extends Module implements CarStateSensor {
     public final static double VANE_HALF_WIDTH = 0.04;
     public final static double SENSOR_OFFSET = 0.045;
     public final static double MAX_LEVEL_ERROR = SENSOR_OFFSET - VANE_HALF_WIDTH;
@@ -53,8 +53,15 @@ public class LevelingSensor extends Module {
     private final ReadableCarPositionPayload carPosition;
     private double lastPosition = -1000;  //bogus value, so the first position update always computes values based on current position.
     private final LevelingCanPayloadTranslator mLeveling;
+    private final CarStateThresholds thresholds;
+    /** output of the last threshold evaluation, kept in VALIDATE mode */
+    private boolean thresholdValue = true;
 
-    public LevelingSensor(Direction direction, boolean verbose) {
+    /**
+     * @param thresholds where to register the positions at which the sensor
+     * reaches the edges of the vanes
+     */
+    public LevelingSensor(Direction direction, boolean verbose, CarStateThresholds thresholds) {
         super(SimTime.ZERO, "LevelingSensor" + ReplicationComputer.makeReplicationString(direction), verbose);
         this.direction = direction;
 
@@ -71,12 +78,43 @@ public class LevelingSensor extends Module {
         physicalConnection.sendTimeTriggered(localLeveling, Modules.DRIVE_PERIOD);
 
         carPosition = CarPositionPayload.getReadablePayload();
-        physicalConnection.registerTimeTriggered(carPosition);
-        physicalConnection.registerEventTriggered(carPosition);
+        this.thresholds = thresholds;
+        if (thresholds.isSampled()) {
+            physicalConnection.registerTimeTriggered(carPosition);
+            physicalConnection.registerEventTriggered(carPosition);
+        }
 
         WriteableCanMailbox wcm = CanMailbox.getWriteableCanMailbox(MessageDictionary.LEVELING_BASE_CAN_ID + ReplicationComputer.computeReplicationId(direction));
         mLeveling = new LevelingCanPayloadTranslator(wcm, direction);
         canNetworkConnection.sendTimeTriggered(wcm, Modules.LEVEL_SENSOR_PERIOD);
+
+        double[] vaneEdges = new double[2 * Elevator.numFloors];
+        for (int i = 0; i < Elevator.numFloors; i++) {
+            double floorPos = i * Elevator.DISTANCE_BETWEEN_FLOORS;
+            vaneEdges[2 * i] = floorPos - sensorOffset - VANE_HALF_WIDTH;
+            vaneEdges[2 * i + 1] = floorPos - sensorOffset + VANE_HALF_WIDTH;
+        }
+        thresholds.register(this, name, vaneEdges, new double[0]);
+    }
+
+    /**
+     * @return false if the vane at one of the floors blocks the sensor at
+     * the given car position, true otherwise
+     */
+    private boolean isLevel(double position) {
+        /*
+         * For each floor, check to see if the sensor is within one VANE_HALF_WIDTH of the
+         * floor position.  If so, then the vane is blocking the sensor and the sensor should
+         * return false.
+         */
+        for (int i=0; i < Elevator.numFloors; i++) {
+            double floorPos = i*Elevator.DISTANCE_BETWEEN_FLOORS;
+                if (Math.abs((position + sensorOffset) - floorPos) <= VANE_HALF_WIDTH) {
+                    //if we find that we are next to a vane, we set to false
+                    return false;
+                }
+        }
+        return true;
     }
 
     @Override
@@ -91,22 +129,25 @@ public class LevelingSensor extends Module {
         //save the new position
         lastPosition = position;
 
-        /*
-         * For each floor, check to see if the sensor is within one VANE_HALF_WIDTH of the
-         * floor position.  If so, then the vane is blocking the sensor and the sensor should
-         * return false.
-         */
-        //default is true
         boolean previousLeveling = localLeveling.getValue();
-        localLeveling.set(true);
-        for (int i=0; i < Elevator.numFloors; i++) {
-            double floorPos = i*Elevator.DISTANCE_BETWEEN_FLOORS;
-                if (Math.abs((position + sensorOffset) - floorPos) <= VANE_HALF_WIDTH) {
-                    //if we find that we are next to a vane, we set to false
-                    localLeveling.set(false);
-                    break;
-                }
+        localLeveling.set(isLevel(position));
+        if (thresholds.isValidating()) {
+            thresholds.validate(this, position, Double.NaN, null, localLeveling.getValue(), thresholdValue);
+        }
+        update(previousLeveling);
+    }
+
+    public void carStateChanged(double position, double speed, Direction direction) {
+        if (thresholds.isValidating()) {
+            thresholdValue = isLevel(position);
+            return;
         }
+        boolean previousLeveling = localLeveling.getValue();
+        localLeveling.set(isLevel(position));
+        update(previousLeveling);
+    }
+
+    private void update(boolean previousLeveling) {
         if (localLeveling.getValue() != previousLeveling) {
             physicalConnection.sendOnce(localLeveling);
         }
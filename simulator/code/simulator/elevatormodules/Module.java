@@ -2,7 +2,7 @@ package simulator.elevatormodules;
 
 import jSimPack.SimTime;
 import simulator.payloads.CANNetwork.CanConnection;
-import simulator.framework.Harness;
+import simulator.framework.SimulationContext;
 import simulator.payloads.NetworkScheduler.Connection;
 import simulator.payloads.Networkable;
 
@@ -12,6 +12,7 @@ import simulator.payloads.Networkable;
  */
 public abstract class Module extends Networkable {
 
+    final protected SimulationContext context;
     final protected CanConnection canNetworkConnection;
     final protected Connection physicalConnection;
     protected SimTime period;
@@ -21,13 +22,14 @@ public abstract class Module extends Networkable {
     public Module(SimTime period, String name, boolean verbose) {
         this.period = period;
         this.name = name;
-        canNetworkConnection = Harness.getCANNetwork().getCanConnection();
-        physicalConnection = Harness.getPhysicalNetwork().getFrameworkConnection(this);
+        context = SimulationContext.current();
+        canNetworkConnection = context.getCANNetwork(getClass()).getCanConnection();
+        physicalConnection = context.getPhysicalNetwork().getFrameworkConnection(this);
         this.verbose = verbose;
     }
 
     protected void log(Object... msg) {
-        if(verbose) Harness.log(name, msg);
+        if(verbose) context.log(name, msg);
     }
 
     @Override
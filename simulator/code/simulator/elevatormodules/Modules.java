@@ -39,7 +39,11 @@ public class Modules {
     private Modules() {
     }
 
-    public static PassengerControl makeAll(boolean verbose) {
+    /**
+     * @param thresholds where the sensors that measure the car register their
+     * thresholds, which also selects how they are evaluated
+     */
+    public static PassengerControl makeAll(boolean verbose, CarStateThresholds thresholds) {
 
         int numFloors = Elevator.numFloors;
 
@@ -54,9 +58,9 @@ public class Modules {
         }
 
         new CarLevelPositionSensor(CAR_LEVEL_POSITION_PERIOD,
-                verbose);
+                verbose, thresholds);
 
-        new DriveObject(DRIVE_PERIOD, verbose);
+        new DriveObject(DRIVE_PERIOD, verbose, thresholds);
 
         // lay out AtFloor sensors
         for (int floor = 1; floor <= numFloors; floor++) {
@@ -64,22 +68,22 @@ public class Modules {
                 if (Elevator.hasLanding(floor, hallway)) {
                     // front hall at every floor except floor 2
                     new AtFloorSensor(AT_FLOOR_PERIOD, floor,
-                            hallway);
+                            hallway, thresholds);
                 }
             }
         }
 
         new HoistwayLimitSensor(HOISTWAY_LIMIT_PERIOD,
-                Direction.DOWN, -HOISTWAY_LIMIT_DISTANCE);
+                Direction.DOWN, -HOISTWAY_LIMIT_DISTANCE, thresholds);
 
         new HoistwayLimitSensor(HOISTWAY_LIMIT_PERIOD,
                 Direction.UP,
-                Elevator.DISTANCE_BETWEEN_FLOORS * (numFloors - 1) + HOISTWAY_LIMIT_DISTANCE);
+                Elevator.DISTANCE_BETWEEN_FLOORS * (numFloors - 1) + HOISTWAY_LIMIT_DISTANCE, thresholds);
 
         CarWeightSensor cws = new CarWeightSensor(WEIGHT_PERIOD, verbose);
 
         for (Direction d : Direction.replicationValues) {
-            new LevelingSensor(d, verbose);
+            new LevelingSensor(d, verbose, thresholds);
         }
 
         //instantiate passenger interface objects
@@ -481,12 +481,12 @@ public class Safety extends Module implements TimeSensitive {
                     break;
                 case 5:
                     Harness.log(name, "Drivespeed not adjacent: LEVEL while not slow");
-                    driveSpeed.set(Direction.UP, DriveObject.FastSpeed);
+                    driveSpeed.set(Direction.UP, Elevator.getFastElevatorSpeed());
                     driveCommand.set(Speed.LEVEL, Direction.UP);
                     break;
                 case 6:
                     Harness.log(name, "Drivespeed not adjacent: STOP while not slow");
-                    driveSpeed.set(Direction.UP, DriveObject.FastSpeed);
+                    driveSpeed.set(Direction.UP, Elevator.getFastElevatorSpeed());
                     driveCommand.set(Speed.STOP, Direction.UP);
                     break;
                 case 7:
@@ -1,6 +1,5 @@
 package simulator.elevatormodules;
 
-import java.util.BitSet;
 import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 import simulator.payloads.translators.CanPayloadTranslator;
@@ -42,13 +41,11 @@ public class VarIntegerCanTranslator extends CanPayloadTranslator {
 
 
     public int getValue() {
-        return getIntFromBitset(getMessagePayload(), 0, getByteSize() * 8);
+        return getIntFromBits(getMessageBits(), 0, getByteSize() * 8);
     }
 
     public void setValue(int position) {
-        BitSet b = getMessagePayload();
-        addIntToBitset(b, position, 0, getByteSize() * 8);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(getMessageBits(), position, 0, getByteSize() * 8), getByteSize());
     }
 
     @Override
@@ -23,21 +23,13 @@ import simulator.payloads.LevelingPayload.ReadableLevelingPayload;
 /**
  * Monitor the drive state and provide a passenger inteface.
  *
- * This object is instance controlled since multiple instances would duplicate
- * functionality.
+ * Only one instance should be created per simulation (by PassengerControl)
+ * since multiple instances would duplicate functionality.
  *
  * @author Justin Ray
  */
 class DriveMonitor extends PassengerModule {
 
-    private static DriveMonitor instance = new DriveMonitor();
-
-    ;
-
-    public static DriveMonitor getInstance() {
-        return instance;
-    }
-
     public static enum DriveState {
 
         STOPPED,
@@ -52,7 +44,7 @@ class DriveMonitor extends PassengerModule {
     private int currentFloor = -1;
     private DriveState driveState = DriveState.STOPPED;
 
-    private DriveMonitor() {
+    DriveMonitor() {
         super(SimTime.ZERO, "Drive Monitor", false);
         //create and register frawework payloads
         atFloors = new ReadableAtFloorPayload[Elevator.numFloors * 2];
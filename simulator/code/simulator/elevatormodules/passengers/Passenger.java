@@ -109,7 +109,6 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
     private final static double CAR_LANTERN_CHANGE_SCORE = 0.8;
     private final static double SKIP_DESTINATION_FLOOR_SCORE = 0.5;
     private final static double MISSED_OPENINGS_THRESH_EXCEEDED = 0.5;
-    private final static boolean IGNORE_LEVELING = Elevator.getIgnoreLeveling();
 
     public int compareTo(Passenger o) {
         return info.injectionTime.compareTo(o.info.injectionTime);
@@ -128,8 +127,8 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
         OVERWEIGHT_BACKOFF,
         DONE
     }
-    private static int nextPassengerIndex = 0;
     private final int index;
+    private final boolean ignoreLeveling = Elevator.getIgnoreLeveling();
     private final String name;
     private final PassengerControl pc;
     private final boolean verbose;
@@ -150,7 +149,7 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
     private PassengerSatisfaction satisfaction = new PassengerSatisfaction();
 
     public Passenger(PassengerControl pc, PassengerInfo info, boolean verbose) {
-        index = nextPassengerIndex++;
+        index = Harness.getContext().nextPassengerIndex();
         name = "Passenger " + index;
         this.pc = pc;
         this.info = info;
@@ -477,7 +476,7 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
             //check the door width
             //check car level
             //check for priority in queue
-            if ((pc.driveMonitor.isLevel() || IGNORE_LEVELING)
+            if ((pc.driveMonitor.isLevel() || ignoreLeveling)
                     && isQueued
                     && theDoor.getWidth() >= info.width
                     && passengerHandler.getDoorQueue(info.startHallway).isNext(Passenger.this)) {
@@ -691,7 +690,7 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
 
             //check the door width
             //check for priority in queue
-            if ((pc.driveMonitor.isLevel() || IGNORE_LEVELING)
+            if ((pc.driveMonitor.isLevel() || ignoreLeveling)
                     && isQueued
                     && theDoor.getWidth() >= info.width
                     && passengerHandler.getDoorQueue(info.startHallway).isNext(Passenger.this)) {
@@ -918,7 +917,7 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
             //check the door width
             //check the current floor
             //check for priority in queue
-            if ((pc.driveMonitor.isLevel() || IGNORE_LEVELING)
+            if ((pc.driveMonitor.isLevel() || ignoreLeveling)
                     && isQueued
                     && theDoor.getWidth() >= info.width
                     && passengerHandler.getDoorQueue(info.endHallway).isNext(Passenger.this)) {
@@ -1107,7 +1106,7 @@ public class Passenger implements PassengerEventReceiver, Comparable<Passenger>
             //check the door width
             //check the current floor
             //check for priority in queue
-            if ((pc.driveMonitor.isLevel() || IGNORE_LEVELING)
+            if ((pc.driveMonitor.isLevel() || ignoreLeveling)
                     && isQueued
                     && theDoor.getWidth() >= info.width
                     && passengerHandler.getDoorQueue(info.startHallway).isNext(Passenger.this)) {
@@ -48,7 +48,7 @@ public class PassengerControl implements PassengerEventSender{
         this.carPositionIndicator = carPositionIndicator;
         this.carWeightAlarm = carWeightAlarm;
         this.carWeightSensor = carWeightSensor;
-        driveMonitor = DriveMonitor.getInstance();
+        driveMonitor = new DriveMonitor();
         //add senders to list
         senders.add(driveMonitor);
         for (Door d : doors) {
@@ -4,6 +4,7 @@
  */
 package simulator.elevatormodules.passengers;
 
+import jSimPack.QuiescenceDetector;
 import jSimPack.SimTime;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -43,7 +44,7 @@ import simulator.framework.Timer;
  *
  * @author Justin Ray
  */
-public class PassengerHandler implements PassengerEventReceiver {
+public class PassengerHandler implements PassengerEventReceiver, QuiescenceDetector.Participant {
 
     /**
      * Callback class to inject the passenger into the system at their start time.
@@ -281,6 +282,18 @@ public class PassengerHandler implements PassengerEventReceiver {
         }
     }
 
+    /**
+     * Passengers act on their own timers and keep their own times, so the
+     * simulation is not quiescent while any passenger is in the system.
+     */
+    public boolean isQuiescent() {
+        return injectedPassengers.isEmpty();
+    }
+
+    public void skipped(long window, long repeats) {
+        //nothing to do, since no passengers were in the system
+    }
+
     /**
      * @param hallway
      * @return a reference to the door queue for Hallway hallway
@@ -25,6 +25,11 @@ import jSimPack.SimTime;
  *
  * This abstract class can be implemented on different time bases by subclassing
  * and specifying the scheduleEvents() and cancelEvent() methods
+ *
+ * Timer events are pooled by the event list, so the timer keeps the generation
+ * of its pending event along with the event itself.  When the handler restarts
+ * the timer from inside <code>timerExpired</code>, the expired event object is
+ * rescheduled in place instead of scheduling a new one.
  * 
  * @author William Nace
  * @author Kenny Stauffer
@@ -32,8 +37,14 @@ import jSimPack.SimTime;
 public abstract class AbstractTimer implements FutureEventListener {
 
     private final TimeSensitive handler;
+    /** The simulation this timer schedules its events in */
+    protected final SimulationContext context;
     //private HashMap<Object, FutureEvent> pendingEvents = new HashMap<Object, FutureEvent>();
     private FutureEvent pendingEvent = null;
+    /** generation of pendingEvent when it was scheduled */
+    private int pendingGeneration;
+    /** the event that is being released while the handler executes */
+    private FutureEvent expiredEvent = null;
     // Verbosity level: 0 = no messages, not even errors
     //                  1 = errors
     //                  2 = errors + dot on scheduled, - on cancel + on ring
@@ -47,19 +58,19 @@ public abstract class AbstractTimer implements FutureEventListener {
      * Schedule the timer event - this method is implemented to schedule the Timer
      * on a specific event queue.
      * @param event Event to be scheduled
-     * @param timeInterval Amount of time in the future to schedule the event
+     * @param timeInterval Amount of time in the future to schedule the event, in nanoseconds
      * @param data Callback data for the timerExpired callback
      * @return the event object that was created.  This can be used to cancel a timer event.
      */
-    protected abstract FutureEvent scheduleEvent(FutureEventListener event, SimTime timeInterval, Object data);
+    protected abstract FutureEvent scheduleEvent(FutureEventListener event, long timeInterval, Object data);
 
     /**
      * Cancel a pending event - this method is implemented to cancel Timer events
      * on a specific event queue.
      * @param event event to cancel
-     * @return true if the event was cancelled
+     * @param generation the generation of the event when it was scheduled
      */
-    protected abstract void cancelEvent(FutureEvent event);
+    protected abstract void cancelEvent(FutureEvent event, int generation);
 
     /**
      * Sets the logging verbosity for all <code>Timer</code> objects.
@@ -72,13 +83,26 @@ public abstract class AbstractTimer implements FutureEventListener {
     /**
      * Constructs a Timer with the specified handler.  When the
      * <code>Timer</code> expires, it will call back to the handler's
-     * <code>timerExpired(Object)</code> method.
+     * <code>timerExpired(Object)</code> method.  The timer belongs to the
+     * simulation context that is current for the calling thread.
      */
     public AbstractTimer(TimeSensitive handler) {
+        this(SimulationContext.current(), handler);
+    }
+
+    /**
+     * Constructs a Timer with the specified handler that schedules its events
+     * in the specified simulation context.
+     */
+    public AbstractTimer(SimulationContext context, TimeSensitive handler) {
+        if (context == null) {
+            throw new NullPointerException("context");
+        }
         if (handler == null) {
             throw new NullPointerException("handler");
         }
 
+        this.context = context;
         this.handler = handler;
     }
 
@@ -106,6 +130,26 @@ public abstract class AbstractTimer implements FutureEventListener {
      * if <code>nanoSeconds</code> is negative
      */
     public void start(SimTime timerDuration, Object callback) {
+        start(timerDuration.getTruncNanoseconds(), callback);
+    }
+
+    /**
+     * Works just like {@link #start(SimTime)}, but the interval is given in
+     * nanoseconds.
+     */
+    public void start(long nanoseconds) {
+        start(nanoseconds, null);
+    }
+
+    /**
+     * Works just like {@link #start(SimTime, Object)}, but the interval is
+     * given in nanoseconds.  Modules that restart a timer with the same period
+     * over and over can use this to avoid creating SimTime objects.
+     *
+     * @throws IllegalArgumentException
+     * if <code>nanoseconds</code> is negative
+     */
+    public void start(long nanoseconds, Object callback) {
         //JR get rid of this check because the duration is already validated inside the
         //event list
         //minor optimization, but this call is on the critical path for the simulator.
@@ -113,11 +157,21 @@ public abstract class AbstractTimer implements FutureEventListener {
         throw new IllegalArgumentException("nanoSeconds is negative");
         }*/
 
-        log("start(", timerDuration, ",", callback, ")");
+        if (verbose > 10) {
+            log("start(", nanoseconds, "ns,", callback, ")");
+        }
 
         cancel();
 
-        pendingEvent = scheduleEvent(this, timerDuration, callback);
+        if (expiredEvent != null) {
+            //restarted from timerExpired, so reuse the event that just expired
+            context.getEventList().reschedule(expiredEvent, nanoseconds, callback);
+            pendingEvent = expiredEvent;
+            expiredEvent = null;
+        } else {
+            pendingEvent = scheduleEvent(this, nanoseconds, callback);
+        }
+        pendingGeneration = pendingEvent.getGeneration();
     }
 
     /**
@@ -138,13 +192,13 @@ public abstract class AbstractTimer implements FutureEventListener {
             return;
         }
 
-        cancelEvent(pendingEvent);
+        cancelEvent(pendingEvent, pendingGeneration);
         pendingEvent = null;
     }
 
     private void log(Object... o) {
         if (verbose > 10) {
-            Harness.log(toString(), o);
+            context.log(toString(), o);
         }
     }
 
@@ -155,7 +209,9 @@ public abstract class AbstractTimer implements FutureEventListener {
 
     public void eventReleased(Object data) {
         log("TimerEventReleased", data);
+        expiredEvent = pendingEvent;
         pendingEvent = null;
         handler.timerExpired(data);
+        expiredEvent = null;
     }
 }
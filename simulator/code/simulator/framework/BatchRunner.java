@@ -0,0 +1,309 @@
+package simulator.framework;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch of simulations concurrently inside one JVM.
+ *
+ * Each line of the manifest file describes one job with the same options that
+ * would be passed to {@link Elevator} on the commandline, e.g.
+ *
+ *     -pf proj11acceptance1.pass -monitor Proj11RuntimeMonitor
+ *     -pf proj8acceptance1.pass -ff basicfault.fault
+ *     -cf SD1A.cf -mf SD1A_01.mf
+ *
+ * If a seed range is given, every job is run once for each seed in the range.
+ * Each job runs in its own {@link SimulationContext} on a worker thread from a
+ * fixed-size pool and writes the same elevator-*.stats or injection-*.stats
+ * file that the equivalent Elevator invocation would.  Console output of each
+ * job is discarded unless an output directory is specified with -out.
+ *
+ * The manifest supports comments and the #INCLUDE syntax (see
+ * {@link FileTokenizer}).
+ */
+public class BatchRunner implements Parser {
+
+    /**
+     * Elevator options that only make sense for interactive, single runs.
+     */
+    private final static List<String> INVALID_OPTIONS = Arrays.asList(
+            "-gui", "-rate", "-break", "-lf", "-pd");
+    private final List<String[]> jobArgs = new ArrayList<String[]>();
+    private final List<String> jobNames = new ArrayList<String>();
+
+    /**
+     * Read the jobs from the manifest file.
+     * @param manifestFile  path to the manifest
+     */
+    public BatchRunner(String manifestFile) {
+        new FileTokenizer(manifestFile, false, this).parseFile();
+    }
+
+    public void parse(String[] args, FileTokenizer sourceFT) throws ParseException {
+        String testFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (INVALID_OPTIONS.contains(args[i])) {
+                throw new ParseException("option " + args[i] + " cannot be used in a batch", 0);
+            }
+            if ((args[i].equals("-pf") || args[i].equals("-mf")) && i + 1 < args.length) {
+                testFile = new File(args[i + 1]).getName();
+            }
+        }
+        if (testFile == null) {
+            throw new ParseException("each job must specify a -pf or -mf file", 0);
+        }
+        jobArgs.add(args);
+        jobNames.add(testFile);
+    }
+
+    /**
+     * @return the number of jobs read from the manifest (not counting seeds)
+     */
+    public int getJobCount() {
+        return jobArgs.size();
+    }
+
+    /**
+     * Run all the jobs in the manifest.
+     *
+     * @param commonArgs Elevator options that are appended to every job
+     * @param seeds seeds to run each job with, or null to run each job once
+     * with the seed (if any) given in the manifest
+     * @param threads size of the worker pool
+     * @param outputDir directory that receives the console output of each
+     * job, or null to discard it
+     * @return the number of jobs that failed
+     */
+    public int runAll(String[] commonArgs, long[] seeds, int threads, File outputDir) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < jobArgs.size(); i++) {
+            if (seeds == null) {
+                jobs.add(new Job(jobs.size(), jobNames.get(i), concat(jobArgs.get(i), commonArgs), outputDir));
+            } else {
+                for (long seed : seeds) {
+                    String[] seedArgs = {"-seed", Long.toString(seed)};
+                    jobs.add(new Job(jobs.size(), jobNames.get(i) + "-" + seed,
+                            concat(concat(jobArgs.get(i), commonArgs), seedArgs), outputDir));
+                }
+            }
+        }
+
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (Job job : jobs) {
+            results.add(pool.submit(job));
+        }
+        pool.shutdown();
+
+        int failures = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                if (results.get(i).get() != 0) {
+                    failures++;
+                }
+            } catch (InterruptedException ex) {
+                pool.shutdownNow();
+                throw new RuntimeException("Batch interrupted", ex);
+            } catch (ExecutionException ex) {
+                report(jobs.get(i), "FAILED (" + ex.getCause() + ")", 0);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static void report(Job job, String status, double seconds) {
+        synchronized (System.out) {
+            System.out.println(String.format("[%d] %s: %s (%.3f real seconds)", job.index, job.name, status, seconds));
+        }
+    }
+
+    /**
+     * One simulation run.  The job creates a fresh SimulationContext and
+     * attaches it to the worker thread for the duration of the run.
+     */
+    private static class Job implements Callable<Integer> {
+
+        private final int index;
+        private final String name;
+        private final String[] args;
+        private final File outputDir;
+
+        Job(int index, String name, String[] args, File outputDir) {
+            this.index = index;
+            this.name = name;
+            this.args = args;
+            this.outputDir = outputDir;
+        }
+
+        public Integer call() throws FileNotFoundException {
+            long startTime = System.currentTimeMillis();
+            PrintStream out;
+            if (outputDir == null) {
+                out = new PrintStream(new NullOutputStream());
+            } else {
+                out = new PrintStream(new File(outputDir, String.format("job%d-%s.out", index, name)));
+            }
+            SimulationContext context = new SimulationContext();
+            SimulationContext previous = context.attach();
+            int status;
+            try {
+                context.setLogPrinter(out);
+                status = Elevator.run(args, out);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace(out);
+                status = -1;
+            } finally {
+                SimulationContext.detach(previous);
+                out.close();
+            }
+            double runtime = (double) (System.currentTimeMillis() - startTime) / 1000;
+            report(this, status == 0 ? "OK" : "FAILED (status " + status + ")", runtime);
+            return status;
+        }
+    }
+
+    /**
+     * Discards everything written to it.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Parse a seed specification.  Either a single seed ("5") or an inclusive
+     * range ("1-100").
+     */
+    private static long[] parseSeeds(String spec) {
+        int dash = spec.indexOf('-', 1);
+        long first;
+        long last;
+        if (dash < 0) {
+            first = last = Long.parseLong(spec);
+        } else {
+            first = Long.parseLong(spec.substring(0, dash));
+            last = Long.parseLong(spec.substring(dash + 1));
+        }
+        if (last < first) {
+            throw new NumberFormatException("empty seed range: " + spec);
+        }
+        long[] seeds = new long[(int) (last - first + 1)];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = first + i;
+        }
+        return seeds;
+    }
+
+    public static void main(String[] args) {
+        String manifest = null;
+        long[] seeds = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outputDir = null;
+        List<String> commonArgs = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            try {
+                if (args[i].equals("-manifest")) {
+                    i++;
+                    manifest = args[i];
+                } else if (args[i].equals("-seeds")) {
+                    i++;
+                    seeds = parseSeeds(args[i]);
+                } else if (args[i].equals("-threads")) {
+                    i++;
+                    threads = Integer.parseInt(args[i]);
+                    if (threads < 1) {
+                        throw new NumberFormatException("threads must be positive");
+                    }
+                } else if (args[i].equals("-out")) {
+                    i++;
+                    outputDir = new File(args[i]);
+                    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                        System.err.println("Could not create output directory " + outputDir);
+                        System.exit(1);
+                    }
+                } else if (INVALID_OPTIONS.contains(args[i]) || args[i].equals("-seed")) {
+                    System.err.println("Option " + args[i] + " cannot be used in a batch");
+                    printUsage();
+                    System.exit(1);
+                } else {
+                    commonArgs.add(args[i]);
+                }
+            } catch (NumberFormatException nfe) {
+                System.err.println("Error while parsing argument: " + args[i]);
+                System.err.println(nfe.getMessage());
+                printUsage();
+                System.exit(1);
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                System.err.println("Missing value for argument: " + args[i - 1]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+        if (manifest == null) {
+            printUsage();
+            System.exit(1);
+        }
+
+        BatchRunner runner = new BatchRunner(manifest);
+        int jobCount = runner.getJobCount() * (seeds == null ? 1 : seeds.length);
+        System.out.println(String.format("Running %d jobs on %d threads", jobCount, threads));
+
+        long startTime = System.currentTimeMillis();
+        int failures = runner.runAll(commonArgs.toArray(new String[commonArgs.size()]), seeds, threads, outputDir);
+        double runtime = (double) (System.currentTimeMillis() - startTime) / 1000;
+
+        System.out.println(String.format("%d jobs, %d failed\n %.3f real seconds", jobCount, failures, runtime));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    public static void printUsage() {
+        System.out.println(
+                "\n"
+                + "SYNOPSIS\n"
+                + "  BatchRunner -manifest <file> [-seeds N|FIRST-LAST] [-threads N] [-out DIR]\n"
+                + "              [elevator options]\n"
+                + "\n"
+                + "DESCRIPTION\n"
+                + "  Runs every job in the manifest concurrently in one JVM.  Each line of the\n"
+                + "  manifest holds the Elevator options for one job (-pf or -cf/-mf, plus\n"
+                + "  -ff, -monitor, etc.).  Stats files are written to the working directory\n"
+                + "  exactly as for single Elevator runs.\n"
+                + "\n"
+                + "  -seeds N|FIRST-LAST\n"
+                + "    Run every job once for each seed in the inclusive range.\n"
+                + "  -threads N\n"
+                + "    Size of the worker pool.  Default is the number of processors.\n"
+                + "  -out DIR\n"
+                + "    Write the console output of each job to a file in DIR.\n"
+                + "\n"
+                + "  Any other options (e.g. -fs 5.0 -b 200 -head headerfile) are passed to\n"
+                + "  every job.  -gui, -rate, -break, -lf and -pd are not allowed.\n");
+    }
+}
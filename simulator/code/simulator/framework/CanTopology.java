@@ -0,0 +1,146 @@
+package simulator.framework;
+
+import jSimPack.SimTime;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import simulator.payloads.CANNetwork;
+import simulator.payloads.CanGateway;
+
+/**
+ * Reads a CAN topology file, which splits the CAN network into several
+ * segments connected by gateways.  The file has one statement per line:
+ *
+ * <pre>
+ * SEGMENT name bitrate
+ *     Add a segment.  The bitrate is in kbps, as for the -b option.
+ * NODE segment ClassName [ClassName ...]
+ *     Connect the controllers, modules and monitors of the given classes
+ *     (e.g. DoorControl, AtFloorSensor) to the segment.
+ * GATEWAY from to delay *|id [id ...]
+ *     Add a gateway that forwards messages from one segment to the other after
+ *     the given processing delay (e.g. 200us).  Message IDs may be given in
+ *     decimal or hex (0x...).  * forwards every message that is sent on the
+ *     source segment and received on the destination segment.
+ * </pre>
+ *
+ * The default network set up with -b is called "default", and every node
+ * that is not connected to another segment stays on it.  Gateways are added
+ * in the order they appear, so a * gateway also forwards the messages that
+ * earlier gateways bring onto its source segment.
+ *
+ * Segments and node assignments are set up by the constructor before
+ * the nodes are created; gateways are created by {@link #createGateways()}
+ * once they have been.
+ */
+public class CanTopology implements Parser {
+
+    private final static String FORWARD_ALL = "*";
+    private final SimulationContext context;
+    private final boolean verbose;
+    /** the GATEWAY statements, kept until the nodes have been created */
+    private final List<String[]> gatewayStatements = new ArrayList<String[]>();
+    private final List<String> gatewayLines = new ArrayList<String>();
+
+    /**
+     * Parse the file and add its segments and node assignments to the
+     * current simulation.
+     */
+    public CanTopology(String filename, boolean verbose) {
+        this.context = SimulationContext.current();
+        this.verbose = verbose;
+        FileTokenizer ft = new FileTokenizer(filename, verbose, this);
+        ft.parseFile();
+    }
+
+    public void parse(String[] words, FileTokenizer sourceFT) throws ParseException {
+        if (verbose) {
+            Harness.log("CanTopology", sourceFT.lineMessage("parsing " + Arrays.toString(words)));
+        }
+        String keyword = words[0].toUpperCase();
+        if (keyword.equals("SEGMENT")) {
+            if (words.length != 3) {
+                throw new ParseException("SEGMENT takes a name and a bitrate in kbps", 0);
+            }
+            double bitsPerSecond;
+            try {
+                bitsPerSecond = Double.parseDouble(words[2]) * 1000;
+            } catch (NumberFormatException ex) {
+                throw new ParseException("invalid bitrate: " + words[2], 0);
+            }
+            if (bitsPerSecond <= 0) {
+                throw new ParseException("bitrate must be positive: " + words[2], 0);
+            }
+            try {
+                context.addCanSegment(words[1], new SimTime(1 / bitsPerSecond, SimTime.SimTimeUnit.SECOND));
+            } catch (IllegalArgumentException ex) {
+                throw new ParseException(ex.getMessage(), 0);
+            }
+        } else if (keyword.equals("NODE")) {
+            if (words.length < 3) {
+                throw new ParseException("NODE takes a segment and at least one class name", 0);
+            }
+            CANNetwork segment = getSegment(words[1]);
+            for (int i = 2; i < words.length; i++) {
+                context.assignCanSegment(words[i], segment);
+            }
+        } else if (keyword.equals("GATEWAY")) {
+            if (words.length < 5) {
+                throw new ParseException("GATEWAY takes a source and destination segment, a delay, and * or message IDs", 0);
+            }
+            getSegment(words[1]);
+            getSegment(words[2]);
+            try {
+                new SimTime(words[3]);
+                for (int i = 4; i < words.length; i++) {
+                    if (!words[i].equals(FORWARD_ALL)) {
+                        Integer.decode(words[i]);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                throw new ParseException("invalid delay or message ID: " + ex.getMessage(), 0);
+            }
+            gatewayStatements.add(words);
+            gatewayLines.add(sourceFT.getLineInfo());
+        } else {
+            throw new ParseException("unknown statement " + words[0] + ", expected SEGMENT, NODE or GATEWAY", 0);
+        }
+    }
+
+    private CANNetwork getSegment(String name) throws ParseException {
+        CANNetwork segment = context.getCanSegment(name);
+        if (segment == null) {
+            throw new ParseException("unknown segment " + name, 0);
+        }
+        return segment;
+    }
+
+    /**
+     * Create the gateways.  Call this after all the controllers and modules
+     * have been created, so the messages they send and receive are known.
+     */
+    public void createGateways() {
+        for (int g = 0; g < gatewayStatements.size(); g++) {
+            String[] words = gatewayStatements.get(g);
+            String name = words[1] + "->" + words[2];
+            CanGateway gateway = new CanGateway(context, name, context.getCanSegment(words[1]),
+                    context.getCanSegment(words[2]), new SimTime(words[3]));
+            try {
+                for (int i = 4; i < words.length; i++) {
+                    if (words[i].equals(FORWARD_ALL)) {
+                        gateway.forwardAll();
+                    } else {
+                        gateway.forward(Integer.decode(words[i]));
+                    }
+                }
+            } catch (RuntimeException ex) {
+                throw new RuntimeException(gatewayLines.get(g) + ": " + ex.getMessage(), ex);
+            }
+            context.addCanGateway(gateway);
+            if (verbose) {
+                Harness.log("CanTopology", gateway, " forwards ", gateway.getForwardCount(), " message IDs");
+            }
+        }
+    }
+}
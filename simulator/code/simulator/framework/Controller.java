@@ -6,6 +6,7 @@ package simulator.framework;
 
 import java.util.HashMap;
 import java.util.Map;
+import jSimPack.SimTime;
 import simulator.payloads.Networkable;
 import simulator.payloads.CANNetwork.CanConnection;
 import simulator.payloads.PhysicalNetwork.PhysicalConnection;
@@ -30,10 +31,21 @@ import simulator.payloads.PhysicalNetwork.PhysicalConnection;
 public abstract class Controller extends Networkable implements TimeSensitive {
 
     public final String STATE_KEY = "STATE";  //string to use as key for the current state of the controller.
-    protected final CanConnection canInterface = Harness.getCANNetwork().getCanConnection();
-    protected final PhysicalConnection physicalInterface = Harness.getPhysicalNetwork().getConnection();
-    protected final Timer timer = new Timer(this);
+    protected final SimulationContext context = SimulationContext.current();
+    protected final CanConnection canInterface = context.getCANNetwork(getClass()).getCanConnection();
+    protected final PhysicalConnection physicalInterface = context.getPhysicalNetwork().getConnection();
+    /** how the controller is run, or null to run it every period */
+    private final ControllerExecution execution = context.getControllerExecution();
+    protected final Timer timer = new Timer(context, execution == null ? this : new Runner());
     private Map<String, String> stateValues = new HashMap<String, String>();
+    //the stable state declared by the last run, see setStable()
+    private boolean stable = false;
+    private long stableVersion;
+    private long stableUntil;
+    /** the input version at the start of the current run */
+    private long runVersion;
+    /** the time the timer last expired, in nanoseconds */
+    private long lastExpired;
     
     protected boolean verbose = false;
     protected final String name;
@@ -116,6 +128,92 @@ public abstract class Controller extends Networkable implements TimeSensitive {
         stateValues.put(key, value);
     }
    
+    /**
+     * Subclasses can call this method in a run of timerExpired() that leaves
+     * the controller in a stable state, i.e. if the controller ran again with
+     * the same inputs, it would not change its outputs, its internal state or
+     * the values reported with setState().  A state whose actions count
+     * periods, for example, is not stable.
+     *
+     * If the controllers are run with the SKIP {@link ControllerExecution}
+     * mode, a stable controller is not run again until one of the messages it
+     * registered for is delivered with a new value.  Its timer is restarted
+     * with the same period, and its outputs are still sent.  In the default
+     * mode, this method does nothing.
+     *
+     * The declaration only holds for the run that made it, so it must be
+     * repeated in every run that ends in a stable state.
+     */
+    protected final void setStable() {
+        setStable(null);
+    }
+
+    /**
+     * Works like {@link #setStable()}, but the controller is run again once
+     * the guard time has passed, even if its inputs do not change.
+     *
+     * @param guard the longest time the controller may go without running, or
+     * null for no limit
+     */
+    protected final void setStable(SimTime guard) {
+        if (execution == null) {
+            return;
+        }
+        stable = true;
+        stableVersion = runVersion;
+        stableUntil = guard == null ? Long.MAX_VALUE : context.getTimeNanoseconds() + guard.getTruncNanoseconds();
+    }
+
+    /**
+     * Run timerExpired() when the timer expires, unless the controller is
+     * stable and can be skipped.
+     */
+    private void run(Object callbackData) {
+        long now = context.getTimeNanoseconds();
+        long interval = now - lastExpired;
+        lastExpired = now;
+        long version = canInterface.getInputVersion() + physicalInterface.getInputVersion();
+        boolean unchanged = stable && version == stableVersion && now < stableUntil;
+        if (unchanged && execution.getMode() == ControllerExecution.Mode.SKIP) {
+            //the last run restarted the timer with the same interval
+            execution.skipped();
+            timer.start(interval, callbackData);
+            return;
+        }
+        stable = false;
+        runVersion = version;
+        execution.ran();
+        if (unchanged && execution.getMode() == ControllerExecution.Mode.VERIFY) {
+            String before = getOutputValues();
+            timerExpired(callbackData);
+            execution.verified(this, before, getOutputValues());
+        } else {
+            timerExpired(callbackData);
+        }
+    }
+
+    /**
+     * @return the values of the outputs and the reported state, for VERIFY mode
+     */
+    private String getOutputValues() {
+        return canInterface.getOutputValues() + physicalInterface.getOutputValues() + stateValues;
+    }
+
+    /**
+     * The timer handler if the controller is not simply run every period.
+     */
+    private class Runner implements TimeSensitive {
+
+        public void timerExpired(Object callbackData) {
+            run(callbackData);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
     /**
      * Call this method to log information to the command line.  It will automatically
      * print the current simulation time and the name of the controller.
@@ -141,6 +239,6 @@ public abstract class Controller extends Networkable implements TimeSensitive {
         if (!verbose) {
             return;
         }
-        Harness.log(name, msg);
+        context.log(name, msg);
     }
 }
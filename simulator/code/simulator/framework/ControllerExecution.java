@@ -0,0 +1,111 @@
+package simulator.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How {@link Controller}s are run when their timers expire.
+ *
+ * In the default ALWAYS mode, every controller runs its state machine every
+ * period.  In SKIP mode, a controller that declared itself stable with
+ * {@link Controller#setStable()} is not run again until one of the messages
+ * it registered for is delivered with a new value, or the guard time it gave
+ * has passed.  Its timer keeps its period, and its outputs keep their
+ * values, so the networks keep sending them on schedule.  VERIFY mode runs
+ * every period as in ALWAYS mode, and checks that each run that SKIP mode
+ * would have skipped leaves the outputs and the reported state unchanged.
+ *
+ * SKIP and VERIFY need the networks to track message versions (see
+ * {@link simulator.payloads.NetworkScheduler#setTrackVersions(boolean)}).
+ */
+public class ControllerExecution {
+
+    /**
+     * When the controllers are run.
+     */
+    public enum Mode {
+
+        /** every period */
+        ALWAYS,
+        /** unless the controller is stable and its inputs did not change */
+        SKIP,
+        /** every period, checking the runs SKIP would have skipped */
+        VERIFY
+    }
+    /** number of mismatches that are listed in the summary */
+    private final static int MAX_LISTED_MISMATCHES = 10;
+    private final Mode mode;
+    //statistics
+    private long runs = 0;
+    private long skipped = 0;
+    private long verified = 0;
+    private long mismatches = 0;
+    private final List<String> listedMismatches = new ArrayList<String>();
+
+    public ControllerExecution(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Called when a controller runs its state machine.
+     */
+    void ran() {
+        runs++;
+    }
+
+    /**
+     * Called when a controller is skipped in SKIP mode.
+     */
+    void skipped() {
+        skipped++;
+    }
+
+    /**
+     * Called in VERIFY mode after a run that SKIP mode would have skipped.
+     *
+     * @param before the outputs and state of the controller before the run
+     * @param after the outputs and state after the run
+     */
+    void verified(Controller controller, String before, String after) {
+        verified++;
+        if (!before.equals(after)) {
+            mismatches++;
+            if (listedMismatches.size() < MAX_LISTED_MISMATCHES) {
+                listedMismatches.add(String.format("%s %s: before [%s], after [%s]", Harness.getTime(),
+                        controller.getName(), before.trim().replace('\n', ';'), after.trim().replace('\n', ';')));
+            }
+        }
+    }
+
+    /**
+     * @return the number of runs in VERIFY mode that changed the outputs or
+     * state of a stable controller whose inputs had not changed
+     */
+    public long getMismatchCount() {
+        return mismatches;
+    }
+
+    /**
+     * @return a summary of the controller runs, and in VERIFY mode of the
+     * check
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Controller execution mode %s: %d runs", mode, runs));
+        if (mode == Mode.SKIP) {
+            long total = runs + skipped;
+            sb.append(String.format(", %d skipped (%.1f %%)", skipped, total > 0 ? 100.0 * skipped / total : 0.0));
+        } else if (mode == Mode.VERIFY) {
+            sb.append(String.format("%n%d runs would have been skipped, %d mismatches", verified, mismatches));
+            for (String m : listedMismatches) {
+                sb.append("\n  ");
+                sb.append(m);
+            }
+        }
+        return sb.toString();
+    }
+}
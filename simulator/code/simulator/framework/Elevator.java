@@ -1,18 +1,32 @@
 package simulator.framework;
 
 import jSimPack.BreakpointPrinter;
+import jSimPack.CalendarEventQueue;
+import jSimPack.FutureEvent;
+import jSimPack.FutureEventList;
+import jSimPack.QuiescenceDetector;
 import jSimPack.SimTime;
+import jSimPack.TreeEventQueue;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.List;
 import simulator.elevatormodules.*;
 import simulator.elevatormodules.passengers.PassengerControl;
 import simulator.elevatormodules.passengers.PassengerHandler;
+import simulator.payloads.CANNetwork;
+import simulator.payloads.CanGateway;
+import simulator.payloads.CanScheduleAnalysis;
+import simulator.payloads.MessageUtilization;
+import simulator.payloads.NetworkScheduler;
+import simulator.payloads.NetworkScheduler.DeadlinePolicy;
+import simulator.payloads.NetworkScheduler.DeliveryMode;
 
 /**
  * Provides command-line interface to and instantiates all objects for the
@@ -35,8 +49,6 @@ public class Elevator {
     /**
      * Maximum car capacity in tenths of pounds.
      */
-    private static String headerText = "";
-    private static SimTime canNetworkBitWidth = SimTime.ZERO;
     private static boolean[][] landings = {
         //front, back
         {true, true}, //first floor
@@ -50,15 +62,17 @@ public class Elevator {
     };
     public static final int numFloors = landings.length;
     private static final SimTime PROGRESS_INTERVAL = new SimTime(1, SimTime.SimTimeUnit.MINUTE);
-    private static double fastElevatorSpeed = 1.0; //m/s
-    private static boolean ignoreLeveling = false; 
+    /** idle skipping is not attempted if the hyperperiod is longer than this */
+    private static final SimTime MAX_IDLE_WINDOW = new SimTime(10, SimTime.SimTimeUnit.SECOND);
+    /** number of quiescent hyperperiods in a row before time is skipped */
+    private static final int IDLE_QUIET_WINDOWS = 2;
 
     /**
      * 
      * @return the "FAST" elevator speed, as set by the -fs commandline option
      */
     public static double getFastElevatorSpeed() {
-        return fastElevatorSpeed;
+        return SimulationContext.current().getFastElevatorSpeed();
     }
     
     /**
@@ -66,7 +80,7 @@ public class Elevator {
      * @return True if the passengers should ignore the board/entering leveling requirement, false otherwise
      */
     public static boolean getIgnoreLeveling() {
-    	return ignoreLeveling;
+        return SimulationContext.current().getIgnoreLeveling();
     }
 
     /**
@@ -87,6 +101,22 @@ public class Elevator {
      * @param Args
      */
     public static void main(String[] Args) {
+        int status = run(Args, System.out);
+        // this will close the GUI if it's open
+        System.exit(status);
+    }
+
+    /**
+     * Parse commandline arguments, then instantiate and run one simulation in
+     * the simulation context that is current for the calling thread.  Stats
+     * files are written to the working directory as described in the usage.
+     *
+     * @param Args commandline arguments, as passed to main()
+     * @param out stream that receives the console output of the simulation
+     * @return the exit status for the simulation.  Nonzero values indicate
+     * errors in the arguments or a safety violation.
+     */
+    public static int run(String[] Args, PrintStream out) {
 
         long startTime = System.currentTimeMillis();
 
@@ -96,6 +126,18 @@ public class Elevator {
         String controllerFile = null;
         String realtimeRate = null;
         String breakpointString = null;
+        String headerText = "";
+        SimTime canNetworkBitWidth = SimTime.ZERO;
+        DeliveryMode physicalDelivery = DeliveryMode.QUEUED;
+        DeadlinePolicy deadlinePolicy = DeadlinePolicy.ABORT;
+        SimTime canHeartbeat = null;
+        CarStateThresholds.Mode sensorMode = CarStateThresholds.Mode.SAMPLED;
+        boolean skipIdle = false;
+        ControllerExecution.Mode controllerMode = ControllerExecution.Mode.ALWAYS;
+        String canTopologyFile = null;
+        String messageStatsFile = null;
+        boolean canReport = false;
+        boolean canReportOnly = false;
         ArrayList<String> monitorNames = new ArrayList<String>();
 
         /* set the defaults */
@@ -117,7 +159,7 @@ public class Elevator {
 
         if (Args.length == 0) {
             printFullUsage();
-            return;
+            return 1;
         }
 
         // parse Args
@@ -137,7 +179,7 @@ public class Elevator {
                     paramNum++;
                     //short circuit the rest of the simulator and just print the defines
                     ControllerBuilder.printDefines();
-                    System.exit(0);
+                    return 0;
                 } else if (Args[paramNum].equals("-ff")) {
                     paramNum++;
                     faultFile = Args[paramNum];
@@ -153,6 +195,34 @@ public class Elevator {
                     Double bitsPerSecond = Double.parseDouble(Args[paramNum]) * 1000;
                     //compute bit timing
                     canNetworkBitWidth = new SimTime(1 / bitsPerSecond, SimTime.SimTimeUnit.SECOND);
+                } else if (Args[paramNum].equals("-deadline")) {
+                    paramNum++;
+                    try {
+                        deadlinePolicy = DeadlinePolicy.valueOf(Args[paramNum].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("-deadline value must be ABORT or RECORD.");
+                        printSmallUsage();
+                        return 1;
+                    }
+                } else if (Args[paramNum].equals("-heartbeat")) {
+                    paramNum++;
+                    canHeartbeat = new SimTime(Args[paramNum]);
+                    if (!canHeartbeat.isPositive()) {
+                        System.err.println("-heartbeat value must be a positive time, e.g. 1s.");
+                        printSmallUsage();
+                        return 1;
+                    }
+                } else if (Args[paramNum].equals("-cantopology")) {
+                    paramNum++;
+                    canTopologyFile = Args[paramNum];
+                } else if (Args[paramNum].equals("-idstats")) {
+                    paramNum++;
+                    messageStatsFile = Args[paramNum];
+                } else if (Args[paramNum].equals("-canreport")) {
+                    canReport = true;
+                } else if (Args[paramNum].equals("-canreportonly")) {
+                    canReport = true;
+                    canReportOnly = true;
                 } else if (Args[paramNum].equals("-uv")) {
                     paramNum++;
                     utilizationVerbose = true;
@@ -162,14 +232,46 @@ public class Elevator {
                 } else if (Args[paramNum].equals("-seed")) {
                     paramNum++;
                     Harness.setRandomSeed(Long.parseLong(Args[paramNum]));
+                } else if (Args[paramNum].equals("-eq")) {
+                    paramNum++;
+                    if (Args[paramNum].equalsIgnoreCase("tree")) {
+                        Harness.getContext().getEventList().setEventQueue(new TreeEventQueue<FutureEvent>());
+                    } else if (Args[paramNum].equalsIgnoreCase("calendar")) {
+                        Harness.getContext().getEventList().setEventQueue(new CalendarEventQueue<FutureEvent>());
+                    } else {
+                        System.err.println("-eq value must be TREE or CALENDAR.");
+                        printSmallUsage();
+                        return 1;
+                    }
+                } else if (Args[paramNum].equals("-perm")) {
+                    paramNum++;
+                    if (Args[paramNum].equalsIgnoreCase("default")) {
+                        Harness.getContext().getEventList().setSplitPermutation(false);
+                    } else if (Args[paramNum].equalsIgnoreCase("split")) {
+                        Harness.getContext().getEventList().setSplitPermutation(true);
+                    } else {
+                        System.err.println("-perm value must be DEFAULT or SPLIT.");
+                        printSmallUsage();
+                        return 1;
+                    }
+                } else if (Args[paramNum].equals("-physdelivery")) {
+                    paramNum++;
+                    try {
+                        physicalDelivery = DeliveryMode.valueOf(Args[paramNum].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("-physdelivery value must be QUEUED, IMMEDIATE or CHECK.");
+                        printSmallUsage();
+                        return 1;
+                    }
                 } else if (Args[paramNum].equals("-fs")) {
                     paramNum++;
-                    fastElevatorSpeed = Double.parseDouble(Args[paramNum]);
+                    double fastElevatorSpeed = Double.parseDouble(Args[paramNum]);
                     if (fastElevatorSpeed < 1.0 || fastElevatorSpeed > 10.0) {
                         System.err.println("-fs value must be in the range [1.0, 10.0].");
                         printSmallUsage();
-                        return;
+                        return 1;
                     }
+                    Harness.getContext().setFastElevatorSpeed(fastElevatorSpeed);
                 } else if (Args[paramNum].equals("-head")) {
                     paramNum++;
                     File headerfile = new File(Args[paramNum]);
@@ -210,7 +312,29 @@ public class Elevator {
                 } else if (Args[paramNum].equals("-miv")) {
                     messageInjectorVerbose = true;
                 } else if (Args[paramNum].equals("-il")) {
-					ignoreLeveling = true;
+                    Harness.getContext().setIgnoreLeveling(true);
+                } else if (Args[paramNum].equals("-analyticdrive")) {
+                    Harness.getContext().setAnalyticDrive(true);
+                } else if (Args[paramNum].equals("-sensors")) {
+                    paramNum++;
+                    try {
+                        sensorMode = CarStateThresholds.Mode.valueOf(Args[paramNum].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("-sensors value must be SAMPLED, THRESHOLD, GRID or VALIDATE.");
+                        printSmallUsage();
+                        return 1;
+                    }
+                } else if (Args[paramNum].equals("-skipidle")) {
+                    skipIdle = true;
+                } else if (Args[paramNum].equals("-ctrlexec")) {
+                    paramNum++;
+                    try {
+                        controllerMode = ControllerExecution.Mode.valueOf(Args[paramNum].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("-ctrlexec value must be ALWAYS, SKIP or VERIFY.");
+                        printSmallUsage();
+                        return 1;
+                    }
                 } else if (Args[paramNum].equals("-fiv")) {
                     faultInjectorVerbose = true;
                 } else if (Args[paramNum].equals("-dropv")) {
@@ -219,18 +343,18 @@ public class Elevator {
                     System.err.println("Unrecognized argument: "
                             + Args[paramNum]);
                     printSmallUsage();
-                    return;
+                    return 1;
                 }
             } catch (NumberFormatException nfe) {
                 System.err.println("Error while parsing argument: " + Args[paramNum]);
                 System.err.println(nfe.getMessage());
                 printSmallUsage();
-                return;
+                return 1;
             } catch (IOException ex) {
                 System.err.println("Error while parsing argument: " + Args[paramNum]);
                 System.err.println(ex.getMessage());
                 printSmallUsage();
-                return;
+                return 1;
             }
         }
 
@@ -249,19 +373,19 @@ public class Elevator {
                 if (Double.compare(rate, 0.0) == 0 && !showDisplay) {
                     System.err.println("Rate of 0 is valid only if the GUI is enabled.");
                     printSmallUsage();
-                    return;
+                    return 1;
                 }
                 if (Double.compare(rate, 0.0) < 0) {
                     System.err.println("Rate must be non-negative: " + realtimeRate);
                     printSmallUsage();
-                    return;
+                    return 1;
                 }
                 Harness.setRealtimeRate(rate);
             } catch (NumberFormatException nfe) {
                 System.err.println("Error while parsing rate argument: " + realtimeRate);
                 System.err.println(nfe.getMessage());
                 printSmallUsage();
-                return;
+                return 1;
             }
         }
 
@@ -278,11 +402,11 @@ public class Elevator {
                 } catch (NumberFormatException nfe) {
                     System.err.println("Error while parsing breakpoints: " + nfe.getMessage());
                     printSmallUsage();
-                    return;
+                    return 1;
                 }
             } else {
                 System.err.println("Breakpoints can be used only if the GUI is enabled.");
-                return;
+                return 1;
             }
         }
 
@@ -291,6 +415,33 @@ public class Elevator {
         new ProgressLogger("Elevator", PROGRESS_INTERVAL);
 
         Harness.initialize(canNetworkBitWidth, networkVerbose, frameworkNetworkVerbose, utilizationVerbose, dropVerbose);
+        Harness.getPhysicalNetwork().setDeliveryMode(physicalDelivery);
+        CanTopology canTopology = null;
+        if (canTopologyFile != null) {
+            canTopology = new CanTopology(canTopologyFile, networkVerbose);
+        }
+        for (CANNetwork segment : getCanNetworks()) {
+            segment.setDeadlinePolicy(deadlinePolicy);
+            segment.setHeartbeat(canHeartbeat);
+        }
+        if (controllerMode != ControllerExecution.Mode.ALWAYS) {
+            //the controllers compare the versions of their inputs
+            Harness.getContext().setControllerExecution(new ControllerExecution(controllerMode));
+            Harness.getPhysicalNetwork().setTrackVersions(true);
+            for (CANNetwork segment : getCanNetworks()) {
+                segment.setTrackVersions(true);
+            }
+        }
+        if (messageStatsFile != null) {
+            if (!canNetworkBitWidth.isPositive()) {
+                System.err.println("-idstats requires the CAN bitrate to be set with -b.");
+                printSmallUsage();
+                return 1;
+            }
+            for (CANNetwork segment : getCanNetworks()) {
+                segment.enableMessageUtilization(MessageUtilization.DEFAULT_CAPACITY);
+            }
+        }
 
         // The only valid invocations are (message file and controller file),
         // or (people file, possibly with a fault file).  Any other
@@ -299,8 +450,8 @@ public class Elevator {
         Timer.setVerbosity(TIMER_VERBOSITY);
 
         if (headerText.length() > 0) {
-            System.out.println(headerText);
-            System.out.println();
+            out.println(headerText);
+            out.println();
         }
 
         //make a stringwriter to take all the parameter info
@@ -323,6 +474,30 @@ public class Elevator {
         paramWriter.println("Effective Can Bitrate = " + (1 / canNetworkBitWidth.getFracSeconds()));
         paramWriter.println("Run Time = " + simRunTime);
         paramWriter.println("Real time rate = " + realtimeRate);
+        if (physicalDelivery != DeliveryMode.QUEUED) {
+            paramWriter.println("Physical delivery = " + physicalDelivery);
+        }
+        if (deadlinePolicy != DeadlinePolicy.ABORT) {
+            paramWriter.println("CAN deadline policy = " + deadlinePolicy);
+        }
+        if (canHeartbeat != null) {
+            paramWriter.println("CAN heartbeat = " + canHeartbeat);
+        }
+        if (canTopologyFile != null) {
+            paramWriter.println("CAN topology = " + canTopologyFile);
+        }
+        if (Harness.getContext().getAnalyticDrive()) {
+            paramWriter.println("Drive model = analytic");
+        }
+        if (sensorMode != CarStateThresholds.Mode.SAMPLED) {
+            paramWriter.println("Sensor mode = " + sensorMode);
+        }
+        if (skipIdle) {
+            paramWriter.println("Idle skipping = on");
+        }
+        if (controllerMode != ControllerExecution.Mode.ALWAYS) {
+            paramWriter.println("Controller execution = " + controllerMode);
+        }
         if (breakpointString != null) {
             paramWriter.println("Breakpoints = " + breakpointString);
         }
@@ -333,7 +508,7 @@ public class Elevator {
             if (!monitorNames.isEmpty()) {
                 System.err.println("You can only use monitors on acceptance tests");
                 printSmallUsage();
-                System.exit(1);
+                return 1;
             }
 
             if (simRunTime == null) {
@@ -346,7 +521,7 @@ public class Elevator {
             paramWriter.println("Controller File = " + controllerFile);
             paramWriter.println();
             //print the parameter to screen
-            System.out.println(parameterStringWriter.toString());
+            out.println(parameterStringWriter.toString());
 
             // unit test or integration test
             ControllerBuilder cb = new ControllerBuilder();
@@ -355,32 +530,49 @@ public class Elevator {
             MessageInjector theMI = new MessageInjector(messageFile,
                     theControllers,
                     messageInjectorVerbose);
+            if (canTopology != null) {
+                canTopology.createGateways();
+            }
 
 
             if (showDisplay) {
                 System.err.println("The GUI can be used only for acceptance tests.");
                 printSmallUsage();
-                System.exit(-1);
+                return -1;
+            }
+            if (skipIdle) {
+                System.err.println("-skipidle can be used only for acceptance tests.");
+                printSmallUsage();
+                return -1;
+            }
+
+            if (canReport) {
+                int status = printCanSchedule(out);
+                if (canReportOnly) {
+                    return status;
+                }
             }
 
             Harness.log("Elevator", "Starting Simulation ***");
             //Harness.log("Elevatar","RandomSeed = " + Harness.getRandomSeed());
             Harness.runSim(SimTime.add(theMI.lastInjectionTime(), simRunTime));
             Harness.log("Elevator", "Simulation Finished ***");
+            if (frameworkVerbose) {
+                logEventStatistics();
+            }
 
-            System.out.println(theMI.getAssertionSummary());
+            printDeliveryCheck(out);
+            printMessageUtilization(out, messageStatsFile);
+            printControllerExecution(out);
+            out.println(theMI.getAssertionSummary());
 
             //write stats to a file
-            int counter = 0;
-            File statsFile;
-            do {
+            File statsFile = null;
+            try {
                 //create a file object and get the file name from it 
                 //so that the filename is not broken by relative paths
                 //in the peopleFile string object.
-                statsFile = new File(String.format("injection-%s-%d.stats", new File(messageFile).getName(), counter));
-                counter++;
-            } while (statsFile.exists());
-            try {
+                statsFile = createStatsFile("injection", new File(messageFile).getName());
                 FileWriter fw = new FileWriter(statsFile);
                 fw.write(headerText + "\n");
                 fw.write(parameterStringWriter.toString());
@@ -388,7 +580,7 @@ public class Elevator {
                 fw.flush();
                 fw.close();
             } catch (IOException ex) {
-                System.out.println("Could not write injection stats to file \"" + statsFile + "\":  " + ex.getMessage());
+                out.println("Could not write injection stats to file \"" + statsFile + "\":  " + ex.getMessage());
             }
 
 
@@ -409,7 +601,7 @@ public class Elevator {
             if (faultFile != null) {
                 paramWriter.println("Fault Injection File = " + faultFile);
             }
-            if (ignoreLeveling == true) {
+            if (getIgnoreLeveling()) {
             	paramWriter.println("Passengers ignoring leveling requirement");
             }
 
@@ -428,7 +620,7 @@ public class Elevator {
             }
             paramWriter.println();
             //print the parameter to screen
-            System.out.println(parameterStringWriter.toString());
+            out.println(parameterStringWriter.toString());
 
             // MessageDictionary.makeFromFile(controllerFile, controllerVerbose);
             ControllerBuilder cb = new ControllerBuilder();
@@ -436,7 +628,11 @@ public class Elevator {
 
             //create modules, keep a reference to the passenger control
             //to pass to passenger objects
-            PassengerControl pc = Modules.makeAll(frameworkVerbose);
+            CarStateThresholds sensorThresholds = new CarStateThresholds(sensorMode);
+            PassengerControl pc = Modules.makeAll(frameworkVerbose, sensorThresholds);
+            if (canTopology != null) {
+                canTopology.createGateways();
+            }
 
             //create a parser to read the passenger file
             PassengerParser pi =
@@ -456,7 +652,7 @@ public class Elevator {
                 } catch (Exception e) {
                     System.err.println(e);
                     e.printStackTrace();
-                    System.exit(-1);
+                    return -1;
                 }
             }
 
@@ -466,57 +662,92 @@ public class Elevator {
                 faultInj = new FaultInjector(faultFile, faultInjectorVerbose);
             }
 
+            QuiescenceDetector idleDetector = null;
+            if (skipIdle) {
+                idleDetector = makeIdleDetector(ph, out);
+            }
+
+            if (canReport) {
+                int status = printCanSchedule(out);
+                if (canReportOnly) {
+                    return status;
+                }
+            }
+
             try {
                 Harness.log("Elevator", "Starting Simulation");
                 Harness.runSim(SimTime.add(simRunTime, pi.getLastInjectionTime()));
                 Harness.log("Elevator", "Simulation Finished");
-                System.out.println();
+                if (frameworkVerbose) {
+                    logEventStatistics();
+                }
+                out.println();
+
+                printDeliveryCheck(out);
 
                 //network utilization
                 if (Harness.getCANNetwork().getUtilization().isEnabled()) {
-                    System.out.println("Network Utilization Summary:");
-                    System.out.println(Harness.getCANNetwork().getUtilization());
-                    System.out.println();
+                    out.println("Network Utilization Summary:");
+                    out.println(getCanUtilizationSummary());
+                    out.println();
                 }
+                printMessageUtilization(out, messageStatsFile);
+                if (deadlinePolicy == DeadlinePolicy.RECORD) {
+                    out.println("CAN Deadline Summary:");
+                    out.println(getCanDeadlineSummary());
+                    out.println();
+                }
+                if (!Harness.getContext().getCanGateways().isEmpty()) {
+                    out.println("CAN Gateway Summary:");
+                    out.println(getCanGatewaySummary());
+                    out.println();
+                }
+                if (sensorMode != CarStateThresholds.Mode.SAMPLED) {
+                    out.println("Sensor Summary:");
+                    out.println(sensorThresholds.getSummary());
+                    out.println();
+                }
+                if (idleDetector != null) {
+                    out.println("Idle Skip Summary:");
+                    out.println(idleDetector.getSummary());
+                    out.println();
+                }
+                printControllerExecution(out);
 
                 if (faultInj != null) {
-                    System.out.println(faultInj.getStats());
-                    System.out.println();
+                    out.println(faultInj.getStats());
+                    out.println();
                 }
 
                 if (!monitors.isEmpty()) {
-                    System.out.println("Monitors Warning Results: ");
+                    out.println("Monitors Warning Results: ");
                     for (RuntimeMonitor mon : monitors) {
-                        System.out.println(mon.getWarningStats());
+                        out.println(mon.getWarningStats());
                     }
-                    System.out.println();
+                    out.println();
 
-                    System.out.println("Monitors Summmary Results: ");
+                    out.println("Monitors Summmary Results: ");
                     for (RuntimeMonitor mon : monitors) {
                         String[] strarr = mon.summarize();
                         for (String s : strarr) {
-                            System.out.println(s);
+                            out.println(s);
                         }
                     }
-                    System.out.println();
+                    out.println();
                 }
 
                 //write passenger stats to screen
-                System.out.println(ph.getSummaryStats());
-                System.out.println();
+                out.println(ph.getSummaryStats());
+                out.println();
 
                 //write stats to a file
-                int counter = 0;
-                File statsFile;
-                do {
+                File statsFile = null;
+                try {
                     //create a file object and get the file name from it 
                     //so that the filename is not broken by relative paths
                     //in the peopleFile string object.
                     File peopleFileObj = new File(peopleFile);
-                    statsFile = new File(String.format("elevator-%s-%d.stats", peopleFileObj.getName(), counter));
-                    counter++;
-                } while (statsFile.exists());
-                try {
+                    statsFile = createStatsFile("elevator", peopleFileObj.getName());
                     FileWriter fw = new FileWriter(statsFile);
                     fw.write(headerText + "\n");
                     fw.write(parameterStringWriter.toString());
@@ -529,7 +760,33 @@ public class Elevator {
                     }
                     if (Harness.getCANNetwork().getUtilization().isEnabled()) {
                         fw.write("Network Utilization Summary:\n");
-                        fw.write(Harness.getCANNetwork().getUtilization() + "\n");
+                        fw.write(getCanUtilizationSummary() + "\n");
+                        fw.write("\n");
+                    }
+                    if (deadlinePolicy == DeadlinePolicy.RECORD) {
+                        fw.write("CAN Deadline Summary:\n");
+                        fw.write(getCanDeadlineSummary() + "\n");
+                        fw.write("\n");
+                    }
+                    if (!Harness.getContext().getCanGateways().isEmpty()) {
+                        fw.write("CAN Gateway Summary:\n");
+                        fw.write(getCanGatewaySummary() + "\n");
+                        fw.write("\n");
+                    }
+                    if (sensorMode != CarStateThresholds.Mode.SAMPLED) {
+                        fw.write("Sensor Summary:\n");
+                        fw.write(sensorThresholds.getSummary() + "\n");
+                        fw.write("\n");
+                    }
+                    if (idleDetector != null) {
+                        fw.write("Idle Skip Summary:\n");
+                        fw.write(idleDetector.getSummary() + "\n");
+                        fw.write("\n");
+                    }
+                    ControllerExecution execution = Harness.getContext().getControllerExecution();
+                    if (execution != null) {
+                        fw.write("Controller Execution Summary:\n");
+                        fw.write(execution.getSummary() + "\n");
                         fw.write("\n");
                     }
                     if (!monitors.isEmpty()) {
@@ -551,25 +808,52 @@ public class Elevator {
                     fw.flush();
                     fw.close();
                 } catch (IOException ex) {
-                    System.out.println("Could not write passenger stats to file \"" + statsFile + "\":  " + ex.getMessage());
+                    out.println("Could not write passenger stats to file \"" + statsFile + "\":  " + ex.getMessage());
                 }
 
 
             } catch (SafetyViolationException ex) {
-                System.out.println(ex.getMessage());
-                ex.printStackTrace(System.out);
+                out.println(ex.getMessage());
+                ex.printStackTrace(out);
                 //exit with error
-                System.exit(-1);
+                return -1;
             }
             double runtime = (double)(System.currentTimeMillis() - startTime) / 1000;
             SimTime endTime = Harness.getTime();
-            System.out.println(String.format("%s simulation seconds\n %.3f real seconds\n effective rate %.2f",endTime.toString(), runtime, endTime.getFracSeconds() / runtime));
+            out.println(String.format("%s simulation seconds\n %.3f real seconds\n effective rate %.2f",endTime.toString(), runtime, endTime.getFracSeconds() / runtime));
+            FutureEventList eventList = Harness.getContext().getEventList();
+            if (!Double.isNaN(eventList.getAchievedRealtimeRate())) {
+                out.println(String.format(" requested rate %.2f, achieved %.2f since last rate change\n maximum lag %.3f real seconds, %d slips",
+                        eventList.getRealtimeRate(), eventList.getAchievedRealtimeRate(),
+                        eventList.getMaximumPacingLag(), eventList.getPacingSlips()));
+            }
 
         } else {
             printSmallUsage();
+            return 1;
         }
-        // this will close the GUI if it's open
-        System.exit(0);
+        return 0;
+    }
+
+    /**
+     * Create a new, empty stats file in the working directory.  Files include
+     * an incrementing index so that previous results are not overwritten.  The
+     * file is created atomically, so simulations running concurrently in the
+     * same directory never write to the same file.
+     *
+     * @param prefix "elevator" or "injection"
+     * @param testName name of the test file (without any path)
+     * @return the file that was created
+     * @throws IOException if the file could not be created
+     */
+    private static File createStatsFile(String prefix, String testName) throws IOException {
+        int counter = 0;
+        File statsFile;
+        do {
+            statsFile = new File(String.format("%s-%s-%d.stats", prefix, testName, counter));
+            counter++;
+        } while (!statsFile.createNewFile());
+        return statsFile;
     }
 
     /**
@@ -592,6 +876,205 @@ public class Elevator {
         Harness.log("Elevator", msg);
     }
 
+    /**
+     * Print the worst-case response time analysis of the periodic CAN messages
+     * that have been registered so far.
+     *
+     * @return 0 if every message meets its deadline, 1 if not or if the
+     * analysis could not be done
+     */
+    private static int printCanSchedule(PrintStream out) {
+        if (!Harness.getCANNetwork().getBitWidth().isPositive()) {
+            System.err.println("-canreport requires the CAN bitrate to be set with -b.");
+            return 1;
+        }
+        int status = 0;
+        for (CANNetwork segment : getCanNetworks()) {
+            CanScheduleAnalysis analysis = segment.analyzeSchedule();
+            if (segment != Harness.getCANNetwork()) {
+                out.print(segment + " ");
+            }
+            out.println(analysis);
+            out.println();
+            if (!analysis.isSchedulable()) {
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * @return the default CAN network followed by the segments added by
+     * -cantopology, if any
+     */
+    private static List<CANNetwork> getCanNetworks() {
+        List<CANNetwork> networks = new ArrayList<CANNetwork>();
+        networks.add(Harness.getCANNetwork());
+        networks.addAll(Harness.getContext().getCanSegments());
+        return networks;
+    }
+
+    /**
+     * Set up idle skipping for -skipidle.  The window is the hyperperiod of
+     * the periodic events and of the senders and samplers on all the
+     * networks.  The networks, the gateways and the passengers take part in
+     * the quiescence check.
+     *
+     * @return the detector, or null if the hyperperiod is too long for
+     * skipping to be useful
+     */
+    private static QuiescenceDetector makeIdleDetector(PassengerHandler ph, PrintStream out) {
+        SimulationContext context = Harness.getContext();
+        List<NetworkScheduler> networks = new ArrayList<NetworkScheduler>();
+        networks.add(context.getPhysicalNetwork());
+        networks.addAll(getCanNetworks());
+        long window = 1;
+        for (long period : context.getEventList().getPeriods()) {
+            window = QuiescenceDetector.lcm(window, period);
+        }
+        for (NetworkScheduler network : networks) {
+            for (long period : network.getPeriods()) {
+                window = QuiescenceDetector.lcm(window, period);
+            }
+        }
+        if (window > MAX_IDLE_WINDOW.getTruncNanoseconds()) {
+            out.println(String.format("Idle skipping disabled: the hyperperiod (%.3f s) is longer than %s",
+                    window / 1e9, MAX_IDLE_WINDOW));
+            out.println();
+            return null;
+        }
+        QuiescenceDetector detector = new QuiescenceDetector(context.getEventList(), window, IDLE_QUIET_WINDOWS);
+        for (NetworkScheduler network : networks) {
+            network.setTrackChanges(true);
+            detector.addParticipant(network);
+        }
+        for (CanGateway gateway : context.getCanGateways()) {
+            detector.addParticipant(gateway);
+        }
+        detector.addParticipant(ph);
+        return detector;
+    }
+
+    /**
+     * @return the utilization of the default CAN network, followed by one
+     * line for each segment
+     */
+    private static String getCanUtilizationSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Harness.getCANNetwork().getUtilization());
+        for (CANNetwork segment : Harness.getContext().getCanSegments()) {
+            sb.append("\n").append(segment).append(": ").append(segment.getUtilization());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the deadline misses of the default CAN network, followed by
+     * those of each segment
+     */
+    private static String getCanDeadlineSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Harness.getCANNetwork().getDeadlineMisses());
+        for (CANNetwork segment : Harness.getContext().getCanSegments()) {
+            sb.append("\n").append(segment).append(": ").append(segment.getDeadlineMisses());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the forwarding statistics of each gateway
+     */
+    private static String getCanGatewaySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (CanGateway gateway : Harness.getContext().getCanGateways()) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(gateway.getStats());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the per-message CAN statistics of each network to its CSV file
+     * and print their totals, if they were enabled with -idstats.
+     */
+    private static void printMessageUtilization(PrintStream out, String csvFile) {
+        for (CANNetwork segment : getCanNetworks()) {
+            MessageUtilization stats = segment.getMessageUtilization();
+            if (stats == null) {
+                continue;
+            }
+            String segmentFile = getMessageStatsFile(csvFile, segment);
+            try {
+                FileWriter fw = new FileWriter(segmentFile);
+                try {
+                    stats.writeCsv(fw);
+                } finally {
+                    fw.close();
+                }
+            } catch (IOException ex) {
+                out.println("Could not write message statistics to file \"" + segmentFile + "\":  " + ex.getMessage());
+            }
+            if (segment == Harness.getCANNetwork()) {
+                out.println("Per-Message CAN Summary:");
+            } else {
+                out.println("Per-Message CAN Summary for " + segment + ":");
+            }
+            out.println(stats);
+            out.println();
+        }
+    }
+
+    /**
+     * @return the -idstats file for the network:  the file given for the
+     * default network, and the segment name inserted before the extension
+     * for a segment, e.g. ids-plant.csv
+     */
+    private static String getMessageStatsFile(String csvFile, CANNetwork segment) {
+        if (segment == Harness.getCANNetwork()) {
+            return csvFile;
+        }
+        int dot = csvFile.lastIndexOf('.');
+        if (dot <= csvFile.lastIndexOf(File.separatorChar)) {
+            dot = csvFile.length();
+        }
+        return csvFile.substring(0, dot) + "-" + segment.getName() + csvFile.substring(dot);
+    }
+
+    /**
+     * Print the controller execution summary, if -ctrlexec is set.
+     */
+    private static void printControllerExecution(PrintStream out) {
+        ControllerExecution execution = Harness.getContext().getControllerExecution();
+        if (execution != null) {
+            out.println("Controller Execution Summary:");
+            out.println(execution.getSummary());
+            out.println();
+        }
+    }
+
+    /**
+     * Print the result of the physical network delivery check, if enabled.
+     */
+    private static void printDeliveryCheck(PrintStream out) {
+        String summary = Harness.getPhysicalNetwork().getDeliveryCheckSummary();
+        if (summary != null) {
+            out.println(summary);
+            out.println();
+        }
+    }
+
+    /**
+     * Print the event list counters for diagnostics.
+     */
+    private static void logEventStatistics() {
+        FutureEventList eventList = Harness.getContext().getEventList();
+        log("Event list: ", eventList.getLiveEventCount(), " live events, ",
+                eventList.getDeadEventCount(), " dead events, ",
+                eventList.getCancelledEventCount(), " events cancelled");
+    }
+
     /**
      * Complete command-line reference.  It is important that this be kept in sync 
      * with the commandline options parser and the message, configuration, fault,
@@ -881,10 +1364,130 @@ public class Elevator {
 + "    Set the bandwidth to N*1000 bits/sec.  N must be a positive integer. The\n"
 + "    default is 200 kbps.\n"
 + "\n"
++ "  -deadline POLICY\n"
++ "    Select what happens when a periodic CAN message misses its deadline.\n"
++ "    POLICY is ABORT (the default, the simulation ends with an error) or RECORD\n"
++ "    (the simulation continues, and the misses of each message ID are\n"
++ "    summarized with the network utilization at the end of an acceptance test,\n"
++ "    with counts, maximum lateness and a histogram of lateness as a fraction\n"
++ "    of the period).\n"
++ "\n"
++ "  -heartbeat TIME\n"
++ "    Send every periodic CAN message change-triggered:  a message is sent when\n"
++ "    its payload changes (no more often than its period), and otherwise once\n"
++ "    every TIME (e.g. 1s), or once every period if that is longer.  Each frame\n"
++ "    must be delivered within the period, which is checked as for -deadline.\n"
++ "    The network utilization summary then shows the share of time-triggered\n"
++ "    and change-triggered frames.\n"
++ "\n"
++ "  -cantopology FILE\n"
++ "    Split the CAN network into segments connected by store-and-forward\n"
++ "    gateways, as described in FILE.  Each line of FILE is one of\n"
++ "      SEGMENT name bitrate         ; add a segment, bitrate in kbps as for -b\n"
++ "      NODE segment Class [Class...] ; connect nodes of these classes to it\n"
++ "      GATEWAY from to delay *|id... ; forward messages after a processing delay\n"
++ "    The network set up with -b is called \"default\", and nodes that are not\n"
++ "    assigned stay on it, as do fault injection, message injection and the GUI.\n"
++ "    * forwards every message sent on the source segment and received on the\n"
++ "    destination segment.  The utilization, deadline and -canreport results\n"
++ "    are given for each segment, followed by the number of messages each\n"
++ "    gateway forwarded or merged and their latency from the source to the\n"
++ "    destination segment.  -idstats writes one CSV file per segment.\n"
++ "\n"
++ "  -idstats CSVFILE\n"
++ "    Keep statistics for each CAN message ID:  frames sent, bits on the wire\n"
++ "    (including stuff bits), share of the bus and queuing delay from when the\n"
++ "    message is sent until it wins arbitration.  The statistics are sampled\n"
++ "    every second (the most recent hour of samples is kept) and written to\n"
++ "    CSVFILE at the end of the run, with one row per ID per sample.  Totals\n"
++ "    for each ID are printed to the console.  With -cantopology, each segment\n"
++ "    is written to its own file, named by inserting -SEGMENT before the\n"
++ "    extension of CSVFILE.  -b is required.\n"
++ "\n"
++ "  -canreport\n"
++ "    Before the simulation starts, print the worst-case response time of every\n"
++ "    periodic CAN message at the bitrate given with -b, assuming the maximum\n"
++ "    number of stuff bits, along with the total bus utilization.  Messages\n"
++ "    whose response time exceeds their period are marked.  The simulation then\n"
++ "    runs as usual.  -b is required.\n"
++ "\n"
++ "  -canreportonly\n"
++ "    Same as -canreport, but exit after printing the report without running\n"
++ "    the simulation.  The exit status is nonzero if any message can miss its\n"
++ "    deadline.\n"
++ "\n"
++ "  -eq QUEUE\n"
++ "    Select the data structure that holds pending simulation events.  QUEUE is\n"
++ "    TREE (a sorted map, the default) or CALENDAR (a calendar queue, which is\n"
++ "    faster when many events are pending).  Both produce exactly the same\n"
++ "    simulation for a given random seed.\n"
++ "\n"
++ "  -perm STREAM\n"
++ "    Select the random stream used to permute simultaneous events.  STREAM is\n"
++ "    DEFAULT (the same generator as the rest of the simulation) or SPLIT (a\n"
++ "    faster generator dedicated to the permutation).  SPLIT runs are also\n"
++ "    repeatable with -seed, but give different results than DEFAULT runs with\n"
++ "    the same seed.\n"
++ "\n"
++ "  -physdelivery MODE\n"
++ "    Select how messages are delivered on the physical (framework) network,\n"
++ "    which has no transmission delay.  MODE is QUEUED (the default, each\n"
++ "    message is delivered by its own event), IMMEDIATE (messages are delivered\n"
++ "    as soon as they are sent, which is faster) or CHECK (deliver as for\n"
++ "    QUEUED, and report any message whose contents changed between being sent\n"
++ "    and being delivered, i.e. where IMMEDIATE would deliver a different value).\n"
++ "    IMMEDIATE runs are repeatable with -seed, but give different results than\n"
++ "    QUEUED runs with the same seed.\n"
++ "\n"
 + "  -fs FASTSPEED\n"
 + "    Specify the FASTSPEED of the elevator in m/s.  Default is 1.0 m/s.  This\n"
 + "    option accepts any value in the range [1.0, 10.0].\n"
 + "\n"
++ "  -analyticdrive\n"
++ "    Move the car with an analytic model of the drive.  The motion is computed\n"
++ "    in closed form between changes of the drive command, and the car\n"
++ "    position and drive speed are sent only when the car crosses a position\n"
++ "    where a sensor output changes (floor, leveling vane, hoistway limit or a\n"
++ "    10 cm step of CarLevelPosition), when the speed crosses the leveling or\n"
++ "    slow speed, and every drive period while the car is accelerating or\n"
++ "    decelerating.  While the car is stopped or moving at constant speed,\n"
++ "    nothing else is sent.  By default, the motion is integrated and sent\n"
++ "    every drive period.\n"
++ "\n"
++ "  -sensors MODE\n"
++ "    Select when the sensors that measure the car (AtFloor, Leveling,\n"
++ "    HoistwayLimit and CarLevelPosition) compute their outputs.  MODE is\n"
++ "    SAMPLED (the default, on every car position sent by the drive), THRESHOLD\n"
++ "    (only when the car reaches or crosses a position or speed at which the\n"
++ "    sensor output can change), GRID (as THRESHOLD, but at the next drive period\n"
++ "    after the crossing, which is when SAMPLED sensors would see it with the\n"
++ "    default drive model) or VALIDATE (as SAMPLED, and also evaluate the sensors\n"
++ "    as for THRESHOLD without using the result, and compare the outputs of up\n"
++ "    to date samples).  Except in SAMPLED mode, the number of evaluations (and\n"
++ "    of mismatches for VALIDATE) is summarized at the end of the run.\n"
++ "\n"
++ "  -skipidle\n"
++ "    Skip stretches of simulation time in which the elevator is idle.  Every\n"
++ "    hyperperiod (the least common multiple of all the message and module\n"
++ "    periods), the simulator checks whether any message on any network changed\n"
++ "    its value, whether any passenger is in the system, and whether the pending\n"
++ "    events are the same as one hyperperiod ago.  After two such quiet\n"
++ "    hyperperiods, the clock jumps forward by whole hyperperiods to just before\n"
++ "    the next event that is not part of the repeating pattern (usually the next\n"
++ "    passenger), and the network statistics are fast forwarded to match.  The\n"
++ "    skipped time is summarized at the end of the run.  Runs with idle\n"
++ "    skipping are repeatable with -seed, but give different results than\n"
++ "    runs without it.  Only for acceptance tests.\n"
++ "\n"
++ "  -ctrlexec MODE\n"
++ "    Select when the controllers run.  MODE is ALWAYS (the default, every\n"
++ "    period), SKIP (a controller that declared itself stable is not run again\n"
++ "    until one of the messages it registered for changes its value, or its\n"
++ "    guard time passes; its outputs are still sent every period) or VERIFY (as\n"
++ "    ALWAYS, and check that every run SKIP would have skipped leaves the\n"
++ "    outputs and controller state unchanged).  SKIP and VERIFY summarize the\n"
++ "    runs (and mismatches for VERIFY) at the end of the run.\n"
++ "\n"
 + "  -cv\n"
 + "    Get verbose output from the Controller factory.  If you want verbose output\n"
 + "    from a Control object, have the controller's constructor accept a verbosity\n"
@@ -898,7 +1501,8 @@ public class Elevator {
 + "\n"
 + "  -fv\n"
 + "    Get verbose output from the framework objects (such as the\n"
-+ "    AtFloor sensors).\n"
++ "    AtFloor sensors).  Also prints the event list counters at the end of\n"
++ "    the simulation.\n"
 + "\n"
 + "  -pv\n"
 + "    Get verbose output from the passengers.\n"
@@ -13,7 +13,9 @@ import java.io.*;
  * the various system objects.
  *
  * For legacy reasons, a lot of methods in this class are wrappers for
- * jSimPack.FutureEventList methods.
+ * jSimPack.FutureEventList methods.  All of the simulation state is owned by a
+ * {@link SimulationContext}; these methods operate on the context that is
+ * current for the calling thread (see {@link SimulationContext#current()}).
  *
  * @author Christopher Martin
  * @author Kenny Stauffer
@@ -21,33 +23,26 @@ import java.io.*;
 public class Harness { //implements FutureEventListener {
 
     private static final boolean verbose = false;
-    private static final RandomSource randomSource;
-    private static PhysicalNetwork thePhysicalNetwork;
-    private static CANNetwork theCANNetwork;
+
     /**
-     * The HarnessEventListener objects that have registered to receive events
-     * of a particular type.
+     * See SimulationContext.initialize()
      */
-    private static final FutureEventList eventList;
-    private static PrintStream logPrinter = System.out;
-    private static final Harness theHarness;
-
-    static {
-        theHarness = new Harness();
-        randomSource = new RandomSource();
-        eventList = new FutureEventList(randomSource);
-    }
-
     public static void initialize(SimTime canBitTime,
             boolean networkVerbose, boolean frameworkNetworkVerbose,
             boolean utilizationVerbose, boolean dropVerbose) {
-        thePhysicalNetwork = new PhysicalNetwork();
-        theCANNetwork = new CANNetwork(canBitTime);
-        theCANNetwork.getUtilization().setVerbose(utilizationVerbose);
-        theCANNetwork.setVerbose(networkVerbose);
-        theCANNetwork.setDropVerbose(dropVerbose);
-        thePhysicalNetwork.setVerbose(frameworkNetworkVerbose);
-        //thePhysicalNetwork.setDropVerbose(dropVerbose);
+        SimulationContext.current().initialize(canBitTime, networkVerbose,
+                frameworkNetworkVerbose, utilizationVerbose, dropVerbose);
+    }
+
+    /**
+     * @return the simulation context for the calling thread.
+     */
+    public static SimulationContext getContext() {
+        return SimulationContext.current();
+    }
+
+    private static FutureEventList eventList() {
+        return SimulationContext.current().getEventList();
     }
 
     //interface to add and remove network events
@@ -55,35 +50,56 @@ public class Harness { //implements FutureEventListener {
      * See jSimPack.FutureEventList.schedule()
      */
     public static FutureEvent schedule(FutureEventListener event, SimTime timeInterval, Object data) {
-        return eventList.schedule(event, timeInterval, data);
+        return eventList().schedule(event, timeInterval, data);
+    }
+
+    /**
+     * See jSimPack.FutureEventList.schedule()
+     */
+    public static FutureEvent schedule(FutureEventListener event, long timeInterval, Object data) {
+        return eventList().schedule(event, timeInterval, data);
     }
 
     /**
      * See jSimPack.FutureEventList.scheduleNonsimulationEvent()
      */
     public static FutureEvent scheduleNonsimulationEvent(FutureEventListener event, SimTime timeInterval, Object data) {
-        return eventList.scheduleNonsimulationEvent(event, timeInterval, data);
+        return eventList().scheduleNonsimulationEvent(event, timeInterval, data);
+    }
+
+    /**
+     * See jSimPack.FutureEventList.schedulePeriodic()
+     */
+    public static PeriodicEvent schedulePeriodic(FutureEventListener event, SimTime period, SimTime phase, Object data) {
+        return eventList().schedulePeriodic(event, period.getTruncNanoseconds(), phase.getTruncNanoseconds(), data);
+    }
+
+    /**
+     * See jSimPack.FutureEventList.cancelPeriodic()
+     */
+    public static void cancelPeriodic(PeriodicEvent event) {
+        eventList().cancelPeriodic(event);
     }
 
     /**
      * See jSimPack.FutureEventList.cancelNonsimulationEvent()
      */
     public static void cancelNonsimulationEvent(FutureEvent event) {
-        eventList.cancelNonsimulationEvent(event);
+        eventList().cancelNonsimulationEvent(event);
     }
 
     /**
      * See jSimPack.FutureEventList.cancelEvent()
      */
     public static void cancelEvent(FutureEvent event) {
-        eventList.cancelEvent(event);
+        eventList().cancelEvent(event);
     }
 
     /**
      * See jSimPack.FutureEventList.runSimulationUntil()
      */
     public static void runSim(SimTime howLong) {
-        eventList.runSimulationUntil(howLong);
+        eventList().runSimulationUntil(howLong);
     }
 
 
@@ -91,14 +107,14 @@ public class Harness { //implements FutureEventListener {
      * See jSimPack.FutureEventList.endSim()
      */
     public static void endSim() {
-        eventList.endSimulation();
+        eventList().endSimulation();
     }
 
     /**
      * See jSimPack.FutureEventList.endTime()
      */
     public static void endSimAt(SimTime endTime) {
-        eventList.setEndTime(endTime);
+        eventList().setEndTime(endTime);
     }
 
 
@@ -106,7 +122,7 @@ public class Harness { //implements FutureEventListener {
      * See jSimPack.FutureEventList.setRealtimeRate()
      */
     public static void setRealtimeRate(double rate) {
-        eventList.setRealtimeRate(rate);
+        eventList().setRealtimeRate(rate);
     }
 
 
@@ -114,35 +130,35 @@ public class Harness { //implements FutureEventListener {
      * See jSimPack.FutureEventList.getRealtimeRate()
      */
     public static double getRealtimeRate() {
-        return eventList.getRealtimeRate();
+        return eventList().getRealtimeRate();
     }
 
     /**
      * See jSimPack.FutureEventList.stepSimulation()
      */
     public static void stepSimulation() {
-        eventList.stepSimulation();
+        eventList().stepSimulation();
     }
 
     /**
      * See jSimPack.FutureEventList.isBlocked()
      */
     public static boolean simulationIsBlocked() {
-        return eventList.isBlocked();
+        return eventList().isBlocked();
     }
 
     /**
      * See jSimPack.FutureEventList.getWallClock();
      */
     public static SimTime getTime() {
-        return eventList.getWallClock();
+        return eventList().getWallClock();
     }
 
     /**
      * the randomSource being used by the simulator.
      */
     public static RandomSource getRandomSource() {
-        return randomSource;
+        return SimulationContext.current().getRandomSource();
     }
 
 
@@ -150,14 +166,14 @@ public class Harness { //implements FutureEventListener {
      * @param seed  the random seed to use for the simulation.
      */
     public static void setRandomSeed(long seed) {
-        randomSource.setSeed(seed);
+        SimulationContext.current().getRandomSource().setSeed(seed);
     }
 
     /**
      * @return The current random seed
      */
     public static long getRandomSeed() {
-        return randomSource.getSeed();
+        return SimulationContext.current().getRandomSource().getSeed();
     }
 
     /**
@@ -167,7 +183,7 @@ public class Harness { //implements FutureEventListener {
      */
     public static void setLogFilename(String filename)
             throws FileNotFoundException {
-        logPrinter = new PrintStream(filename);
+        SimulationContext.current().setLogFilename(filename);
     }
 
     /**
@@ -196,11 +212,7 @@ public class Harness { //implements FutureEventListener {
      * The log message to print.
      */
     public static void log(String source, Object... msg) {
-        logPrinter.format("[%s] @%4.9f: ", source, getTime().getFracSeconds());
-        for (Object o : msg) {
-            logPrinter.print(o);
-        }
-        logPrinter.println();
+        SimulationContext.current().log(source, msg);
     }
 
     //breakpoint methods
@@ -209,42 +221,35 @@ public class Harness { //implements FutureEventListener {
      * See jSimPack.FutureEventList.addBreakpoint()
      */
     public static boolean addBreakpoint(SimTime breakpointTime) {
-        return eventList.addBreakpoint(breakpointTime);
+        return eventList().addBreakpoint(breakpointTime);
     }
 
     /**
      * See jSimPack.FutureEventList.removeBreakpoint()
      */
     public static boolean removeBreakpoint(SimTime breakpointTime) {
-        return eventList.removeBreakpoint(breakpointTime);
+        return eventList().removeBreakpoint(breakpointTime);
     }
 
     /**
      * See jSimPack.FutureEventList.addBreakpointListener()
      */
     public static void addBreakpointListener(BreakpointListener l) {
-        eventList.addBreakpointListener(l);
+        eventList().addBreakpointListener(l);
     }
 
     /**
      * See jSimPack.FutureEventList.removeBreakpointListener()
      */
     public static boolean removeBreakpointListener(BreakpointListener l) {
-        return eventList.removeBreakpointListener(l);
-    }
-
-    /**
-     * See jSimPack.FutureEventList.interleaveLock()
-     */
-    static void interleaveLock() {
-        eventList.interleaveLock();
+        return eventList().removeBreakpointListener(l);
     }
 
     /**
-     * See jSimPack.FutureEventList.interleaveUnlock()
+     * See jSimPack.FutureEventList.invokeBetweenSteps()
      */
-    static void interleaveUnlock() {
-        eventList.interleaveUnlock();
+    public static void invokeBetweenSteps(Runnable command) {
+        eventList().invokeBetweenSteps(command);
     }
     
     
@@ -253,7 +258,7 @@ public class Harness { //implements FutureEventListener {
      * of simulated physical objects.
      */
     public static PhysicalNetwork getPhysicalNetwork() {
-        return thePhysicalNetwork;
+        return SimulationContext.current().getPhysicalNetwork();
     }
 
     /**
@@ -261,7 +266,7 @@ public class Harness { //implements FutureEventListener {
      * @return a reference to the CAN network used for controller communication
      */
     public static CANNetwork getCANNetwork() {
-        return theCANNetwork;
+        return SimulationContext.current().getCANNetwork();
     }
 
     private Harness() {
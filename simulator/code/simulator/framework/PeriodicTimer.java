@@ -0,0 +1,127 @@
+package simulator.framework;
+
+import jSimPack.FutureEventListener;
+import jSimPack.PeriodicEvent;
+import jSimPack.SimTime;
+
+/**
+ * Timer that expires once every period until it is cancelled.  This replaces
+ * the common pattern of calling {@link Timer#start(SimTime)} again at the end
+ * of <code>timerExpired</code>:
+ *
+ *     timer = new PeriodicTimer(this);
+ *     timer.start(period);
+ *     ...
+ *     public void timerExpired(Object callbackData) {
+ *         //do periodic work, no need to restart the timer
+ *     }
+ *
+ * The event list keeps a single queue entry for all the periodic timers that
+ * have the same period and expire at the same times, so modules that run at
+ * a fixed rate cost much less to schedule.  Each timer still expires as a
+ * separate event and is permuted along with other simultaneous events.
+ *
+ * A periodic timer created as a system timer uses the nonsimulation queue,
+ * with the same restrictions as {@link SystemTimer}.
+ */
+public class PeriodicTimer implements FutureEventListener {
+
+    private final TimeSensitive handler;
+    /** The simulation this timer schedules its events in */
+    protected final SimulationContext context;
+    private final boolean systemTimer;
+    private PeriodicEvent pendingEvent = null;
+
+    /**
+     * Constructs a periodic timer that belongs to the simulation context that
+     * is current for the calling thread.
+     */
+    public PeriodicTimer(TimeSensitive handler) {
+        this(SimulationContext.current(), handler);
+    }
+
+    public PeriodicTimer(SimulationContext context, TimeSensitive handler) {
+        this(context, handler, false);
+    }
+
+    /**
+     * @param systemTimer true to schedule the timer on the nonsimulation queue
+     */
+    public PeriodicTimer(SimulationContext context, TimeSensitive handler, boolean systemTimer) {
+        if (context == null) {
+            throw new NullPointerException("context");
+        }
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        this.context = context;
+        this.handler = handler;
+        this.systemTimer = systemTimer;
+    }
+
+    /**
+     * Start the timer.  It first expires one period from now, and passes
+     * <code>null</code> to <code>timerExpired</code>.
+     */
+    public void start(SimTime period) {
+        start(period, null);
+    }
+
+    /**
+     * Start the timer.  It first expires one period from now, and passes
+     * <code>callback</code> to <code>timerExpired</code> every time.
+     */
+    public void start(SimTime period, Object callback) {
+        start(period.getTruncNanoseconds(), period.getTruncNanoseconds(), callback);
+    }
+
+    /**
+     * Start the timer.  It first expires <code>phase</code> from now.
+     */
+    public void start(SimTime period, SimTime phase, Object callback) {
+        start(period.getTruncNanoseconds(), phase.getTruncNanoseconds(), callback);
+    }
+
+    /**
+     * Start the timer, with the period and phase given in nanoseconds.  If the
+     * timer is already running, it is restarted.
+     *
+     * @throws IllegalArgumentException if the period is not positive or the
+     * phase is negative
+     */
+    public void start(long period, long phase, Object callback) {
+        cancel();
+        if (systemTimer) {
+            pendingEvent = context.getEventList().schedulePeriodicNonsimulationEvent(this, period, phase, callback);
+        } else {
+            pendingEvent = context.getEventList().schedulePeriodic(this, period, phase, callback);
+        }
+    }
+
+    /**
+     * @return true if the timer has been started and not cancelled
+     */
+    public boolean isRunning() {
+        return pendingEvent != null;
+    }
+
+    /**
+     * Stop the timer.  If the timer is not running, this method does nothing.
+     */
+    public void cancel() {
+        if (pendingEvent == null) {
+            return;
+        }
+        context.getEventList().cancelPeriodic(pendingEvent);
+        pendingEvent = null;
+    }
+
+    @Override
+    public String toString() {
+        return "PeriodicTimer(handler=" + handler + ",pendingEvent=" + pendingEvent + ")";
+    }
+
+    public void eventReleased(Object data) {
+        handler.timerExpired(data);
+    }
+}
@@ -14,7 +14,7 @@ import jSimPack.SimTime;
  * @author Justin Ray
  */
 public class ProgressLogger implements TimeSensitive {
-    private SystemTimer t;
+    private PeriodicTimer t;
     private SimTime logInterval;
     private String name;
     //private long lastTime;
@@ -22,7 +22,7 @@ public class ProgressLogger implements TimeSensitive {
     public ProgressLogger(String name, SimTime logInterval) {
         this.name = name;
         this.logInterval = logInterval;
-        t = new SystemTimer(this);
+        t = new PeriodicTimer(SimulationContext.current(), this, true);
         t.start(logInterval);
         //lastTime = System.currentTimeMillis();
     }
@@ -33,6 +33,5 @@ public class ProgressLogger implements TimeSensitive {
         //Harness.log(name, String.format("Progress indicator - True realtime rate=%.2f",realtimeRate));
         //lastTime = now;
         Harness.log(name, "Progress indicator");
-        t.start(logInterval);
     }
 }
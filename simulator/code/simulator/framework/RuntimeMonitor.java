@@ -87,8 +87,9 @@ import simulator.payloads.HallLightPayload.ReadableHallLightPayload;
  */
 public abstract class RuntimeMonitor extends Networkable implements TimeSensitive {
 
-    final protected CanConnection canInterface = Harness.getCANNetwork().getCanConnection();
-    final private Connection physicalInterface = Harness.getPhysicalNetwork().getFrameworkConnection(this);
+    final protected SimulationContext context = SimulationContext.current();
+    final protected CanConnection canInterface = context.getCANNetwork(getClass()).getCanConnection();
+    final private Connection physicalInterface = context.getPhysicalNetwork().getFrameworkConnection(this);
     //data structures
     final protected ReadableDoorMotorPayload[][] doorMotors = new ReadableDoorMotorPayload[2][2];
     final protected ReadableDoorOpenPayload[][] doorOpeneds = new ReadableDoorOpenPayload[2][2];
@@ -108,7 +109,7 @@ public abstract class RuntimeMonitor extends Networkable implements TimeSensitiv
     final protected ReadableDrivePayload driveCommandedSpeed;
     final protected ReadableEmergencyBrakePayload emergencyBrake;
     final protected DesiredFloorCanPayloadTranslator mDesiredFloor;
-    final protected SystemTimer systemTimer = new SystemTimer(this);
+    final protected SystemTimer systemTimer = new SystemTimer(context, this);
     private int warningCount = 0;
     private String name;
 
@@ -246,7 +247,7 @@ public abstract class RuntimeMonitor extends Networkable implements TimeSensitiv
      * @param message Message to be printed.
      */
     protected final void message(String message) {
-        Harness.log(name, message);
+        context.log(name, message);
     }
 
     /**
@@ -257,7 +258,7 @@ public abstract class RuntimeMonitor extends Networkable implements TimeSensitiv
     protected final void warning(String warning) {
         //System.err.format("[" + name + "] @%4.9f: WARNING:  %s", Harness.getTime().getFracSeconds(), warning);
         //System.err.println();
-        Harness.log(name, "WARNING:  " + warning);
+        context.log(name, "WARNING:  " + warning);
         warningCount++;
     }
 
@@ -0,0 +1,344 @@
+package simulator.framework;
+
+import jSimPack.FutureEventList;
+import jSimPack.RandomSource;
+import jSimPack.SimTime;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import simulator.payloads.CANNetwork;
+import simulator.payloads.CanGateway;
+import simulator.payloads.PhysicalNetwork;
+
+/**
+ * Owns all of the state for a single elevator simulation:  the future event
+ * list, the random source, the CAN and physical networks, and the log stream.
+ *
+ * Framework objects (timers, modules, controllers, monitors and the networks)
+ * capture the context that is current when they are constructed and use it
+ * for the rest of their lifetime.  This allows several independent simulations
+ * to exist in the same JVM, each driven by its own thread.
+ *
+ * By default there is one CAN network.  Additional named CAN segments can be
+ * added with {@link #addCanSegment}, and controllers, modules and monitors are
+ * connected to a segment by their class name (see {@link #assignCanSegment}).
+ * Anything that is not assigned is connected to the default network.
+ *
+ * The current context is bound per thread with {@link #attach()}.  Threads that
+ * have not attached a context (including the main thread of a normal
+ * command-line run and the GUI thread) use the default context.  The static
+ * methods in {@link Harness} are wrappers for the current context, so legacy
+ * code that calls them keeps working unchanged.
+ */
+public class SimulationContext {
+
+    private static final SimulationContext defaultContext = new SimulationContext();
+    private static final ThreadLocal<SimulationContext> threadContext = new ThreadLocal<SimulationContext>();
+    private final RandomSource randomSource;
+    private final FutureEventList eventList;
+    private PhysicalNetwork physicalNetwork;
+    private CANNetwork canNetwork;
+    /** named CAN segments, not including the default network */
+    private final Map<String, CANNetwork> canSegments = new LinkedHashMap<String, CANNetwork>();
+    /** segment for each node class name */
+    private final Map<String, CANNetwork> canSegmentAssignments = new HashMap<String, CANNetwork>();
+    private final List<CanGateway> canGateways = new ArrayList<CanGateway>();
+    private boolean networkVerbose = false;
+    private boolean utilizationVerbose = false;
+    private boolean dropVerbose = false;
+    private PrintStream logPrinter = System.out;
+    private double fastElevatorSpeed = 1.0; //m/s
+    private boolean ignoreLeveling = false;
+    private boolean analyticDrive = false;
+    private ControllerExecution controllerExecution = null;
+    private int nextPassengerIndex = 0;
+
+    /**
+     * Create a new, empty simulation context.  The networks are not created
+     * until {@link #initialize} is called.
+     */
+    public SimulationContext() {
+        randomSource = new RandomSource();
+        eventList = new FutureEventList(randomSource);
+    }
+
+    /**
+     * @return the context attached to the calling thread, or the default
+     * context if the thread has not attached one.
+     */
+    public static SimulationContext current() {
+        SimulationContext context = threadContext.get();
+        if (context == null) {
+            return defaultContext;
+        }
+        return context;
+    }
+
+    /**
+     * @return the context used by threads that have not attached their own.
+     */
+    public static SimulationContext getDefault() {
+        return defaultContext;
+    }
+
+    /**
+     * Make this the current context for the calling thread.  Objects created
+     * by the thread from now on will belong to this context.
+     *
+     * @return the context that was previously attached to the thread (possibly
+     * null).  Pass this to {@link #detach(SimulationContext)} to restore it.
+     */
+    public SimulationContext attach() {
+        SimulationContext previous = threadContext.get();
+        threadContext.set(this);
+        return previous;
+    }
+
+    /**
+     * Restore the context that was attached to the calling thread before the
+     * matching call to {@link #attach()}.
+     *
+     * @param previous the value returned by <code>attach()</code>
+     */
+    public static void detach(SimulationContext previous) {
+        if (previous == null) {
+            threadContext.remove();
+        } else {
+            threadContext.set(previous);
+        }
+    }
+
+    /**
+     * Create the networks for this context.
+     */
+    public void initialize(SimTime canBitTime,
+            boolean networkVerbose, boolean frameworkNetworkVerbose,
+            boolean utilizationVerbose, boolean dropVerbose) {
+        physicalNetwork = new PhysicalNetwork(this);
+        canNetwork = new CANNetwork(this, canBitTime);
+        canNetwork.getUtilization().setVerbose(utilizationVerbose);
+        canNetwork.setVerbose(networkVerbose);
+        canNetwork.setDropVerbose(dropVerbose);
+        physicalNetwork.setVerbose(frameworkNetworkVerbose);
+        this.networkVerbose = networkVerbose;
+        this.utilizationVerbose = utilizationVerbose;
+        this.dropVerbose = dropVerbose;
+    }
+
+    /**
+     * @return the event list that drives this simulation
+     */
+    public FutureEventList getEventList() {
+        return eventList;
+    }
+
+    /**
+     * @return the random source used by this simulation
+     */
+    public RandomSource getRandomSource() {
+        return randomSource;
+    }
+
+    /**
+     * @return the physical network for this simulation, or null if
+     * {@link #initialize} has not been called.
+     */
+    public PhysicalNetwork getPhysicalNetwork() {
+        return physicalNetwork;
+    }
+
+    /**
+     * @return the CAN network for this simulation, or null if
+     * {@link #initialize} has not been called.
+     */
+    public CANNetwork getCANNetwork() {
+        return canNetwork;
+    }
+
+    /**
+     * Add a named CAN segment, with the same verbosity as the default CAN
+     * network.  Call this after {@link #initialize} and before the nodes on
+     * the segment are created.
+     *
+     * @throws IllegalArgumentException if the name is already used
+     */
+    public CANNetwork addCanSegment(String name, SimTime bitTime) {
+        if (name.equals(CANNetwork.DEFAULT_NAME) || canSegments.containsKey(name)) {
+            throw new IllegalArgumentException("CAN segment " + name + " already exists");
+        }
+        CANNetwork segment = new CANNetwork(this, bitTime, name);
+        segment.getUtilization().setVerbose(utilizationVerbose);
+        segment.setVerbose(networkVerbose);
+        segment.setDropVerbose(dropVerbose);
+        canSegments.put(name, segment);
+        return segment;
+    }
+
+    /**
+     * @return the CAN segment with the given name, the default network for
+     * {@link CANNetwork#DEFAULT_NAME}, or null if there is no such segment
+     */
+    public CANNetwork getCanSegment(String name) {
+        if (name.equals(CANNetwork.DEFAULT_NAME)) {
+            return canNetwork;
+        }
+        return canSegments.get(name);
+    }
+
+    /**
+     * @return the named CAN segments in the order they were added, not
+     * including the default network
+     */
+    public Collection<CANNetwork> getCanSegments() {
+        return Collections.unmodifiableCollection(canSegments.values());
+    }
+
+    /**
+     * Connect the nodes of the given class (by simple name, e.g.
+     * "DoorControl") to a CAN segment.  Nodes of subclasses are connected to
+     * the same segment unless the subclass is assigned itself.
+     */
+    public void assignCanSegment(String className, CANNetwork segment) {
+        canSegmentAssignments.put(className, segment);
+    }
+
+    /**
+     * @return the CAN segment that nodes of the given class are connected to
+     */
+    public CANNetwork getCANNetwork(Class<?> nodeClass) {
+        for (Class<?> c = nodeClass; c != null; c = c.getSuperclass()) {
+            CANNetwork segment = canSegmentAssignments.get(c.getSimpleName());
+            if (segment != null) {
+                return segment;
+            }
+        }
+        return canNetwork;
+    }
+
+    /**
+     * Keep a gateway so its statistics can be reported.
+     */
+    public void addCanGateway(CanGateway gateway) {
+        canGateways.add(gateway);
+    }
+
+    public List<CanGateway> getCanGateways() {
+        return Collections.unmodifiableList(canGateways);
+    }
+
+    /**
+     * @return the "FAST" elevator speed, as set by the -fs commandline option
+     */
+    public double getFastElevatorSpeed() {
+        return fastElevatorSpeed;
+    }
+
+    public void setFastElevatorSpeed(double fastElevatorSpeed) {
+        this.fastElevatorSpeed = fastElevatorSpeed;
+    }
+
+    /**
+     * @return True if the passengers should ignore the board/entering leveling
+     * requirement (the -il commandline option), false otherwise
+     */
+    public boolean getIgnoreLeveling() {
+        return ignoreLeveling;
+    }
+
+    public void setIgnoreLeveling(boolean ignoreLeveling) {
+        this.ignoreLeveling = ignoreLeveling;
+    }
+
+    /**
+     * @return True if the drive should use the analytic motion model (the
+     * -analyticdrive commandline option), false to integrate the motion every
+     * drive period
+     */
+    public boolean getAnalyticDrive() {
+        return analyticDrive;
+    }
+
+    public void setAnalyticDrive(boolean analyticDrive) {
+        this.analyticDrive = analyticDrive;
+    }
+
+    /**
+     * @return how the controllers are run (the -ctrlexec commandline option),
+     * or null if they run every period
+     */
+    public ControllerExecution getControllerExecution() {
+        return controllerExecution;
+    }
+
+    /**
+     * Must be called before the controllers are created.
+     */
+    public void setControllerExecution(ControllerExecution controllerExecution) {
+        this.controllerExecution = controllerExecution;
+    }
+
+    /**
+     * @return a unique index for the next passenger created in this simulation
+     */
+    public int nextPassengerIndex() {
+        return nextPassengerIndex++;
+    }
+
+    /**
+     * @return the current simulation time
+     */
+    public SimTime getTime() {
+        return eventList.getWallClock();
+    }
+
+    /**
+     * @return the current simulation time, in nanoseconds
+     */
+    public long getTimeNanoseconds() {
+        return eventList.getWallClockNanoseconds();
+    }
+
+    /**
+     * Direct the log output of this context to a file instead of stdout.
+     * @param filename target filename
+     * @throws FileNotFoundException if the file cannot be created.
+     */
+    public void setLogFilename(String filename) throws FileNotFoundException {
+        logPrinter = new PrintStream(filename);
+    }
+
+    /**
+     * Direct the log output of this context to the specified stream.
+     */
+    public void setLogPrinter(PrintStream logPrinter) {
+        if (logPrinter == null) {
+            throw new NullPointerException("logPrinter");
+        }
+        this.logPrinter = logPrinter;
+    }
+
+    /**
+     * @return the stream that log messages are written to.
+     */
+    public PrintStream getLogPrinter() {
+        return logPrinter;
+    }
+
+    /**
+     * Prints a log message that includes the source and timestamp of the
+     * message.  See {@link Harness#log(String, Object[])}.
+     */
+    public void log(String source, Object... msg) {
+        logPrinter.format("[%s] @%4.9f: ", source, getTime().getFracSeconds());
+        for (Object o : msg) {
+            logPrinter.print(o);
+        }
+        logPrinter.println();
+    }
+}
@@ -14,7 +14,6 @@ import jSimPack.FutureEventListener;
 import jSimPack.SimTime;
 import jSimPack.SimTime.SimTimeUnit;
 import simulator.payloads.*;
-import simulator.elevatormodules.DriveObject;
 import javax.swing.*;
 import javax.swing.event.*;
 
@@ -838,16 +837,29 @@ public class SwingDisplay extends javax.swing.JFrame implements BreakpointListen
         threadTimer.schedule(new RefreshTimer(), 50, 50);
     }
 
+    /**
+     * Periodically asks the simulation thread to update the controls between
+     * instants, so the display always shows a consistent snapshot.  A new
+     * request is not posted until the previous one has been handled.
+     */
     private class RefreshTimer extends TimerTask {
 
+        private volatile boolean pending = false;
+        private final Runnable refresh = new Runnable() {
+
+            public void run() {
+                pending = false;
+                updateControls();
+            }
+        };
+
         @Override
         public void run() {
-            Harness.interleaveLock();
-            try {
-                updateControls();
-            } finally {
-                Harness.interleaveUnlock();
+            if (pending) {
+                return;
             }
+            pending = true;
+            Harness.invokeBetweenSteps(refresh);
         }
         
     }
@@ -865,12 +877,12 @@ public class SwingDisplay extends javax.swing.JFrame implements BreakpointListen
           case UP:
             speedSlider.setValue((int)Math.round(
                   speedSlider.getMaximum() * 
-                  (speedPayload.speed()/DriveObject.FastSpeed)));
+                  (speedPayload.speed()/Elevator.getFastElevatorSpeed())));
             break;
           case DOWN:
             speedSlider.setValue((int)Math.round(
                   speedSlider.getMinimum() * 
-                  (speedPayload.speed()/DriveObject.FastSpeed)));
+                  (speedPayload.speed()/Elevator.getFastElevatorSpeed())));
             break;
           case STOP:
             speedSlider.setValue(0);
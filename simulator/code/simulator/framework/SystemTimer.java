@@ -20,15 +20,19 @@ public class SystemTimer extends AbstractTimer {
     public SystemTimer(TimeSensitive handler) {
         super(handler);
     }
+
+    public SystemTimer(SimulationContext context, TimeSensitive handler) {
+        super(context, handler);
+    }
     
     @Override
-    protected FutureEvent scheduleEvent(FutureEventListener event, SimTime timeInterval, Object data) {
-        return Harness.scheduleNonsimulationEvent(event, timeInterval, data);
+    protected FutureEvent scheduleEvent(FutureEventListener event, long timeInterval, Object data) {
+        return context.getEventList().schedulePooledNonsimulationEvent(event, timeInterval, data);
     }
 
     @Override
-    protected void cancelEvent(FutureEvent event) {
-        Harness.cancelNonsimulationEvent(event);
+    protected void cancelEvent(FutureEvent event, int generation) {
+        context.getEventList().cancelNonsimulationEvent(event, generation);
     }
     
 }
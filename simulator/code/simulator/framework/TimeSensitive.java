@@ -8,6 +8,7 @@ package simulator.framework;
  * @see AbstractTimer
  * @see Timer
  * @see SystemTimer
+ * @see PeriodicTimer
  * 
  * @author William Nace
  * @author Kenny Stauffer
@@ -17,15 +17,19 @@ public class Timer extends AbstractTimer {
     public Timer(TimeSensitive handler) {
         super(handler);
     }
+
+    public Timer(SimulationContext context, TimeSensitive handler) {
+        super(context, handler);
+    }
     
     @Override
-    protected FutureEvent scheduleEvent(FutureEventListener event, SimTime timeInterval, Object data) {
-        return Harness.schedule(event, timeInterval, data);
+    protected FutureEvent scheduleEvent(FutureEventListener event, long timeInterval, Object data) {
+        return context.getEventList().schedulePooled(event, timeInterval, data);
     }
 
     @Override
-    protected void cancelEvent(FutureEvent event) {
-        Harness.cancelEvent(event);
+    protected void cancelEvent(FutureEvent event, int generation) {
+        context.getEventList().cancelEvent(event, generation);
     }
 
     public static void main(String[] args) {
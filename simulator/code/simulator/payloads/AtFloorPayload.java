@@ -153,6 +153,11 @@ public class AtFloorPayload extends PhysicalPayload implements InternalPayload {
         this.value = c.value;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return value == ((AtFloorPayload) p).value;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + value + ")";
@@ -2,6 +2,7 @@ package simulator.payloads;
 
 import jSimPack.SimTime;
 import java.util.*;
+import simulator.framework.SimulationContext;
 import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 
@@ -12,11 +13,12 @@ import simulator.payloads.CanMailbox.WriteableCanMailbox;
 public class CANNetwork extends NetworkScheduler {
    
     /**
-     * This connector only allows time-triggered connections to the CAN network.
+     * This connector only allows time-triggered and change-triggered
+     * connections to the CAN network.
      */
     public class CanConnection {
 
-        private NetworkConnection conn;
+        private Connection conn;
 
         public CanConnection() {
             conn = new Connection(null);
@@ -26,22 +28,95 @@ public class CANNetwork extends NetworkScheduler {
             conn.registerTimeTriggered(writeback);
         }
         
+        /**
+         * Send the mailbox once every period.  If a heartbeat has been set
+         * with {@link CANNetwork#setHeartbeat(SimTime)}, the mailbox is sent
+         * change-triggered instead, with the period as the minimum interval.
+         */
         public void sendTimeTriggered(WriteableCanMailbox msg, SimTime period) {
+            if (heartbeat != null) {
+                sendChangeTriggered(msg, period, period.isGreaterThan(heartbeat) ? period : heartbeat);
+                return;
+            }
             registerCanSender(msg.asCanMailbox());
             conn.sendTimeTriggered(msg, period);
+            periodicMessages.add(msg.asCanMailbox());
+            periodicPeriods.add(period);
+        }
+
+        /**
+         * Send the mailbox whenever its payload changes, and every heartbeat
+         * period while it does not.  The changes a controller makes in one
+         * step go out in one frame, no sooner than minInterval after the
+         * previous frame, and each frame must be delivered within minInterval.
+         * A controller that sets the same value every period does not use
+         * any bandwidth between heartbeats.
+         *
+         * @param minInterval the minimum time between frames, usually the
+         * period of the controller
+         * @param heartbeat the time between frames while the payload does not
+         * change, which must be at least minInterval
+         */
+        public void sendChangeTriggered(WriteableCanMailbox msg, SimTime minInterval, SimTime heartbeat) {
+            registerCanSender(msg.asCanMailbox());
+            msg.asCanMailbox().setChangeSender(conn.sendChangeTriggered(msg, minInterval, heartbeat));
+            //in the worst case the payload changes every minimum interval
+            periodicMessages.add(msg.asCanMailbox());
+            periodicPeriods.add(minInterval);
         }
 
         public void setEnabled(boolean enabled) {
             conn.setEnabled(enabled);
         }
+
+        /**
+         * @see NetworkScheduler.Connection#getInputVersion()
+         */
+        public long getInputVersion() {
+            return conn.getInputVersion();
+        }
+
+        /**
+         * @see NetworkScheduler.Connection#getOutputValues()
+         */
+        public String getOutputValues() {
+            return conn.getOutputValues();
+        }
     }
 
+    /** name of the default CAN network, for referring to it as a segment */
+    public final static String DEFAULT_NAME = "default";
+    /** the segment name, or null for the default network */
+    private final String name;
+
     public CANNetwork(SimTime bitWidth) {
         super(bitWidth);
+        name = null;
+    }
+
+    public CANNetwork(SimulationContext context, SimTime bitWidth) {
+        super(context, bitWidth);
+        name = null;
+    }
+
+    /**
+     * Create a named CAN segment.
+     */
+    public CANNetwork(SimulationContext context, SimTime bitWidth, String name) {
+        super(context, bitWidth);
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        this.name = name;
     }
 
 
     private Set<Integer> canSenders = new HashSet<Integer>();
+    /** mailboxes sent time- or change-triggered, with their (minimum) periods, for schedule analysis */
+    private List<CanMailbox> periodicMessages = new ArrayList<CanMailbox>();
+    private List<SimTime> periodicPeriods = new ArrayList<SimTime>();
+    /** if not null, time-triggered sends are made change-triggered with this heartbeat */
+    private SimTime heartbeat = null;
 
     /**
      * @return a time-triggered connection to the CAN network.  This is the
@@ -70,12 +145,94 @@ public class CANNetwork extends NetworkScheduler {
     }
 
 
+    /**
+     * Make every later call to {@link CanConnection#sendTimeTriggered} send
+     * its mailbox change-triggered, with the requested period as the minimum
+     * interval and a heartbeat of the given time (or the period, if that is
+     * longer).  This lets a whole system be run with change-triggered
+     * messages without changing the controllers.  Call this before the
+     * controllers and modules are created.
+     *
+     * @param heartbeat the heartbeat period, or null to send time-triggered
+     */
+    public void setHeartbeat(SimTime heartbeat) {
+        if (heartbeat != null && !heartbeat.isPositive()) {
+            throw new IllegalArgumentException("heartbeat: " + heartbeat);
+        }
+        this.heartbeat = heartbeat;
+    }
+
+    public SimTime getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Analyze the worst-case response times of all the messages that have
+     * been registered so far with {@link CanConnection#sendTimeTriggered} or
+     * {@link CanConnection#sendChangeTriggered}, or forwarded onto this
+     * network by a {@link CanGateway}, at the bit width of this network.
+     * Change-triggered messages are analyzed as if their payload changed
+     * every minimum interval.  Call this once the controllers and
+     * modules have been created, so that the translators have set the payload
+     * sizes.
+     *
+     * @throws IllegalStateException if the network has zero bit width
+     */
+    public CanScheduleAnalysis analyzeSchedule() {
+        long bitTime = getBitWidth().getTruncNanoseconds();
+        if (bitTime <= 0) {
+            throw new IllegalStateException("Schedule analysis requires a nonzero bit width (set the bitrate with -b)");
+        }
+        CanScheduleAnalysis analysis = new CanScheduleAnalysis(bitTime);
+        for (int i = 0; i < periodicMessages.size(); i++) {
+            CanMailbox m = periodicMessages.get(i);
+            String name = "";
+            int payloadSize = m.getPayloadSize();
+            if (m.getTranslator() != null) {
+                name = m.getTranslator().getClass().getSimpleName();
+                payloadSize = m.getTranslator().getByteSize();
+            }
+            analysis.addMessage(m.getMessageId(), name, payloadSize, periodicPeriods.get(i).getTruncNanoseconds());
+        }
+        analysis.analyze();
+        return analysis;
+    }
+
+    /**
+     * Include a message that a gateway forwards from another segment in the
+     * schedule analysis of this one, with the period it has there.  The
+     * jitter added by the source segment and the gateway is not modeled.
+     */
+    void addForwardedMessage(CANNetwork source, int messageId) {
+        for (int i = 0; i < source.periodicMessages.size(); i++) {
+            if (source.periodicMessages.get(i).getMessageId() == messageId) {
+                periodicMessages.add(source.periodicMessages.get(i));
+                periodicPeriods.add(source.periodicPeriods.get(i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the segment name, or {@link #DEFAULT_NAME} for the default network
+     */
+    public String getName() {
+        return name == null ? DEFAULT_NAME : name;
+    }
+
+    /**
+     * @return the IDs of the messages that are sent on this network, in order
+     */
+    SortedSet<Integer> getSentMessageIds() {
+        return new TreeSet<Integer>(canSenders);
+    }
+
     /**
      * Informs the network that the specified message is the only one that
      * will have this message ID.  If another message with the same ID is
      * sent on the network, a runtime exception will be thrown.
      */
-    private void registerCanSender(CanMailbox p) {
+    void registerCanSender(CanMailbox p) {
         if (canSenders.contains(p.getMessageId())) {
             throw new RuntimeException("a CAN message with ID " + p.getMessageId() + " is already being sent.");
         }
@@ -84,6 +241,62 @@ public class CANNetwork extends NetworkScheduler {
 
     @Override
         public String toString() {
-            return "CANNetwork";
+            return name == null ? "CANNetwork" : "CANNetwork[" + name + "]";
+        }
+
+    /**
+     * Delivery benchmark.  Sends a set of periodic messages, each with a
+     * time-triggered receiver, and reports the heap allocated by the
+     * simulation thread per delivered frame once the network has warmed up.
+     * This includes the scheduling of the sender and network events, not just
+     * the network's own copying.
+     *
+     * usage:  java simulator.payloads.CANNetwork [messages] [seconds]
+     */
+    public static void main(String args[]) {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+
+        SimulationContext context = new SimulationContext();
+        SimulationContext previous = context.attach();
+        try {
+            CANNetwork network = new CANNetwork(context, new SimTime(2, SimTime.SimTimeUnit.MICROSECOND));
+            context.getEventList().setRealtimeRate(Double.POSITIVE_INFINITY);
+            CanConnection conn = network.getCanConnection();
+            for (int i = 0; i < messageCount; i++) {
+                WriteableCanMailbox sender = CanMailbox.getWriteableCanMailbox(0x100 + i);
+                sender.setPayloadBits(i, 4);
+                conn.sendTimeTriggered(sender, new SimTime(10 * (1 + i % 5), SimTime.SimTimeUnit.MILLISECOND));
+                conn.registerTimeTriggered(CanMailbox.getReadableCanMailbox(0x100 + i));
+            }
+
+            //warm up so the event pools and in-flight buffers are populated
+            context.getEventList().runSimulationUntil(new SimTime(1, SimTime.SimTimeUnit.SECOND));
+
+            java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocation = null;
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                allocation = (com.sun.management.ThreadMXBean) threads;
+            }
+            long thread = Thread.currentThread().getId();
+            long startBytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+            long startFrames = network.getFramesDelivered();
+            long startTime = System.nanoTime();
+
+            context.getEventList().runSimulationUntil(new SimTime(1 + seconds, SimTime.SimTimeUnit.SECOND));
+
+            long elapsed = System.nanoTime() - startTime;
+            long frames = network.getFramesDelivered() - startFrames;
+            System.out.println("Frames delivered: " + frames + " in " + (elapsed / 1000000) + "ms");
+            System.out.println("In-flight buffers: " + network.getInFlightBufferCount());
+            if (allocation == null) {
+                System.out.println("Allocated bytes per frame: not supported by this JVM");
+            } else {
+                long bytes = allocation.getThreadAllocatedBytes(thread) - startBytes;
+                System.out.println(String.format("Allocated bytes per frame: %.1f", (double) bytes / frames));
+            }
+        } finally {
+            SimulationContext.detach(previous);
         }
+    }
 }
@@ -0,0 +1,250 @@
+package simulator.payloads;
+
+import jSimPack.QuiescenceDetector;
+import jSimPack.SimTime;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import simulator.framework.SimulationContext;
+import simulator.framework.TimeSensitive;
+import simulator.framework.Timer;
+import simulator.payloads.CanMailbox.ReadableCanMailbox;
+import simulator.payloads.CanMailbox.WriteableCanMailbox;
+
+/**
+ * A store-and-forward gateway that copies messages from one CAN segment to
+ * another.
+ *
+ * Each forwarded message ID is received event-triggered on the source
+ * segment.  After the processing delay, the value is sent once on the
+ * destination segment, where the gateway is registered as the sender of the
+ * ID.  Like a CAN controller, the gateway keeps one buffer per ID, so a
+ * message that arrives while the previous one is still being processed, or
+ * is still waiting for the destination bus, is merged into it (only the
+ * newest value is sent).
+ *
+ * The gateway also listens for its own frames on the destination segment,
+ * and records the latency from the arrival of a message on the source
+ * segment until its delivery on the destination segment.  When messages are
+ * merged, the latency is measured from the oldest one.
+ */
+public class CanGateway extends Networkable implements QuiescenceDetector.Participant {
+
+    /**
+     * Forwarding state and statistics for one message ID.
+     */
+    private final class Forward implements TimeSensitive {
+
+        private final int messageId;
+        private final ReadableCanMailbox in;
+        private final WriteableCanMailbox out;
+        /** the gateway's own frames, as delivered on the destination segment */
+        private final ReadableCanMailbox echo;
+        private final Timer timer;
+        /** arrival of the oldest message waiting to be processed */
+        private long arrival;
+        /** arrival times of the frames sent on the destination segment and not yet delivered */
+        private final Queue<Long> inTransit = new LinkedList<Long>();
+        private long received = 0;
+        private long forwarded = 0;
+        private long merged = 0;
+        private long delivered = 0;
+        private long latencySum = 0;
+        private long latencyMax = 0;
+        private final WindowCounters window = new WindowCounters();
+
+        Forward(int messageId) {
+            this.messageId = messageId;
+            in = CanMailbox.getReadableCanMailbox(messageId);
+            out = CanMailbox.getWriteableCanMailbox(messageId);
+            echo = CanMailbox.getReadableCanMailbox(messageId);
+            timer = new Timer(context, this);
+        }
+
+        void received() {
+            received++;
+            if (timer.isRunning()) {
+                merged++;
+                return;
+            }
+            arrival = context.getTimeNanoseconds();
+            timer.start(delayNanos);
+        }
+
+        public void timerExpired(Object callbackData) {
+            out.setPayloadBits(in.getPayloadBits(), in.getPayloadSize());
+            if (to.getQueuedCount(messageId) > 0) {
+                //the waiting frame goes out with the new value
+                merged++;
+                return;
+            }
+            forwarded++;
+            inTransit.add(arrival);
+            toConnection.sendOnce(out);
+        }
+
+        void delivered() {
+            //frames that a fault model dropped are never delivered, so skip
+            //their arrival times.  Only frames still waiting for the bus come
+            //after this one.
+            int dropped = inTransit.size() - to.getQueuedCount(messageId) - 1;
+            for (int i = 0; i < dropped; i++) {
+                inTransit.poll();
+            }
+            Long sent = inTransit.poll();
+            if (sent == null) {
+                return;
+            }
+            long latency = context.getTimeNanoseconds() - sent;
+            delivered++;
+            latencySum += latency;
+            latencyMax = Math.max(latencyMax, latency);
+        }
+
+        void skipWindows(long repeats, long shift) {
+            long[] counters = window.skip(repeats);
+            received = counters[0];
+            forwarded = counters[1];
+            merged = counters[2];
+            delivered = counters[3];
+            latencySum = counters[4];
+            arrival += shift;
+            for (int i = inTransit.size(); i > 0; i--) {
+                inTransit.add(inTransit.poll() + shift);
+            }
+        }
+    }
+    private final SimulationContext context;
+    private final String name;
+    private final CANNetwork from;
+    private final CANNetwork to;
+    private final long delayNanos;
+    private final NetworkScheduler.Connection fromConnection;
+    private final NetworkScheduler.Connection toConnection;
+    private final Map<Integer, Forward> forwards = new TreeMap<Integer, Forward>();
+
+    /**
+     * Create a gateway that forwards no messages yet.  Add them with
+     * {@link #forward(int)} or {@link #forwardAll()}.
+     *
+     * @param delay the processing delay for each message
+     */
+    public CanGateway(SimulationContext context, String name, CANNetwork from, CANNetwork to, SimTime delay) {
+        if (from == to) {
+            throw new IllegalArgumentException(name + ": a gateway must connect two different segments");
+        }
+        if (delay.isNegative()) {
+            throw new IllegalArgumentException(name + ": delay is negative: " + delay);
+        }
+        this.context = context;
+        this.name = name;
+        this.from = from;
+        this.to = to;
+        this.delayNanos = delay.getTruncNanoseconds();
+        fromConnection = from.getFrameworkConnection(this);
+        toConnection = to.getFrameworkConnection(this);
+    }
+
+    /**
+     * Forward the message with the given ID from the source segment to the
+     * destination segment.
+     *
+     * @throws RuntimeException if the message is already sent on the
+     * destination segment
+     */
+    public void forward(int messageId) {
+        if (forwards.containsKey(messageId)) {
+            return;
+        }
+        Forward f = new Forward(messageId);
+        to.registerCanSender(f.out.asCanMailbox());
+        to.addForwardedMessage(from, messageId);
+        fromConnection.registerEventTriggered(f.in);
+        toConnection.registerEventTriggered(f.echo);
+        forwards.put(messageId, f);
+    }
+
+    /**
+     * Forward every message that is sent on the source segment and received
+     * by some node on the destination segment, but not sent there.  Call
+     * this after the nodes on both segments have been created.
+     *
+     * @return the number of messages added
+     */
+    public int forwardAll() {
+        int count = 0;
+        Set<Integer> sentOnDestination = to.getSentMessageIds();
+        for (int messageId : from.getSentMessageIds()) {
+            if (to.hasListeners(messageId) && !sentOnDestination.contains(messageId)) {
+                forward(messageId);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void receive(ReadableCanMailbox msg) {
+        Forward f = forwards.get(msg.getMessageId());
+        if (msg == f.in) {
+            f.received();
+        } else {
+            f.delivered();
+        }
+    }
+
+    /**
+     * The gateway only copies values that the segments see change, so it
+     * never keeps the simulation from being quiescent on its own.
+     */
+    public boolean isQuiescent() {
+        for (Forward f : forwards.values()) {
+            f.window.mark(f.received, f.forwarded, f.merged, f.delivered, f.latencySum);
+        }
+        return true;
+    }
+
+    /**
+     * Fast forward the forwarding statistics, and move the arrival times of
+     * the messages in progress forward with the skipped time.
+     */
+    public void skipped(long window, long repeats) {
+        for (Forward f : forwards.values()) {
+            f.skipWindows(repeats, window * repeats);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of message IDs forwarded by this gateway
+     */
+    public int getForwardCount() {
+        return forwards.size();
+    }
+
+    /**
+     * @return a table of the forwarding statistics for each message ID
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %s -> %s, delay %.1f us, %d message IDs%n", name, from.getName(), to.getName(),
+                delayNanos / 1e3, forwards.size()));
+        sb.append(String.format("%-10s %10s %10s %10s %16s %15s", "ID", "Received", "Forwarded", "Merged",
+                "MeanLatency(us)", "MaxLatency(us)"));
+        for (Forward f : forwards.values()) {
+            sb.append(String.format("%n0x%08X %10d %10d %10d %16.3f %15.3f", f.messageId, f.received, f.forwarded,
+                    f.merged, f.delivered > 0 ? f.latencySum / 1e3 / f.delivered : 0.0, f.latencyMax / 1e3));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CanGateway[" + name + "]";
+    }
+}
@@ -5,13 +5,16 @@
 package simulator.payloads;
 
 import simulator.payloads.translators.CanPayloadTranslator;
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
  * CanMailbox is the Payload object that is used by the elevator.framework.CANNetwork.
  *
  * It implements a bit-level representation of the CAN message, including the CAN message ID
- * and a binary payload of up to 8 bytes.
+ * and a binary payload of up to 8 bytes.  The payload is stored in a single long,
+ * with bit <i>i</i> of the long corresponding to bit <i>i</i> of the BitSet
+ * representation used by older translators.
  *
  * This class also provides the utility methods necessary to compute bit-stuffing
  * over the actual binary representation of the message.
@@ -22,14 +25,13 @@ public final class CanMailbox extends Payload {
 
     private boolean lastDropped;
     private final int messageId; //lower 29 bits represent the message ID
-    private BitSet payload; //the data of the message
+    private long payload; //the data of the message
     private int payloadSize;  //byte size of the payload
     private CanPayloadTranslator translator = null;
-    //cache the current data payload every time the size (with bitstuffing) is computed
-    private BitSet lastSizedPayload = null;
-    //cached message size value
-    private final CanBitStream headerBitStream; //cached bit stream of the header bits, which don't change
-    private int lastSize = -1;
+    //sends this mailbox when its payload changes, if it is change-triggered
+    private NetworkScheduler.Connection.ChangeTriggeredPayload changeSender = null;
+    //computes (and remembers) the size of the message for this ID, shared with copies of this mailbox
+    private final FrameSizer sizer;
     /**
      * limit the message ID to 29 bits;
      */
@@ -70,6 +72,14 @@ public final class CanMailbox extends Payload {
             return mailbox.getMessagePayload();
         }
 
+        /**
+         * @return the payload bits, with bit 0 of the payload in the least
+         * significant bit.  Unlike getMessagePayload(), this does not allocate.
+         */
+        public long getPayloadBits() {
+            return mailbox.getPayloadBits();
+        }
+
         /**
          *
          * @return the size of the message payload in bytes
@@ -129,6 +139,14 @@ public final class CanMailbox extends Payload {
             return mailbox.getMessagePayload();
         }
 
+        /**
+         * @return the payload bits, with bit 0 of the payload in the least
+         * significant bit.  Unlike getMessagePayload(), this does not allocate.
+         */
+        public long getPayloadBits() {
+            return mailbox.getPayloadBits();
+        }
+
         /**
          *
          * @return the size of the message payload in bytes
@@ -155,6 +173,16 @@ public final class CanMailbox extends Payload {
         public void setMessagePayload(BitSet payload, int payloadSize) {
             mailbox.setMessagePayload(payload, payloadSize);
         }
+
+        /**
+         * Set the payload value and size.
+         * @param payload payload bits, with bit 0 of the payload in the least
+         * significant bit
+         * @param payloadSize size in bytes.
+         */
+        public void setPayloadBits(long payload, int payloadSize) {
+            mailbox.setPayloadBits(payload, payloadSize);
+        }
     }
 
     /**
@@ -179,9 +207,9 @@ public final class CanMailbox extends Payload {
         super(p);
         this.lastDropped = p.lastDropped;
         this.messageId = p.messageId;
-        this.payload = (BitSet) p.payload.clone();
+        this.payload = p.payload;
         this.payloadSize = p.payloadSize;
-        this.headerBitStream = new CanBitStream(p.headerBitStream);
+        this.sizer = p.sizer;
     }
 
     /**
@@ -204,9 +232,9 @@ public final class CanMailbox extends Payload {
             throw new IllegalArgumentException("at least one of the 7 most significant bits of the message ID must be dominant: " + Integer.toHexString(messageId));
         }
         this.messageId = messageId;
-        this.payload = new BitSet();
+        this.payload = 0;
         this.payloadSize = 0;
-        this.headerBitStream = buildHeaderBitStream(this.messageId);
+        this.sizer = new FrameSizer(this.messageId);
     }
 
     @Override
@@ -217,22 +245,39 @@ public final class CanMailbox extends Payload {
             throw new RuntimeException("Cannot copy can message with id " + copyFrom.messageId + " to message with id " + messageId);
         }
         this.payloadSize = copyFrom.payloadSize;
-        this.payload = (BitSet) copyFrom.payload.clone();
-        payload.clear();
-        payload.or(copyFrom.payload);
+        this.payload = copyFrom.payload;
         this.lastDropped = copyFrom.lastDropped;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        CanMailbox other = (CanMailbox) p;
+        return payload == other.payload && payloadSize == other.payloadSize;
+    }
+
     public int getMessageId() {
         return messageId;
     }
 
     /**
      * 
-     * @return a defensive copy of the payload bitset
+     * @return a new BitSet that holds a copy of the payload.  getPayloadBits()
+     * is cheaper.
      */
     public BitSet getMessagePayload() {
-        return (BitSet) payload.clone();
+        BitSet b = new BitSet(64);
+        for (long bits = payload; bits != 0; bits &= bits - 1) {
+            b.set(Long.numberOfTrailingZeros(bits));
+        }
+        return b;
+    }
+
+    /**
+     * @return the payload bits, with bit 0 of the payload in the least
+     * significant bit
+     */
+    public long getPayloadBits() {
+        return payload;
     }
 
     /**
@@ -241,15 +286,43 @@ public final class CanMailbox extends Payload {
      * @param payloadSize the size (in bytes) of the payload - must be in the range [0,8]
      */
     public void setMessagePayload(BitSet newPayload, int payloadSize) {
+        if (newPayload.length() > 64) {
+            throw new RuntimeException("payload is larger than the specified size");
+        }
+        long bits = 0;
+        for (int i = newPayload.nextSetBit(0); i >= 0; i = newPayload.nextSetBit(i + 1)) {
+            bits |= 1L << i;
+        }
+        setPayloadBits(bits, payloadSize);
+    }
+
+    /**
+     * Set the message values
+     * @param newPayload the binary payload data, with bit 0 of the payload in
+     * the least significant bit
+     * @param payloadSize the size (in bytes) of the payload - must be in the range [0,8]
+     */
+    public void setPayloadBits(long newPayload, int payloadSize) {
         if (payloadSize < 0 || payloadSize > 8) {
             throw new RuntimeException("payloadSize invalid");
         }
-        if (newPayload.length() > payloadSize * 8) {
+        if (payloadSize < 8 && (newPayload >>> (payloadSize * 8)) != 0) {
             throw new RuntimeException("payload is larger than the specified size");
         }
+        boolean changed = newPayload != this.payload || payloadSize != this.payloadSize;
         this.payloadSize = payloadSize;
-        payload.clear();
-        payload.or(newPayload);
+        this.payload = newPayload;
+        if (changed && changeSender != null) {
+            changeSender.payloadChanged();
+        }
+    }
+
+    /**
+     * Set the task to notify when the payload changes.  Used by the network
+     * for change-triggered mailboxes.
+     */
+    void setChangeSender(NetworkScheduler.Connection.ChangeTriggeredPayload changeSender) {
+        this.changeSender = changeSender;
     }
 
     /**
@@ -283,7 +356,7 @@ public final class CanMailbox extends Payload {
     @Override
     public String toString() {
         if (translator == null) {
-            return "ID=" + Integer.toHexString(messageId) + "; Payload=" + CanPayloadTranslator.bitSetToHex(payload);
+            return "ID=" + Integer.toHexString(messageId) + "; Payload=0x" + Long.toHexString(payload);
         } else {
             return "ID=" + Integer.toHexString(messageId) + "; Payload=" + translator.payloadToString();
         }
@@ -312,144 +385,208 @@ public final class CanMailbox extends Payload {
      */
     @Override
     public int getSize() {
-        if (!payload.equals(lastSizedPayload)) {
-            //copy the header bit stream and add the payload to it
-            CanBitStream cb = new CanBitStream(headerBitStream);
-            //payload has changed, so compute the new size
-            cb.addBits(15 - payloadSize, 4);  //set length field
-            //cb.insertMarker();
-            for (int i = (payloadSize * 8) - 1; i >= 0; i--) {
-                cb.addBit(payload.get(i));
-                //if (i % 8 == 0) cb.insertMarker();
-            }
-            //add the crc
-            cb.addBits(cb.getCRC(), 15);
-            //cb.insertMarker();
-            //this is the end of the bitstuffed part of the message
-        /*if we were really encoding the full message, we would add these parts
-            cb.addBit(false); //CRC deliminter
-            cb.addBit(true); //ack slot
-            cb.addBit(false); //ack delimiter
-            cb.addBits(0,9); //6 bits for eof space + 3 bits for intermission*/
-            //debug print the bitstream
-            //System.out.println("SizeBitStream=" + cb.getBitString());
-
-            //the total message length, not including stuff bits or payload
-            //is 66
-            lastSize = 66 + (8 * payloadSize) + cb.getStuffBitCount();
-            lastSizedPayload = payload;
-            //Harness.log("Message size for ",payloadSize," bytes is ", lastSize," bits.  Bitstuff = ", cb.getStuffBitCount());
-        } else {
-            // Harness.log("Using cached size");
-        }
-        //return the cached or computed size
-        return lastSize;
+        return sizer.getSize(payload, payloadSize);
     }
 
-    private static CanBitStream buildHeaderBitStream(int messageId) {
-        CanBitStream cb = new CanBitStream();
-
-        cb.addBit(true); //start bit
-        //cb.insertMarker();
-        cb.addBits((messageId >> 18) & 0x7FF, 11);  //11 upper bits of
-        //cb.insertMarker();
-        cb.addBit(false);  //SRR = recessive
-        cb.addBit(false);  //IDE bit to recessive
-        //cb.insertMarker();
-        cb.addBits(messageId & 0x3FFFF, 18);  //lower 18 bits of message id
-        //cb.insertMarker();
-        cb.addBit(true); //set RTR bit
-        //cb.insertMarker();
-        cb.addBit(true); //set 2 bits = reserved field
-        cb.addBit(true);
-
-        return cb;
+    /**
+     * Compute the largest size that {@link #getSize()} can return for a message
+     * with the given payload size, i.e. with the maximum possible number of
+     * stuff bits.  This is the transmission length used for worst-case
+     * schedulability analysis.
+     *
+     * @param payloadSize the size of the payload in bytes, in the range [0,8]
+     * @return the size of the message in bits
+     */
+    public static int getMaximumSize(int payloadSize) {
+        if (payloadSize < 0 || payloadSize > 8) {
+            throw new IllegalArgumentException("payloadSize invalid: " + payloadSize);
+        }
+        return FrameSizer.getMaximumSize(payloadSize);
     }
 
     /**
-     * Utility class for computing the actual binary representation of a message
+     * Computes the length on the wire of frames with one message ID.
+     *
+     * The CRC and bit-stuffing state after the (constant) header is computed
+     * once.  The rest of the frame is processed a byte at a time using
+     * precomputed tables for the CRC-15 and for the stuff-bit state machine,
+     * and recent results are remembered in a small cache keyed on the payload
+     * value.  The result is the same as feeding the frame through the
+     * encoder one bit at a time.
+     *
+     * A sizer is shared by a mailbox and all its clones, which belong to the
+     * same simulation, so it is not synchronized.
      */
-    private static class CanBitStream {
+    private static final class FrameSizer {
 
-        int crcChecksum = 0;
-        final int crcPolynomial = 0x4599;
-        //bitstuff state
-        int stuffBitCount = 0;
-        int sameBitCount = 0;
-        boolean lastbit;
-        boolean isFirstBit = true;
-
-        public CanBitStream() {
-            //do nothing;
+        private final static int CRC_POLYNOMIAL = 0x4599;
+        private final static int CRC_MASK = 0x7FFF;
+        /** CRC register update for each possible byte, MSB first */
+        private final static int[] CRC_TABLE = new int[256];
+        /*
+         * Bit-stuffing state:  bit 2 is the value of the last bit, and bits
+         * 0-1 hold the number of consecutive bits with that value, minus one
+         * (the run is never longer than 4, since a stuff bit is inserted
+         * after the fifth).
+         */
+        private final static int STUFF_STATES = 8;
+        /** next stuff state after each byte, indexed by state * 256 + byte */
+        private final static byte[] STUFF_NEXT = new byte[STUFF_STATES * 256];
+        /** stuff bits inserted while sending each byte, same indexing */
+        private final static byte[] STUFF_COUNT = new byte[STUFF_STATES * 256];
+        /**
+         * the total message length, not including stuff bits or payload
+         */
+        private final static int FRAME_OVERHEAD = 66;
+        /**
+         * the bits covered by bit-stuffing, not including the payload:  start
+         * bit, identifier, SRR, IDE, RTR, reserved bits, length and CRC
+         */
+        private final static int STUFFED_OVERHEAD = 54;
+        private final static int CACHE_SIZE = 16;
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i << 7;
+                for (int bit = 0; bit < 8; bit++) {
+                    if ((crc & 0x4000) != 0) {
+                        crc = ((crc << 1) ^ CRC_POLYNOMIAL) & CRC_MASK;
+                    } else {
+                        crc = (crc << 1) & CRC_MASK;
+                    }
+                }
+                CRC_TABLE[i] = crc;
+            }
+            for (int state = 0; state < STUFF_STATES; state++) {
+                for (int value = 0; value < 256; value++) {
+                    int next = state;
+                    int count = 0;
+                    for (int bit = 7; bit >= 0; bit--) {
+                        next = stuffStep(next, (value >> bit) & 1);
+                        count += next >> 3;
+                        next &= 0x7;
+                    }
+                    STUFF_NEXT[state * 256 + value] = (byte) next;
+                    STUFF_COUNT[state * 256 + value] = (byte) count;
+                }
+            }
         }
-
-        public CanBitStream(CanBitStream copyFrom) {
-            this.crcChecksum = copyFrom.crcChecksum;
-            this.stuffBitCount = copyFrom.stuffBitCount;
-            this.sameBitCount = copyFrom.sameBitCount;
-            this.isFirstBit = copyFrom.isFirstBit;
-            this.lastbit = copyFrom.lastbit;
+        private final int headerCrc;
+        private final int headerStuffState;
+        private final int headerStuffCount;
+        private final long[] cachedPayloads = new long[CACHE_SIZE];
+        private final int[] cachedPayloadSizes = new int[CACHE_SIZE];
+        private final int[] cachedSizes = new int[CACHE_SIZE];
+
+        FrameSizer(int messageId) {
+            //feed the header through the bit-at-a-time encoder
+            Encoder e = new Encoder();
+            e.addBits(1, 1); //start bit
+            e.addBits((messageId >> 18) & 0x7FF, 11);  //11 upper bits of the message id
+            e.addBits(0, 1);  //SRR = recessive
+            e.addBits(0, 1);  //IDE bit to recessive
+            e.addBits(messageId & 0x3FFFF, 18);  //lower 18 bits of message id
+            e.addBits(1, 1); //set RTR bit
+            e.addBits(3, 2); //set 2 bits = reserved field
+            headerCrc = e.crc;
+            headerStuffState = e.stuffState;
+            headerStuffCount = e.stuffCount;
+            Arrays.fill(cachedPayloadSizes, -1);
         }
 
-        public void clear() {
-            //reset crc state
-            crcChecksum = 0;
-
-            //reset bitstuff state
-            stuffBitCount = 0;
-            isFirstBit = true;
-
-            //string state
-            //bitString.setLength(0);
+        int getSize(long payload, int payloadSize) {
+            int index = (int) ((payload * 0x9E3779B97F4A7C15L) >>> 60) & (CACHE_SIZE - 1);
+            if (cachedPayloadSizes[index] == payloadSize && cachedPayloads[index] == payload) {
+                return cachedSizes[index];
+            }
+            int size = computeSize(payload, payloadSize);
+            cachedPayloads[index] = payload;
+            cachedPayloadSizes[index] = payloadSize;
+            cachedSizes[index] = size;
+            return size;
         }
 
-        public void addBits(int value, int bitCount) {
-            for (int mask = 1 << (bitCount - 1); mask != 0; mask >>= 1) {
-                addBit((mask & value) == mask);
+        private int computeSize(long payload, int payloadSize) {
+            Encoder e = new Encoder(headerCrc, headerStuffState, headerStuffCount);
+            e.addBits(15 - payloadSize, 4);  //set length field
+            //payload bytes, most significant first
+            for (int shift = 8 * (payloadSize - 1); shift >= 0; shift -= 8) {
+                e.addByte((int) (payload >>> shift) & 0xFF);
             }
+            //the crc is the end of the bitstuffed part of the message
+            e.addBits(e.crc, 15);
+            /*if we were really encoding the full message, we would add these parts
+            CRC deliminter, ack slot, ack delimiter, 6 bits for eof space + 3 bits for intermission*/
+            return FRAME_OVERHEAD + (8 * payloadSize) + e.stuffCount;
         }
 
-        public void addBit(boolean bit) {
-            //addToBitString(bit);
-            addToCrc(bit);
-            addToBitstuff(bit);
+        /**
+         * In the worst case the first stuff bit follows five identical bits,
+         * and every stuff bit starts a new run, so another one follows every
+         * four bits after that.
+         */
+        static int getMaximumSize(int payloadSize) {
+            int stuffedBits = STUFFED_OVERHEAD + 8 * payloadSize;
+            return FRAME_OVERHEAD + 8 * payloadSize + (stuffedBits - 1) / 4;
         }
 
-        public int getCRC() {
-            return crcChecksum;
+        /**
+         * One step of the stuff-bit state machine.
+         * @return the next state, plus 8 if a stuff bit is inserted
+         */
+        private static int stuffStep(int state, int bit) {
+            int last = state >> 2;
+            int run = (state & 0x3) + 1;
+            if (bit != last) {
+                return bit << 2;
+            }
+            run++;
+            if (run == 5) {
+                //insert a stuff bit of the opposite value
+                return 8 | ((1 - last) << 2);
+            }
+            return (last << 2) | (run - 1);
         }
 
-        public int getStuffBitCount() {
-            return stuffBitCount;
-        }
+        /**
+         * CRC and bit-stuffing state of a partially encoded frame.  Whole
+         * bytes go through the tables, other fields one bit at a time.
+         */
+        private static final class Encoder {
 
-        private void addToCrc(boolean bit) {
-            int crcNext = (crcChecksum >> 14) ^ (bit ? 1 : 0); //crcChecksum[14] XOR next_data_bit
-            crcChecksum = (crcChecksum << 1) & 0x7FFE; //clear highest and lowest bits
-            if (crcNext == 1) {
-                crcChecksum ^= crcPolynomial;  //xor in the polynomial value
+            int crc;
+            int stuffState;
+            int stuffCount;
+
+            Encoder() {
+                //the start bit is dominant, so this state makes it begin a new run
+                this(0, 0, 0);
+            }
+
+            Encoder(int crc, int stuffState, int stuffCount) {
+                this.crc = crc;
+                this.stuffState = stuffState;
+                this.stuffCount = stuffCount;
+            }
+
+            void addByte(int value) {
+                crc = ((crc << 8) ^ CRC_TABLE[((crc >> 7) ^ value) & 0xFF]) & CRC_MASK;
+                int index = stuffState * 256 + value;
+                stuffCount += STUFF_COUNT[index];
+                stuffState = STUFF_NEXT[index];
             }
-        }
 
-        private void addToBitstuff(boolean bit) {
-            if (isFirstBit) {
-                lastbit = bit;
-                isFirstBit = false;
-                sameBitCount = 1;
-            } else {
-                //not the first bit
-                if (bit == lastbit) {
-                    sameBitCount++;
-                    if (sameBitCount == 5) {
-                        stuffBitCount++;
-                        //add stuff bit to bit string
-                        //bitString.append(!lastbit ? '*' : '_');
-                        lastbit = !lastbit;
-                        sameBitCount = 1;
+            void addBits(int value, int bitCount) {
+                for (int bit = bitCount - 1; bit >= 0; bit--) {
+                    int b = (value >> bit) & 1;
+                    int crcNext = (crc >> 14) ^ b; //crc[14] XOR next_data_bit
+                    crc = (crc << 1) & 0x7FFE; //clear highest and lowest bits
+                    if (crcNext == 1) {
+                        crc ^= CRC_POLYNOMIAL;  //xor in the polynomial value
                     }
-                } else {
-                    lastbit = bit;
-                    sameBitCount = 1;
+                    int next = stuffStep(stuffState, b);
+                    stuffCount += next >> 3;
+                    stuffState = next & 0x7;
                 }
             }
         }
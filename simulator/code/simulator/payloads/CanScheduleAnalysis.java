@@ -0,0 +1,279 @@
+package simulator.payloads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Worst-case response time analysis for the periodic messages on a CAN
+ * network, computed without running the simulation.
+ *
+ * The analysis is the one given by R. Davis, A. Burns, R. Bril and J.
+ * Lukkien, "Controller Area Network (CAN) schedulability analysis:  Refuted,
+ * revisited and revised", Real-Time Systems 35(3), 2007.  Messages are
+ * prioritized by message ID (lower IDs win arbitration), each message is
+ * blocked by at most one lower priority frame that is already on the bus, and
+ * every instance of the message in the level-i busy period is checked.  Each
+ * frame is assumed to have the maximum number of stuff bits.  A message meets
+ * its deadline if its response time is no longer than its period, which is
+ * the deadline that the network checks for time-triggered messages.
+ *
+ * The simulated network releases all the messages of a node at the same
+ * instants and does not add queuing jitter, so jitter is taken to be zero.
+ */
+public class CanScheduleAnalysis {
+
+    /**
+     * Response time value for messages whose busy period does not end because
+     * the messages of equal or higher priority use the whole bus.
+     */
+    public final static long UNBOUNDED = Long.MAX_VALUE;
+
+    /**
+     * The analysis results for one periodic message.
+     */
+    public final static class Message implements Comparable<Message> {
+
+        private final int messageId;
+        private final String name;
+        private final int payloadSize;
+        private final long period;
+        private final int frameBits;
+        private long transmissionTime;
+        private long responseTime;
+
+        Message(int messageId, String name, int payloadSize, long period) {
+            this.messageId = messageId;
+            this.name = name;
+            this.payloadSize = payloadSize;
+            this.period = period;
+            this.frameBits = CanMailbox.getMaximumSize(payloadSize);
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return the name of the translator attached to the message, or
+         * an empty string if there is none
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the payload size in bytes
+         */
+        public int getPayloadSize() {
+            return payloadSize;
+        }
+
+        /**
+         * @return the period (and deadline) of the message, in nanoseconds
+         */
+        public long getPeriod() {
+            return period;
+        }
+
+        /**
+         * @return the length of the frame with worst-case bit stuffing
+         */
+        public int getFrameBits() {
+            return frameBits;
+        }
+
+        /**
+         * @return the worst-case transmission time, in nanoseconds
+         */
+        public long getTransmissionTime() {
+            return transmissionTime;
+        }
+
+        /**
+         * @return the worst-case response time from the start of the period
+         * until the message has been delivered, in nanoseconds, or UNBOUNDED
+         */
+        public long getResponseTime() {
+            return responseTime;
+        }
+
+        public boolean isSchedulable() {
+            return responseTime <= period;
+        }
+
+        public int compareTo(Message m) {
+            if (messageId < m.messageId) {
+                return -1;
+            }
+            if (messageId > m.messageId) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+    private final long bitTime;
+    private final List<Message> messages = new ArrayList<Message>();
+    private double utilization;
+    private int unschedulableCount;
+
+    /**
+     * Create an empty analysis.  Add the messages with
+     * {@link #addMessage(int, String, int, long)}, then call {@link #analyze()}.
+     *
+     * @param bitTime the time to transmit one bit, in nanoseconds
+     */
+    public CanScheduleAnalysis(long bitTime) {
+        if (bitTime <= 0) {
+            throw new IllegalArgumentException("bitTime must be positive: " + bitTime);
+        }
+        this.bitTime = bitTime;
+    }
+
+    /**
+     * Add a periodic message.
+     *
+     * @param messageId the CAN message ID
+     * @param name a name for the message in the report
+     * @param payloadSize the payload size in bytes
+     * @param period the period of the message, in nanoseconds
+     */
+    public void addMessage(int messageId, String name, int payloadSize, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        messages.add(new Message(messageId, name, payloadSize, period));
+    }
+
+    /**
+     * Compute the transmission and response times of all the messages.
+     */
+    public void analyze() {
+        Collections.sort(messages);
+        utilization = 0;
+        for (Message m : messages) {
+            m.transmissionTime = m.frameBits * bitTime;
+            utilization += (double) m.transmissionTime / m.period;
+        }
+        unschedulableCount = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Message m = messages.get(i);
+            m.responseTime = computeResponseTime(i);
+            if (!m.isSchedulable()) {
+                unschedulableCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the analyzed messages, in priority order
+     */
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return the fraction of the bus used by the messages in the worst case
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    /**
+     * @return true if every message meets its deadline
+     */
+    public boolean isSchedulable() {
+        return unschedulableCount == 0;
+    }
+
+    private long computeResponseTime(int index) {
+        Message m = messages.get(index);
+        long c = m.transmissionTime;
+        //blocking by the longest lower priority frame
+        long blocking = 0;
+        for (int k = index + 1; k < messages.size(); k++) {
+            blocking = Math.max(blocking, messages.get(k).transmissionTime);
+        }
+        double levelUtilization = 0;
+        for (int k = 0; k <= index; k++) {
+            Message hp = messages.get(k);
+            levelUtilization += (double) hp.transmissionTime / hp.period;
+        }
+        if (levelUtilization >= 1.0) {
+            return UNBOUNDED;
+        }
+
+        //length of the level-i busy period
+        long busy = c;
+        while (true) {
+            long next = blocking;
+            for (int k = 0; k <= index; k++) {
+                Message hp = messages.get(k);
+                next += ceilDiv(busy, hp.period) * hp.transmissionTime;
+            }
+            if (next == busy) {
+                break;
+            }
+            busy = next;
+        }
+
+        //check every instance that is released in the busy period
+        long instances = ceilDiv(busy, m.period);
+        long response = 0;
+        for (long q = 0; q < instances; q++) {
+            long queuing = blocking + q * c;
+            while (true) {
+                long next = blocking + q * c;
+                for (int k = 0; k < index; k++) {
+                    Message hp = messages.get(k);
+                    next += ceilDiv(queuing + bitTime, hp.period) * hp.transmissionTime;
+                }
+                if (next == queuing) {
+                    break;
+                }
+                queuing = next;
+            }
+            response = Math.max(response, queuing - q * m.period + c);
+        }
+        return response;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * @return a table of the results for each message, followed by the total
+     * utilization and the number of messages that can miss their deadlines
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("CAN schedule analysis (bit time %d ns, %.1f kbps, worst-case bit stuffing):%n",
+                bitTime, 1e6 / bitTime));
+        sb.append(String.format("%-10s %5s %11s %5s %10s %12s %12s  %s%n",
+                "ID", "Bytes", "Period(ms)", "Bits", "C(us)", "R(us)", "Slack(us)", "Message"));
+        for (Message m : messages) {
+            String response;
+            String slack;
+            if (m.responseTime == UNBOUNDED) {
+                response = "unbounded";
+                slack = "-";
+            } else {
+                response = String.format("%.1f", m.responseTime / 1000.0);
+                slack = String.format("%.1f", (m.period - m.responseTime) / 1000.0);
+            }
+            sb.append(String.format("0x%08X %5d %11.3f %5d %10.1f %12s %12s  %s%s%n",
+                    m.messageId, m.payloadSize, m.period / 1e6, m.frameBits,
+                    m.transmissionTime / 1000.0, response, slack, m.name,
+                    m.isSchedulable() ? "" : "  ** MISSES DEADLINE **"));
+        }
+        sb.append(String.format("Total utilization: %.2f%%%n", 100 * utilization));
+        if (unschedulableCount == 0) {
+            sb.append(String.format("All %d messages meet their deadlines.", messages.size()));
+        } else {
+            sb.append(String.format("%d of %d messages can miss their deadlines.", unschedulableCount, messages.size()));
+        }
+        return sb.toString();
+    }
+}
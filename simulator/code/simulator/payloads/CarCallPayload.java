@@ -141,6 +141,11 @@ public class CarCallPayload extends PhysicalPayload {
         pressed = c.pressed;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return pressed == ((CarCallPayload) p).pressed;
+    }
+
     /**
      * Returns a String that represents the value of this object.
      * @return a string representation of the receiver
@@ -128,6 +128,11 @@ public class CarLanternPayload extends PhysicalPayload {
         lighted = c.lighted;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return lighted == ((CarLanternPayload) p).lighted;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer(super.toString());
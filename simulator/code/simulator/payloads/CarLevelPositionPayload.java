@@ -97,6 +97,11 @@ public class CarLevelPositionPayload extends PhysicalPayload {
         this.position = ((CarLevelPositionPayload) p).position;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return position == ((CarLevelPositionPayload) p).position;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + position + ")";
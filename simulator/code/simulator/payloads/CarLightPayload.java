@@ -143,6 +143,11 @@ public class CarLightPayload extends PhysicalPayload {
         lighted = c.lighted;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return lighted == ((CarLightPayload) p).lighted;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + lighted + ")";
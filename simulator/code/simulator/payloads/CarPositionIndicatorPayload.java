@@ -94,6 +94,11 @@ public class CarPositionIndicatorPayload extends PhysicalPayload {
         this.floor = ((CarPositionIndicatorPayload) p).floor;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return floor == ((CarPositionIndicatorPayload) p).floor;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "" + "(" + floor + ")";
@@ -91,6 +91,11 @@ public class CarPositionPayload extends PhysicalPayload implements InternalPaylo
         position = ((CarPositionPayload) src).position;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return position == ((CarPositionPayload) p).position;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + position + ")";
@@ -91,6 +91,11 @@ public class CarWeightAlarmPayload extends PhysicalPayload implements InternalPa
         super.copyFrom(src);
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return isRinging == ((CarWeightAlarmPayload) p).isRinging;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + isRinging + ")";
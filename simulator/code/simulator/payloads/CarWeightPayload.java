@@ -99,6 +99,11 @@ public class CarWeightPayload extends PhysicalPayload implements InternalPayload
         weight = ((CarWeightPayload) src).weight;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return weight == ((CarWeightPayload) p).weight;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer(super.toString());
@@ -0,0 +1,189 @@
+package simulator.payloads;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the deadlines missed by the time-triggered messages on a
+ * network when the network's deadline policy is
+ * {@link NetworkScheduler.DeadlinePolicy#RECORD}.
+ *
+ * A message misses its deadline if the message sent in the last period is
+ * delivered after the end of the period (it is late), or if its transmission
+ * did not start in the last period at all (it was not sent).  For each
+ * message type, the number of periods, the number of misses, the
+ * maximum lateness and a histogram of the lateness (as a fraction of the
+ * period) are recorded.
+ *
+ * Change-triggered messages are recorded the same way, with each frame
+ * counted as one period and the minimum interval between frames as the
+ * period.
+ */
+public class DeadlineMissStats {
+
+    /**
+     * upper bounds of the histogram buckets, as a fraction of the period.  The
+     * last bucket holds everything later than the last bound.
+     */
+    private final static double[] BUCKET_LIMITS = {0.1, 0.25, 0.5, 1.0};
+    private final static String[] BUCKET_NAMES = {"<10%", "<25%", "<50%", "<100%", ">=100%"};
+
+    /**
+     * Deadline statistics for one message type.
+     */
+    final static class Entry {
+
+        private final int type;
+        private final long period;
+        private long periods = 0;
+        private long misses = 0;
+        private long notSent = 0;
+        private long maxLateness = 0;
+        private final long[] histogram = new long[BUCKET_LIMITS.length + 1];
+        private final WindowCounters window = new WindowCounters();
+
+        Entry(int type, long period) {
+            this.type = type;
+            this.period = period;
+        }
+
+        /**
+         * Count one period that met its deadline.
+         */
+        void met() {
+            periods++;
+        }
+
+        /**
+         * Count one period whose message was delivered late.
+         * @param lateness time from the deadline until delivery, in nanoseconds
+         */
+        void late(long lateness) {
+            periods++;
+            misses++;
+            maxLateness = Math.max(maxLateness, lateness);
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length && lateness >= BUCKET_LIMITS[bucket] * period) {
+                bucket++;
+            }
+            histogram[bucket]++;
+        }
+
+        /**
+         * Count one period in which transmission of the message did not start.
+         */
+        void notSent() {
+            periods++;
+            misses++;
+            notSent++;
+        }
+
+        private long[] counters() {
+            long[] counters = new long[3 + histogram.length];
+            counters[0] = periods;
+            counters[1] = misses;
+            counters[2] = notSent;
+            System.arraycopy(histogram, 0, counters, 3, histogram.length);
+            return counters;
+        }
+
+        void markWindow() {
+            window.mark(counters());
+        }
+
+        void skipWindows(long repeats) {
+            long[] counters = window.skip(repeats);
+            periods = counters[0];
+            misses = counters[1];
+            notSent = counters[2];
+            System.arraycopy(counters, 3, histogram, 0, histogram.length);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("0x%08X period %.3f ms: %d of %d periods missed",
+                    type, period / 1e6, misses, periods));
+            if (notSent > 0) {
+                sb.append(String.format(" (%d not sent)", notSent));
+            }
+            if (misses > notSent) {
+                sb.append(String.format(", max lateness %.3f ms, lateness", maxLateness / 1e6));
+                for (int i = 0; i < histogram.length; i++) {
+                    sb.append(String.format(" %s: %d", BUCKET_NAMES[i], histogram[i]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+    private final Map<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+
+    DeadlineMissStats() {
+    }
+
+    /**
+     * @return the entry for the message type, which is created the first time
+     * the type is checked
+     */
+    Entry getEntry(int type, long period) {
+        Entry e = entries.get(type);
+        if (e == null) {
+            e = new Entry(type, period);
+            entries.put(type, e);
+        }
+        return e;
+    }
+
+    /**
+     * Start a quiescence window (see {@link jSimPack.QuiescenceDetector}).
+     */
+    void markWindow() {
+        for (Entry e : entries.values()) {
+            e.markWindow();
+        }
+    }
+
+    /**
+     * Add the periods counted in the last quiescence window for each skipped
+     * window.
+     */
+    void skipWindows(long repeats) {
+        for (Entry e : entries.values()) {
+            e.skipWindows(repeats);
+        }
+    }
+
+    /**
+     * @return the total number of deadlines missed by all message types
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (Entry e : entries.values()) {
+            misses += e.misses;
+        }
+        return misses;
+    }
+
+    /**
+     * @return a summary line followed by one line for each message type that
+     * missed at least one deadline, in order of type (i.e. message ID)
+     */
+    @Override
+    public String toString() {
+        long periods = 0;
+        long misses = 0;
+        int missedTypes = 0;
+        StringBuilder lines = new StringBuilder();
+        for (Entry e : entries.values()) {
+            periods += e.periods;
+            misses += e.misses;
+            if (e.misses > 0) {
+                missedTypes++;
+                lines.append("\n");
+                lines.append(e);
+            }
+        }
+        return String.format("%d of %d periods missed their deadlines, %d of %d message types affected",
+                misses, periods, missedTypes, entries.size()) + lines;
+    }
+}
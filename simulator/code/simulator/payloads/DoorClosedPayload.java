@@ -127,6 +127,11 @@ public class DoorClosedPayload extends PhysicalPayload implements InternalPayloa
         isClosed = c.isClosed;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return isClosed == ((DoorClosedPayload) p).isClosed;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer(super.toString());
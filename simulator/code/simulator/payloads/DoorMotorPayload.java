@@ -137,6 +137,11 @@ public class DoorMotorPayload extends PhysicalPayload {
         command = c.command;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return command == ((DoorMotorPayload) p).command;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + command + ")";
@@ -126,6 +126,11 @@ public class DoorOpenPayload extends PhysicalPayload implements InternalPayload
         isOpen = c.isOpen;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return isOpen == ((DoorOpenPayload) p).isOpen;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + isOpen + ")";
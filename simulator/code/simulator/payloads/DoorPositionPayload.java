@@ -130,6 +130,11 @@ public class DoorPositionPayload extends PhysicalPayload implements InternalPayl
         position = c.position;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return position == ((DoorPositionPayload) p).position;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + position + ")";
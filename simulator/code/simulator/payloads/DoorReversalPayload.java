@@ -130,6 +130,11 @@ public class DoorReversalPayload extends PhysicalPayload implements InternalPayl
         isReversing = c.isReversing;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return isReversing == ((DoorReversalPayload) p).isReversing;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + isReversing + ")";
@@ -139,6 +139,12 @@ public class DrivePayload extends PhysicalPayload {
         direction = ((DrivePayload) src).direction;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return speed == ((DrivePayload) p).speed
+                && direction == ((DrivePayload) p).direction;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + direction + "," + speed + ")";
@@ -151,6 +151,12 @@ public class DriveSpeedPayload extends PhysicalPayload {
         direction = ((DriveSpeedPayload) src).direction;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return speed == ((DriveSpeedPayload) p).speed
+                && direction == ((DriveSpeedPayload) p).direction;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer(super.toString());
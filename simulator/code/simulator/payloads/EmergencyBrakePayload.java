@@ -98,6 +98,11 @@ public class EmergencyBrakePayload extends PhysicalPayload implements InternalPa
 
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return isBraking == ((EmergencyBrakePayload) p).isBraking;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + isBraking + ")";
@@ -148,6 +148,11 @@ public class HallCallPayload extends PhysicalPayload {
         pressed = c.pressed;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return pressed == ((HallCallPayload) p).pressed;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer(super.toString());
@@ -148,6 +148,11 @@ public class HallLightPayload extends PhysicalPayload {
         lighted = c.lighted;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return lighted == ((HallLightPayload) p).lighted;
+    }
+
     public HallLightPayload set(boolean lampOn) {
         this.lighted = lampOn;
         return this;
@@ -116,6 +116,11 @@ public class HoistwayLimitPayload extends PhysicalPayload implements InternalPay
         exceeded = c.exceeded;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return exceeded == ((HoistwayLimitPayload) p).exceeded;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + exceeded + ")";
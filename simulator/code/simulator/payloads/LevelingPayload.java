@@ -137,6 +137,11 @@ public class LevelingPayload extends PhysicalPayload implements InternalPayload
         this.value = c.value;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return value == ((LevelingPayload) p).value;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + value + ")";
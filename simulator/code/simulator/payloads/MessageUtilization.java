@@ -0,0 +1,271 @@
+package simulator.payloads;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import jSimPack.SimTime;
+import simulator.framework.PeriodicTimer;
+import simulator.framework.SimulationContext;
+import simulator.framework.TimeSensitive;
+
+/**
+ * Per-message bus accounting for a network.  Where {@link NetworkUtilization}
+ * tracks how busy the whole network is, this class tracks, for each message
+ * type (CAN message ID), the frames that started transmission, their length
+ * on the wire including stuff bits, and the queuing delay from when the
+ * message was sent by its connection until its transmission started.
+ *
+ * The counts are collected in windows of one sample period.  The windows are
+ * kept in a ring buffer of fixed size, so a long run keeps the most recent
+ * samples, and can be written out as CSV at the end of the run with
+ * {@link #writeCsv(Writer)}.  Totals are kept for the whole run.
+ */
+public class MessageUtilization implements TimeSensitive {
+
+    /**
+     * The counts for one message type.
+     */
+    final static class Series {
+
+        private final int type;
+        //current window
+        private long frames = 0;
+        private long bits = 0;
+        private long delaySum = 0;
+        private long delayMax = 0;
+        //totals
+        private long totalFrames = 0;
+        private long totalBits = 0;
+        private long totalDelaySum = 0;
+        private long totalDelayMax = 0;
+        //samples, indexed like sampleEnds
+        private final long[] sampleFrames;
+        private final long[] sampleBits;
+        private final long[] sampleDelaySums;
+        private final long[] sampleDelayMaxes;
+
+        Series(int type, int capacity) {
+            this.type = type;
+            sampleFrames = new long[capacity];
+            sampleBits = new long[capacity];
+            sampleDelaySums = new long[capacity];
+            sampleDelayMaxes = new long[capacity];
+        }
+
+        void frameStarted(int frameBits, long queueDelay) {
+            frames++;
+            bits += frameBits;
+            delaySum += queueDelay;
+            delayMax = Math.max(delayMax, queueDelay);
+        }
+
+        /**
+         * Add the samples in the source slots to the totals once for each
+         * skipped window, and write the repeated samples to the ring buffer,
+         * starting at the given slot.  Only the last capacity samples are
+         * written.
+         */
+        void skipWindows(int[] sources, long repeats, int firstSlot) {
+            int n = sources.length;
+            int capacity = sampleFrames.length;
+            long[] f = new long[n];
+            long[] b = new long[n];
+            long[] d = new long[n];
+            long[] m = new long[n];
+            for (int i = 0; i < n; i++) {
+                f[i] = sampleFrames[sources[i]];
+                b[i] = sampleBits[sources[i]];
+                d[i] = sampleDelaySums[sources[i]];
+                m[i] = sampleDelayMaxes[sources[i]];
+                totalFrames += repeats * f[i];
+                totalBits += repeats * b[i];
+                totalDelaySum += repeats * d[i];
+            }
+            long total = repeats * n;
+            for (long k = Math.max(0, total - capacity); k < total; k++) {
+                int slot = (int) ((firstSlot + k) % capacity);
+                int i = (int) (k % n);
+                sampleFrames[slot] = f[i];
+                sampleBits[slot] = b[i];
+                sampleDelaySums[slot] = d[i];
+                sampleDelayMaxes[slot] = m[i];
+            }
+        }
+
+        void sample(int slot) {
+            sampleFrames[slot] = frames;
+            sampleBits[slot] = bits;
+            sampleDelaySums[slot] = delaySum;
+            sampleDelayMaxes[slot] = delayMax;
+            totalFrames += frames;
+            totalBits += bits;
+            totalDelaySum += delaySum;
+            totalDelayMax = Math.max(totalDelayMax, delayMax);
+            frames = 0;
+            bits = 0;
+            delaySum = 0;
+            delayMax = 0;
+        }
+    }
+    /** number of samples kept if not specified */
+    public final static int DEFAULT_CAPACITY = 3600;
+    private final SimulationContext context;
+    private final String name;
+    private final long bitTime;
+    private final int capacity;
+    private final SimTime samplePeriod = new SimTime(1, SimTime.SimTimeUnit.SECOND);
+    private final PeriodicTimer timer;
+    private final Map<Integer, Series> series = new TreeMap<Integer, Series>();
+    /** start and end of each sampled window, in nanoseconds */
+    private final long[] sampleStarts;
+    private final long[] sampleEnds;
+    /** slot of the next sample */
+    private int nextSlot = 0;
+    private int sampleCount = 0;
+    private long windowStart;
+
+    /**
+     * @param bitTime the time to transmit one bit, in nanoseconds
+     * @param capacity the number of samples to keep
+     */
+    MessageUtilization(SimulationContext context, String name, long bitTime, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.context = context;
+        this.name = name;
+        this.bitTime = bitTime;
+        this.capacity = capacity;
+        sampleStarts = new long[capacity];
+        sampleEnds = new long[capacity];
+        windowStart = context.getTimeNanoseconds();
+        timer = new PeriodicTimer(context, this, true);
+        timer.start(samplePeriod);
+    }
+
+    /**
+     * @return the series for the message type, creating it if needed
+     */
+    Series getSeries(int type) {
+        Series s = series.get(type);
+        if (s == null) {
+            s = new Series(type, capacity);
+            series.put(type, s);
+        }
+        return s;
+    }
+
+    public void timerExpired(Object callbackData) {
+        sample();
+    }
+
+    public SimTime getSamplePeriod() {
+        return samplePeriod;
+    }
+
+    /**
+     * Close the current window and store it in the ring buffer.
+     */
+    private void sample() {
+        long now = context.getTimeNanoseconds();
+        sampleStarts[nextSlot] = windowStart;
+        sampleEnds[nextSlot] = now;
+        for (Series s : series.values()) {
+            s.sample(nextSlot);
+        }
+        windowStart = now;
+        nextSlot = (nextSlot + 1) % capacity;
+        sampleCount = Math.min(sampleCount + 1, capacity);
+    }
+
+    /**
+     * Repeat the samples taken in the last quiescence window (see
+     * {@link jSimPack.QuiescenceDetector}) once for each skipped window, and
+     * move the current sample window forward with the skipped time.  The
+     * sampler is moved forward along with the other pending events.
+     */
+    void skipWindows(long window, long repeats) {
+        int n = (int) Math.min(window / samplePeriod.getTruncNanoseconds(), sampleCount);
+        if (n > 0) {
+            int[] sources = new int[n];
+            long[] starts = new long[n];
+            long[] ends = new long[n];
+            for (int i = 0; i < n; i++) {
+                sources[i] = (nextSlot - n + i + capacity) % capacity;
+                starts[i] = sampleStarts[sources[i]];
+                ends[i] = sampleEnds[sources[i]];
+            }
+            for (Series s : series.values()) {
+                s.skipWindows(sources, repeats, nextSlot);
+            }
+            long total = repeats * n;
+            for (long k = Math.max(0, total - capacity); k < total; k++) {
+                int slot = (int) ((nextSlot + k) % capacity);
+                int i = (int) (k % n);
+                long shift = (k / n + 1) * window;
+                sampleStarts[slot] = starts[i] + shift;
+                sampleEnds[slot] = ends[i] + shift;
+            }
+            nextSlot = (int) ((nextSlot + total) % capacity);
+            sampleCount = (int) Math.min(sampleCount + total, capacity);
+        }
+        windowStart += window * repeats;
+    }
+
+    /**
+     * Write the samples in the ring buffer as CSV, oldest first, with one row
+     * for each message type in each sample.  The current (partial) window is
+     * sampled first, so the rows cover the run up to the present time.
+     *
+     * The columns are the start and end of the window in seconds, the message
+     * type in hex, the number of frames that started transmission in the
+     * window, their total length in bits, the fraction of the window the
+     * frames occupied the bus, and the mean and maximum queuing delay in
+     * microseconds.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        if (context.getTimeNanoseconds() > windowStart) {
+            sample();
+        }
+        PrintWriter pw = new PrintWriter(out);
+        pw.println("start_s,end_s,id,frames,bits,utilization,mean_queue_delay_us,max_queue_delay_us");
+        int first = (nextSlot - sampleCount + capacity) % capacity;
+        for (int i = 0; i < sampleCount; i++) {
+            int slot = (first + i) % capacity;
+            long length = sampleEnds[slot] - sampleStarts[slot];
+            for (Series s : series.values()) {
+                long frames = s.sampleFrames[slot];
+                pw.println(String.format("%.6f,%.6f,0x%08X,%d,%d,%.6f,%.3f,%.3f",
+                        sampleStarts[slot] / 1e9, sampleEnds[slot] / 1e9, s.type,
+                        frames, s.sampleBits[slot],
+                        length > 0 ? (double) s.sampleBits[slot] * bitTime / length : 0.0,
+                        frames > 0 ? s.sampleDelaySums[slot] / 1e3 / frames : 0.0,
+                        s.sampleDelayMaxes[slot] / 1e3));
+            }
+        }
+        pw.flush();
+        if (pw.checkError()) {
+            throw new IOException("error writing " + name + " samples");
+        }
+    }
+
+    /**
+     * @return a table of the totals for each message type over the whole run
+     * (up to the last sample), in order of type
+     */
+    @Override
+    public String toString() {
+        long runLength = sampleCount == 0 ? 0 : sampleEnds[(nextSlot - 1 + capacity) % capacity];
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s %10s %12s %9s %14s %13s", "ID", "Frames", "Bits", "Bus(%)", "MeanDelay(us)", "MaxDelay(us)"));
+        for (Series s : series.values()) {
+            sb.append(String.format("%n0x%08X %10d %12d %9.3f %14.3f %13.3f", s.type, s.totalFrames, s.totalBits,
+                    runLength > 0 ? 100.0 * s.totalBits * bitTime / runLength : 0.0,
+                    s.totalFrames > 0 ? s.totalDelaySum / 1e3 / s.totalFrames : 0.0,
+                    s.totalDelayMax / 1e3));
+        }
+        return sb.toString();
+    }
+}
@@ -1,30 +1,15 @@
 package simulator.payloads;
 
 import simulator.framework.faultmodels.NetworkFaultModel;
+import jSimPack.QuiescenceDetector;
 import jSimPack.SimTime;
 
 import java.util.*;
-import simulator.framework.Harness;
+import simulator.framework.SimulationContext;
 import simulator.framework.TimeSensitive;
+import simulator.framework.PeriodicTimer;
 import simulator.framework.Timer;
 
-/**
- * A simple container that holds two objects.  This class is useful as the
- * element type for an array or {@link java.util.Collection}, or as the value
- * type in a {@link java.util.Map}, when two objects of possibly different
- * types need to be associated with each other as a single logical "entry".
- */
-class Pair<T1, T2> {
-
-    final T1 first;
-    final T2 second;
-
-    Pair(T1 first, T2 second) {
-        this.first = first;
-        this.second = second;
-    }
-}
-
 /**
  * A generic computer network that transmits "high priority" messages before
  * "low priority" messages. High priority messages are less than low priority
@@ -47,7 +32,47 @@ class Pair<T1, T2> {
  * @author Kenny Stauffer
  * @author Justin Ray
  */
-public abstract class NetworkScheduler implements TimeSensitive {
+public abstract class NetworkScheduler implements TimeSensitive, QuiescenceDetector.Participant {
+
+    /**
+     * What to do when a time-triggered message misses its deadline.
+     */
+    public enum DeadlinePolicy {
+
+        /** end the simulation with a RuntimeException */
+        ABORT,
+        /**
+         * keep running, and record the miss in the network's
+         * {@link DeadlineMissStats}
+         */
+        RECORD
+    }
+
+    /**
+     * How messages are delivered on a network with zero bit width.
+     */
+    public enum DeliveryMode {
+
+        /**
+         * Each message is delivered by its own timer event, which is permuted
+         * with the other events of the same instant.  This is the only mode
+         * for networks with a nonzero bit width.
+         */
+        QUEUED,
+        /**
+         * Messages are delivered as soon as they are sent, without timer
+         * events.  Messages sent while a message is being delivered (e.g. by
+         * an event-triggered receiver) join the same batch and are delivered
+         * in priority order before the send that started the batch returns.
+         */
+        IMMEDIATE,
+        /**
+         * Deliver as in QUEUED mode, and compare every delivered message with
+         * the contents it had when it was sent, which is what IMMEDIATE mode
+         * would have delivered.  See {@link #getDeliveryCheckSummary()}.
+         */
+        CHECK
+    }
 
     /**
      * Allows elevator components to send and receive messages through the
@@ -63,8 +88,20 @@ public abstract class NetworkScheduler implements TimeSensitive {
 
             private WriteablePayload message;
             private final SimTime period;
-            private final Timer timer;
-            private SimTime deadline;
+            private final long periodNanos;
+            private final PeriodicTimer timer;
+            /** deadline for the current period, in nanoseconds */
+            private long deadline;
+            /** deadline statistics for this message, with the RECORD policy */
+            private DeadlineMissStats.Entry missEntry = null;
+            /** timestamp of the message at the previous deadline, with the RECORD policy */
+            private SimTime lastChecked = null;
+            /**
+             * deadline of the oldest period whose message has not been
+             * delivered, or NO_DEADLINE, with the RECORD policy
+             */
+            private long oldestDeadline = NO_DEADLINE;
+            private final RouteTable.Route route;
 
             /**
              * Creates a new task that will enqueue the specified message once
@@ -73,7 +110,9 @@ public abstract class NetworkScheduler implements TimeSensitive {
             RepeatedPayload(WriteablePayload message, SimTime period) {
                 this.message = message;
                 this.period = period;
-                timer = new Timer(this);
+                this.periodNanos = period.getTruncNanoseconds();
+                this.route = routes.getOrAdd(message.asPayload().getType());
+                timer = new PeriodicTimer(context, this);
                 log(this, ": created");
             }
 
@@ -83,16 +122,28 @@ public abstract class NetworkScheduler implements TimeSensitive {
              */
             public void start() {
                 log(this, ": start()");
-                deadline = SimTime.add(Harness.getTime(), period);
-                timer.start(period);
+                deadline = context.getTimeNanoseconds() + periodNanos;
+                timer.start(periodNanos, periodNanos, null);
                 sendOnce(message);
             }
 
             public void timerExpired(Object callback) {
-                log(this, ": timerExpired(", callback, ") last sent=", message.asPayload().getTimeStamp(),
-                        " deadline=", deadline);
-                if ((message.asPayload().getTimeStamp() == null || message.asPayload().getTimeStamp().isAfter(deadline))) {
-                    Harness.log("RepeatedPayload", toString(),"failed to meet deadline.  LastTimstamp=", message.asPayload().getTimeStamp());
+                if (verbose) {
+                    log(this, ": timerExpired(", callback, ") last sent=", message.asPayload().getTimeStamp(),
+                            " deadline=", deadline, "ns");
+                }
+                SimTime lastSent = message.asPayload().getTimeStamp();
+                if (deadlinePolicy == DeadlinePolicy.RECORD) {
+                    recordDeadline(lastSent);
+                    deadline = context.getTimeNanoseconds() + periodNanos;
+                    //like a CAN mailbox, a message that is still waiting for
+                    //the bus is not queued again, but goes out with the new value
+                    if (route.queued == 0) {
+                        sendOnce(message);
+                    }
+                    return;
+                } else if (lastSent == null || lastSent.getTruncNanoseconds() > deadline) {
+                    context.log("RepeatedPayload", toString(),"failed to meet deadline.  LastTimstamp=", message.asPayload().getTimeStamp());
                     //only throw exceptions in the fault-free case
                     //System.err.println("Fault Models: " + faultModels);
                     //if (faultModels.isEmpty()) {
@@ -102,19 +153,198 @@ public abstract class NetworkScheduler implements TimeSensitive {
                     //this exception should only be thrown if the schedule is not being met
                     throw new RuntimeException(toString() + ": failed to meet deadline.");
                 }
-                deadline = SimTime.add(Harness.getTime(), period);
-                log(this, ": next deadline is:", deadline);
-                timer.start(period);
+                deadline = context.getTimeNanoseconds() + periodNanos;
+                if (verbose) {
+                    log(this, ": next deadline is:", deadline, "ns");
+                }
                 sendOnce(message);
             }
 
+            /**
+             * Record whether the message sent in the period that just ended
+             * met its deadline.
+             *
+             * A message that is still waiting for the bus is counted as not
+             * sent, and is not queued again.  When it is finally delivered,
+             * in a later period, its lateness is measured from the deadline
+             * of the oldest period it was waiting in.
+             */
+            private void recordDeadline(SimTime lastSent) {
+                if (missEntry == null) {
+                    missEntry = getDeadlineMisses().getEntry(message.asPayload().getType(), periodNanos);
+                }
+                //a new timestamp object is set every time transmission
+                //starts, to the time the transmission ends
+                if (lastSent == null || lastSent == lastChecked) {
+                    missEntry.notSent();
+                    if (oldestDeadline == NO_DEADLINE) {
+                        oldestDeadline = deadline;
+                    }
+                    log(this, ": not sent in the last period");
+                } else {
+                    long due = oldestDeadline == NO_DEADLINE ? deadline : oldestDeadline;
+                    oldestDeadline = NO_DEADLINE;
+                    if (lastSent.getTruncNanoseconds() > due) {
+                        missEntry.late(lastSent.getTruncNanoseconds() - due);
+                        log(this, ": failed to meet deadline.  LastTimestamp=", lastSent);
+                    } else {
+                        missEntry.met();
+                    }
+                }
+                lastChecked = lastSent;
+            }
+
             @Override
             public String toString() {
                 return "RepeatedPayload[msg=" + message.toString() + ",period=" + period + "]";
             }
         }
+
+        /**
+         * A task that enqueues a message when its value changes, and at least
+         * once every heartbeat period when it does not.
+         *
+         * A change is sent once the current event has finished, so all the
+         * changes a component makes in one step go out in one frame, and no
+         * sooner than the minimum interval after the previous frame.  A frame
+         * that is still waiting for the bus is not queued again, but goes out
+         * with the new value.
+         *
+         * Each frame must be delivered within the minimum interval, which is
+         * the period of the sender it replaces.  The deadline of a frame is
+         * checked when the next frame is due, i.e. on the next change or
+         * heartbeat, and a frame that has not started transmission by then
+         * is counted as not sent.  It is checked again when each following
+         * frame is due, until it is delivered; then its lateness is measured
+         * from its own deadline.
+         */
+        protected class ChangeTriggeredPayload implements TimeSensitive {
+
+            /** timer callbacks */
+            private final static String CHANGE = "change";
+            private final static String HEARTBEAT = "heartbeat";
+            private final WriteablePayload message;
+            private final SimTime minInterval;
+            private final long minIntervalNanos;
+            private final SimTime heartbeat;
+            private final long heartbeatNanos;
+            private final Timer timer;
+            private final RouteTable.Route route;
+            /** true while a change is waiting to be sent */
+            private boolean changePending = false;
+            /** true if a frame has been sent and its deadline not checked yet */
+            private boolean outstanding = false;
+            /** when the last frame was sent, and the deadline for delivering it, in nanoseconds */
+            private long lastSendTime;
+            private long deadline;
+            /** timestamp of the message when the last frame was sent */
+            private SimTime timestampBeforeSend;
+            private DeadlineMissStats.Entry missEntry = null;
+
+            ChangeTriggeredPayload(WriteablePayload message, SimTime minInterval, SimTime heartbeat) {
+                this.message = message;
+                this.minInterval = minInterval;
+                this.minIntervalNanos = minInterval.getTruncNanoseconds();
+                this.heartbeat = heartbeat;
+                this.heartbeatNanos = heartbeat.getTruncNanoseconds();
+                this.route = routes.getOrAdd(message.asPayload().getType());
+                timer = new Timer(context, this);
+                log(this, ": created");
+            }
+
+            /**
+             * Enqueues the message for transmission, and starts the heartbeat.
+             */
+            public void start() {
+                log(this, ": start()");
+                send();
+            }
+
+            /**
+             * Called when the value of the message has changed.
+             */
+            void payloadChanged() {
+                if (changePending || route.queued > 0) {
+                    return;
+                }
+                changePending = true;
+                long delay = Math.max(0, lastSendTime + minIntervalNanos - context.getTimeNanoseconds());
+                //replaces the heartbeat, which is restarted when the change is sent
+                timer.start(delay, CHANGE);
+            }
+
+            public void timerExpired(Object callback) {
+                if (verbose) {
+                    log(this, ": timerExpired(", callback, ") last sent=", message.asPayload().getTimeStamp(), " deadline=", deadline, "ns");
+                }
+                changePending = false;
+                checkDeadline();
+                if (route.queued > 0) {
+                    //the waiting frame will carry the current value
+                    timer.start(heartbeatNanos, HEARTBEAT);
+                } else {
+                    send();
+                }
+            }
+
+            private void send() {
+                timestampBeforeSend = message.asPayload().getTimeStamp();
+                lastSendTime = context.getTimeNanoseconds();
+                deadline = lastSendTime + minIntervalNanos;
+                outstanding = true;
+                timer.start(heartbeatNanos, HEARTBEAT);
+                sendOnce(message);
+            }
+
+            /**
+             * Check the deadline of the last frame, if it has not been checked.
+             * This is called no sooner than the deadline.
+             */
+            private void checkDeadline() {
+                if (!outstanding) {
+                    return;
+                }
+                if (deadlinePolicy == DeadlinePolicy.RECORD && missEntry == null) {
+                    missEntry = getDeadlineMisses().getEntry(route.type, minIntervalNanos);
+                }
+                //a new timestamp object is set every time transmission
+                //starts, to the time the transmission ends
+                SimTime lastSent = message.asPayload().getTimeStamp();
+                boolean notSent = route.queued > 0 || lastSent == null || lastSent == timestampBeforeSend;
+                //a frame that is still waiting is checked again next time
+                outstanding = notSent;
+                long lateness = notSent ? 0 : lastSent.getTruncNanoseconds() - deadline;
+                if (!notSent && lateness <= 0) {
+                    if (missEntry != null) {
+                        missEntry.met();
+                    }
+                    return;
+                }
+                if (deadlinePolicy == DeadlinePolicy.ABORT) {
+                    context.log("ChangeTriggeredPayload", toString(), "failed to meet deadline.  LastTimestamp=", lastSent);
+                    throw new RuntimeException(toString() + ": failed to meet deadline.");
+                }
+                if (notSent) {
+                    missEntry.notSent();
+                    log(this, ": not sent within the minimum interval");
+                } else {
+                    missEntry.late(lateness);
+                    log(this, ": failed to meet deadline.  LastTimestamp=", lastSent);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "ChangeTriggeredPayload[msg=" + message.toString() + ",minInterval=" + minInterval
+                        + ",heartbeat=" + heartbeat + "]";
+            }
+        }
         private boolean enabled = true;
         private final Networkable networkNode;
+        /** routes of the payloads registered on this connection */
+        private final List<RouteTable.Route> inputs = new ArrayList<RouteTable.Route>();
+        /** payloads sent periodically through this connection */
+        private final List<Payload> outputs = new ArrayList<Payload>();
 
         public Connection() {
             networkNode = null;
@@ -139,12 +369,47 @@ public abstract class NetworkScheduler implements TimeSensitive {
             if (verbose) {
                 log(this, ": registerTimeTriggered(", payload, ")");
             }
-            Collection<Payload> c = listeners.get(payload);
-            if (c == null) {
-                c = new ArrayList<Payload>();
-                listeners.put(payload, c);
+            RouteTable.Route route = routes.getOrAdd(payload.getType());
+            route.addListener(payload);
+            if (!inputs.contains(route)) {
+                inputs.add(route);
+            }
+        }
+
+        /**
+         * @return the sum of the versions of the message types registered on
+         * this connection.  It changes whenever one of them is delivered with
+         * a new value.
+         * @throws IllegalStateException if the network does not track versions
+         */
+        public long getInputVersion() {
+            if (!trackVersions) {
+                throw new IllegalStateException(NetworkScheduler.this + ": version tracking is off");
+            }
+            long version = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                version += inputs.get(i).version;
+            }
+            return version;
+        }
+
+        /**
+         * @return the current values of the payloads sent periodically through
+         * this connection, for comparing the outputs of a component
+         */
+        public String getOutputValues() {
+            StringBuilder sb = new StringBuilder();
+            for (Payload p : outputs) {
+                sb.append(p);
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        private void addOutput(Payload payload) {
+            if (!outputs.contains(payload)) {
+                outputs.add(payload);
             }
-            c.add(payload);
         }
 
         /**
@@ -166,12 +431,7 @@ public abstract class NetworkScheduler implements TimeSensitive {
                 log(this, ": registerEventTriggered(", payload, ")");
             }
             registerTimeTriggered(rpayload);
-            Collection<Pair<Networkable, ReadablePayload>> c = receivers.get(payload);
-            if (c == null) {
-                c = new ArrayList<Pair<Networkable, ReadablePayload>>();
-                receivers.put(payload, c);
-            }
-            c.add(new Pair<Networkable, ReadablePayload>(networkNode, rpayload));
+            routes.getOrAdd(payload.getType()).addReceiver(networkNode, rpayload);
         }
 
         /**
@@ -195,9 +455,13 @@ public abstract class NetworkScheduler implements TimeSensitive {
                 throw new IllegalArgumentException("period: " + period);
             }
             //check to see if there is already a repeatedPayload for the sender
-            if (periodicSenders.containsKey(payload)) {
+            RouteTable.Route route = routes.getOrAdd(payload.getType());
+            if (route.changeSender != null) {
+                throw new RuntimeException("Cannot send message " + payload + " periodically, it is already change-triggered");
+            }
+            if (route.periodicSender != null) {
                 //if so, overwrite it with the new payload information.  
-                RepeatedPayload rp = periodicSenders.get(payload);
+                RepeatedPayload rp = route.periodicSender;
                 if (!rp.period.equals(period)) {
                     throw new RuntimeException("Cannot send message " + payload + " with a new period.  The period must not change once the sender is registered");
                 }
@@ -208,18 +472,62 @@ public abstract class NetworkScheduler implements TimeSensitive {
                 payload.setTimeStamp(rp.message.asPayload().getTimeStamp());
                 //use the new message object
                 rp.message = wpayload;
+                addOutput(payload);
 
             } else {
                 //otherwise make a new RepeatedPayload
                 //System.out.println("New Message:" + message);
                 log(this, ": sendTimeTriggered(", payload, ", ", period, ")");
                 RepeatedPayload rp = new RepeatedPayload(wpayload, period);
-                periodicSenders.put(payload, rp);
+                route.periodicSender = rp;
+                addOutput(payload);
                 rp.start();
             }
 
         }
 
+        /**
+         * Causes the specified message to be sent when its value changes, no
+         * more often than once every <code>minInterval</code>, and at least
+         * once every <code>heartbeat</code>.  The network does not watch the
+         * payload, so the caller must call
+         * {@link ChangeTriggeredPayload#payloadChanged()} on the returned task
+         * whenever the value changes.
+         *
+         * @param minInterval the minimum time between frames, which is also
+         * the deadline for delivering each frame
+         * @param heartbeat the period on which the message is sent if it does
+         * not change.  It must be at least minInterval.
+         */
+        ChangeTriggeredPayload sendChangeTriggered(WriteablePayload wpayload, SimTime minInterval, SimTime heartbeat) {
+            Payload payload = wpayload.asPayload();
+            if (payload == null) {
+                throw new NullPointerException("msg");
+            }
+            if (minInterval == null) {
+                throw new NullPointerException("minInterval");
+            }
+            if (heartbeat == null) {
+                throw new NullPointerException("heartbeat");
+            }
+            if (!minInterval.isPositive()) {
+                throw new IllegalArgumentException("minInterval: " + minInterval);
+            }
+            if (heartbeat.isLessThan(minInterval)) {
+                throw new IllegalArgumentException("heartbeat " + heartbeat + " is shorter than minInterval " + minInterval);
+            }
+            RouteTable.Route route = routes.getOrAdd(payload.getType());
+            if (route.periodicSender != null || route.changeSender != null) {
+                throw new RuntimeException("Cannot send message " + payload + " change-triggered, a sender is already registered");
+            }
+            log(this, ": sendChangeTriggered(", payload, ", ", minInterval, ", ", heartbeat, ")");
+            ChangeTriggeredPayload ctp = new ChangeTriggeredPayload(wpayload, minInterval, heartbeat);
+            route.changeSender = ctp;
+            addOutput(payload);
+            ctp.start();
+            return ctp;
+        }
+
         /**
          * Enqueues the specified message for broadcast.
          */
@@ -254,39 +562,76 @@ public abstract class NetworkScheduler implements TimeSensitive {
             return "Connection#" + networkNode;
         }
     }
+    /** The simulation this network belongs to */
+    protected final SimulationContext context;
     protected boolean verbose = false;
     protected boolean dropVerbose = false;
     private Timer timer;
     private Queue<Payload> outgoingMessages;
-    private Map<Payload, Collection<Payload>> listeners = new HashMap<Payload, Collection<Payload>>();
-    private Map<Payload, Collection<Pair<Networkable, ReadablePayload>>> receivers = new HashMap<Payload, Collection<Pair<Networkable, ReadablePayload>>>();
-    private Map<Payload, Connection.RepeatedPayload> periodicSenders = new HashMap<Payload, Connection.RepeatedPayload>();
+    /** listeners, receivers, periodic senders and in-flight buffers by type */
+    private final RouteTable routes = new RouteTable();
     private ArrayList<NetworkFaultModel> faultModels = new ArrayList<NetworkFaultModel>();
     private SimTime bitWidth;
+    private long bitWidthNanos;
     /**
      * The message that is currently being transmitted across the network.
+     * This is the in-flight buffer for the message type, not the sender's
+     * payload object.  A frame is captured into the buffer for its type once,
+     * when transmission starts, and listeners copy from that buffer when it is
+     * delivered.  Only one frame is on the wire at a time, so the buffer is
+     * free again by the time the next frame of the same type starts.
      */
     private Payload currentMessage;
+    /** The route of the message that is currently being transmitted */
+    private RouteTable.Route currentRoute;
+    private long framesDelivered = 0;
+    private int inFlightBuffers = 0;
+    private DeliveryMode deliveryMode = DeliveryMode.QUEUED;
+    /** true while an IMMEDIATE batch is being delivered */
+    private boolean deliveringBatch = false;
+    private long checkMismatches = 0;
+    private DeadlinePolicy deadlinePolicy = DeadlinePolicy.ABORT;
+    private MessageUtilization messageUtilization = null;
+    private DeadlineMissStats deadlineMisses = null;
     private NetworkUtilization utilization;   
+    /** count frames whose value differs from the last frame of their type */
+    private boolean trackChanges = false;
+    private long valueChanges = 0;
+    /** value changes at the start of the current quiescence window */
+    private long markedChanges = 0;
+    private final WindowCounters window = new WindowCounters();
+    /** no pending deadline */
+    private final static long NO_DEADLINE = Long.MIN_VALUE;
+    /** count a new version of a type when a message with a new value is delivered */
+    private boolean trackVersions = false;
 
     public NetworkScheduler() {
         this(SimTime.ZERO);
     }
 
     public NetworkScheduler(SimTime bitWidth) {
+        this(SimulationContext.current(), bitWidth);
+    }
+
+    public NetworkScheduler(SimulationContext context, SimTime bitWidth) {
+        if (context == null) {
+            throw new NullPointerException("context");
+        }
+        this.context = context;
         if (bitWidth.isNegative()) {
             throw new IllegalArgumentException(
                     "bitWidth: " + bitWidth + " is not positive");
         }
         log(toString(), "bits width=", bitWidth);
         this.bitWidth = bitWidth;
-        timer = new Timer(this);
+        this.bitWidthNanos = bitWidth.getTruncNanoseconds();
+        timer = new Timer(context, this);
         outgoingMessages = new PriorityQueue<Payload>();
         if (bitWidth.equals(SimTime.ZERO)) {
             //disable utilization
-            utilization = new NetworkUtilization(toString() + " Utilization", false);
+            utilization = new NetworkUtilization(context, toString() + " Utilization", false);
         } else {
-            utilization = new NetworkUtilization(toString() + " Utilization", true);
+            utilization = new NetworkUtilization(context, toString() + " Utilization", true);
         }
     }
 
@@ -294,8 +639,78 @@ public abstract class NetworkScheduler implements TimeSensitive {
         return bitWidth;
     }
 
+    /**
+     * Set what happens when a time-triggered message misses its deadline.
+     * The default is ABORT.
+     */
+    public void setDeadlinePolicy(DeadlinePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        deadlinePolicy = policy;
+    }
+
+    public DeadlinePolicy getDeadlinePolicy() {
+        return deadlinePolicy;
+    }
+
+    /**
+     * @return the deadline statistics for the time-triggered messages on this
+     * network.  Deadlines are only recorded with the RECORD policy.
+     */
+    public DeadlineMissStats getDeadlineMisses() {
+        if (deadlineMisses == null) {
+            deadlineMisses = new DeadlineMissStats();
+        }
+        return deadlineMisses;
+    }
+
+    /**
+     * Set how messages are delivered.  Only networks with zero bit width
+     * support modes other than QUEUED, since messages on any other network
+     * take time to transmit.
+     *
+     * @throws IllegalArgumentException if the mode is not supported by this
+     * network
+     */
+    public void setDeliveryMode(DeliveryMode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        if (mode != DeliveryMode.QUEUED && bitWidthNanos != 0) {
+            throw new IllegalArgumentException(this + ": " + mode + " delivery requires a zero bit width");
+        }
+        deliveryMode = mode;
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    /**
+     * @return in CHECK mode, a summary of how many delivered messages differed
+     * from the contents they had when they were sent, otherwise null
+     */
+    public String getDeliveryCheckSummary() {
+        if (deliveryMode != DeliveryMode.CHECK) {
+            return null;
+        }
+        return String.format("%s delivery check: %d messages delivered, %d would differ with immediate delivery",
+                toString(), framesDelivered, checkMismatches);
+    }
+
     protected void enqueueMessage(Payload message) {
-        log("enqueueMessage(", message, ")");
+        if (verbose) {
+            log("enqueueMessage(", message, ")");
+        }
+        RouteTable.Route route = routes.getOrAdd(message.getType());
+        route.queued++;
+        if (messageUtilization != null) {
+            route.pushQueueTime(context.getTimeNanoseconds());
+        }
+        if (deliveryMode == DeliveryMode.CHECK) {
+            route.sentContents = message.toString();
+        }
         outgoingMessages.offer(message);
         if (currentMessage == null) {
             sendNext();
@@ -303,23 +718,34 @@ public abstract class NetworkScheduler implements TimeSensitive {
     }
 
     protected void sendNext() {
-        /* we clone the message so it doesn't change while we're
+        /* we capture the message so it doesn't change while we're
          * "transmitting".  We set the timestamp on the original message
-         * before cloning, so the RepeatedPayload that is sending the message
-         * sees that it was actually sent.  The timestamp is calculated as the
-         * timestamp of when the message will be delivered.
+         * before capturing it, so the RepeatedPayload that is sending the
+         * message sees that it was actually sent.  The timestamp is calculated
+         * as the timestamp of when the message will be delivered.
          */
-        SimTime txDelay;
+        long txDelay;
+        int size;
+        long queueDelay = 0;
+        Payload message;
+        RouteTable.Route route;
         do {
             if (outgoingMessages.isEmpty()) {
                 return;
             }
-            currentMessage = outgoingMessages.poll();
+            message = outgoingMessages.poll();
+            route = routes.getOrAdd(message.getType());
+            if (messageUtilization != null) {
+                //copies of one type are not ordered in the queue, so each
+                //is paired with the oldest waiting enqueue time
+                queueDelay = context.getTimeNanoseconds() - route.popQueueTime();
+            }
+            route.queued--;
             boolean dropMessage = false;
             for (NetworkFaultModel m : faultModels) {
-                if (!m.canStart(currentMessage)) {
+                if (!m.canStart(message)) {
                     dropMessage = true;
-                    dropLog("Fault model ",m," dropping ",currentMessage," at start time.");
+                    dropLog("Fault model ",m," dropping ",message," at start time.");
                     //call all canStarts even if we get true so they will all get notification
                 }
             }
@@ -327,30 +753,197 @@ public abstract class NetworkScheduler implements TimeSensitive {
             //compute the delay and set the timestamp here so that dropped messages
             //don't trigger a "failed to meet deadline" warning
             //if (bitWidth.isPositive()) {
-                txDelay = SimTime.multiply(bitWidth, currentMessage.getSize());
+                size = message.getSize();
+                txDelay = bitWidthNanos * size;
             //} else {
             //    txDelay = SimTime.ZERO;
             //}
-            currentMessage.setTimeStamp(SimTime.add(Harness.getTime(), txDelay));
+            message.setTimeStamp(new SimTime(context.getTimeNanoseconds() + txDelay, SimTime.SimTimeUnit.NANOSECOND));
 
             if (dropMessage) {
-                currentMessage = null;
+                message = null;
             }
-        } while (currentMessage == null);
+        } while (message == null);
 
-        
-        currentMessage = currentMessage.clone();
-        log("next message out is ", currentMessage,
-                " (size=", currentMessage.getSize(), ", delay=", txDelay ,") @ ",
-                currentMessage.getTimeStamp());
-        currentMessage = currentMessage.clone();
-        utilization.startUtilization();
-        timer.start(txDelay);
+        currentRoute = route;
+        currentMessage = capture(currentRoute, message);
+        if (messageUtilization != null) {
+            if (route.series == null) {
+                route.series = messageUtilization.getSeries(route.type);
+            }
+            route.series.frameStarted(size, queueDelay);
+        }
+        if (verbose) {
+            log("next message out is ", currentMessage,
+                    " (size=", currentMessage.getSize(), ", delay=", txDelay ,"ns) @ ",
+                    currentMessage.getTimeStamp());
+        }
+        if (route.periodicSender != null) {
+            utilization.startUtilization(NetworkUtilization.TIME_TRIGGERED);
+        } else if (route.changeSender != null) {
+            utilization.startUtilization(NetworkUtilization.CHANGE_TRIGGERED);
+        } else {
+            utilization.startUtilization(NetworkUtilization.OTHER);
+        }
+        if (deliveryMode != DeliveryMode.IMMEDIATE) {
+            timer.start(txDelay);
+        } else if (!deliveringBatch) {
+            //deliver this message and everything sent while delivering it
+            deliveringBatch = true;
+            try {
+                while (currentMessage != null) {
+                    deliverCurrentMessage();
+                }
+            } finally {
+                deliveringBatch = false;
+            }
+        }
+    }
+
+    /**
+     * Copy the message into the in-flight buffer of its route, creating the
+     * buffer the first time the type is sent.
+     *
+     * @return the in-flight buffer
+     */
+    private Payload capture(RouteTable.Route route, Payload message) {
+        Payload buffer = route.inFlight;
+        if (buffer == null) {
+            buffer = message.clone();
+            route.inFlight = buffer;
+            inFlightBuffers++;
+            if (trackChanges) {
+                valueChanges++;
+            }
+        } else {
+            if (trackChanges && !buffer.hasSameValue(message)) {
+                valueChanges++;
+            }
+            buffer.copyFrom(message);
+        }
+        return buffer;
+    }
+
+    /**
+     * Count the frames whose value differs from the previous frame of the
+     * same type (the first frame of a type counts as a change).  This costs a
+     * comparison for every frame, so it is off by default.  It is needed for
+     * {@link #isQuiescent()}.
+     */
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    /**
+     * Count a new version of a message type whenever a message of that type
+     * is delivered with a value that differs from the last one, so that
+     * components can tell whether their inputs changed (see
+     * {@link Connection#getInputVersion()}).  This costs a comparison for
+     * every delivered message, so it is off by default.
+     */
+    public void setTrackVersions(boolean trackVersions) {
+        this.trackVersions = trackVersions;
+    }
+
+    /**
+     * @return the number of frames whose value changed, if changes are
+     * tracked
+     */
+    public long getValueChangeCount() {
+        return valueChanges;
+    }
+
+    /**
+     * @return false if a frame with a new value started transmission since
+     * the last call, or a fault model is registered (fault models keep their
+     * own time-based state)
+     */
+    public boolean isQuiescent() {
+        if (!trackChanges) {
+            throw new IllegalStateException(this + ": change tracking is off");
+        }
+        boolean quiet = valueChanges == markedChanges && faultModels.isEmpty();
+        markedChanges = valueChanges;
+        window.mark(framesDelivered);
+        utilization.markWindow();
+        if (deadlineMisses != null) {
+            deadlineMisses.markWindow();
+        }
+        return quiet;
+    }
+
+    /**
+     * Fast forward the frame count and the utilization and deadline
+     * statistics, and move the deadlines of the senders forward with the
+     * skipped time.
+     */
+    public void skipped(long windowLength, long repeats) {
+        long shift = windowLength * repeats;
+        framesDelivered = window.skip(repeats)[0];
+        utilization.skipWindows(repeats, shift);
+        if (messageUtilization != null) {
+            messageUtilization.skipWindows(windowLength, repeats);
+        }
+        if (deadlineMisses != null) {
+            deadlineMisses.skipWindows(repeats);
+        }
+        for (RouteTable.Route route : routes.getAll()) {
+            if (route.periodicSender != null) {
+                route.periodicSender.deadline += shift;
+                if (route.periodicSender.oldestDeadline != NO_DEADLINE) {
+                    route.periodicSender.oldestDeadline += shift;
+                }
+            }
+            if (route.changeSender != null) {
+                route.changeSender.lastSendTime += shift;
+                route.changeSender.deadline += shift;
+            }
+            if (messageUtilization != null) {
+                route.shiftQueueTimes(shift);
+            }
+        }
+    }
+
+    /**
+     * @return the periods of the senders on this network and of its
+     * statistics samplers, in nanoseconds.  Change-triggered senders
+     * contribute their minimum interval and heartbeat.
+     */
+    public Set<Long> getPeriods() {
+        Set<Long> periods = new TreeSet<Long>();
+        for (RouteTable.Route route : routes.getAll()) {
+            if (route.periodicSender != null) {
+                periods.add(route.periodicSender.periodNanos);
+            }
+            if (route.changeSender != null) {
+                periods.add(route.changeSender.minIntervalNanos);
+                periods.add(route.changeSender.heartbeatNanos);
+            }
+        }
+        if (utilization.isEnabled()) {
+            periods.add(utilization.getRecentUtilizationPeriod().getTruncNanoseconds());
+        }
+        if (messageUtilization != null) {
+            periods.add(messageUtilization.getSamplePeriod().getTruncNanoseconds());
+        }
+        return periods;
     }
 
     public void timerExpired(Object callBackData) {
-        log("enter timerExpired(", callBackData, ")");
+        if (verbose) {
+            log("enter timerExpired(", callBackData, ")");
+        }
+        deliverCurrentMessage();
+        if (verbose) {
+            log("leave timerExpired()");
+        }
+    }
 
+    /**
+     * Deliver the message that is being transmitted, unless a fault model
+     * drops it, then start transmitting the next message.
+     */
+    private void deliverCurrentMessage() {
         boolean isDropped = false;
         //check to see if we drop the message
         for (NetworkFaultModel fm : faultModels) {
@@ -363,39 +956,126 @@ public abstract class NetworkScheduler implements TimeSensitive {
 
         //deliver the message if it was not dropped
         if (!isDropped) {
-            dropLog(currentMessage," not dropped.");
-            log("delivering ", currentMessage);
-            if (listeners.containsKey(currentMessage)) {
-                for (Payload copyTo : listeners.get(currentMessage)) {
-                    if (verbose) {
-                        log("   to ", copyTo);
-                    }
-                    copyTo.copyFrom(currentMessage);
+            if (verbose || dropVerbose) {
+                dropLog(currentMessage," not dropped.");
+                log("delivering ", currentMessage);
+            }
+            Payload[] listeners = currentRoute.listeners;
+            //every listener holds the last message delivered, so comparing
+            //with one of them is enough
+            if (trackVersions && listeners.length > 0 && !listeners[0].hasSameValue(currentMessage)) {
+                currentRoute.version++;
+            }
+            for (Payload copyTo : listeners) {
+                if (verbose) {
+                    log("   to ", copyTo);
                 }
+                copyTo.copyFrom(currentMessage);
             }
-            if (receivers.containsKey(currentMessage)) {
-                for (Pair<Networkable, ReadablePayload> p : receivers.get(currentMessage)) {
-                    if (verbose) {
-                        log("   to ", p.first);
-                    }
-                    p.second.deliverTo(p.first);
+            Networkable[] nodes = currentRoute.nodes;
+            ReadablePayload[] readables = currentRoute.readables;
+            for (int i = 0; i < nodes.length; i++) {
+                if (verbose) {
+                    log("   to ", nodes[i]);
                 }
+                readables[i].deliverTo(nodes[i]);
+            }
+            framesDelivered++;
+            if (deliveryMode == DeliveryMode.CHECK) {
+                checkDelivery();
             }
         }
 
         //start the next message if one exists
         currentMessage = null;
+        currentRoute = null;
         utilization.endUtilization();
         if (!outgoingMessages.isEmpty()) {
             sendNext();
         }
-        log("leave timerExpired()");
+    }
+
+    /**
+     * Compare the message being delivered with its contents when it was last
+     * sent.  Immediate delivery captures the message when it is sent, so a
+     * difference means the sender changed the message while it was queued,
+     * and immediate delivery would have given the receivers a different value.
+     */
+    private void checkDelivery() {
+        String delivered = currentMessage.toString();
+        if (!delivered.equals(currentRoute.sentContents)) {
+            checkMismatches++;
+            context.log(toString(), "delivery check: sent ", currentRoute.sentContents,
+                    " but delivered ", delivered);
+        }
+    }
+
+    /**
+     * @return true if any payload is registered to receive messages of the
+     * given type
+     */
+    boolean hasListeners(int type) {
+        RouteTable.Route route = routes.get(type);
+        return route != null && route.listeners.length > 0;
+    }
+
+    /**
+     * @return the number of messages of the given type waiting for
+     * transmission, not including one that is being transmitted
+     */
+    int getQueuedCount(int type) {
+        RouteTable.Route route = routes.get(type);
+        return route == null ? 0 : route.queued;
+    }
+
+    /**
+     * @return the number of messages that have been delivered to their
+     * listeners (messages dropped by a fault model are not counted)
+     */
+    public long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    /**
+     * @return the number of in-flight buffers that have been allocated.  This
+     * is at most the number of message types sent on the network, no matter
+     * how many messages are delivered.
+     */
+    public int getInFlightBufferCount() {
+        return inFlightBuffers;
     }
 
     public NetworkUtilization getUtilization() {
         return utilization;
     }
 
+    /**
+     * Start keeping per-message statistics (frames, bits on the wire and
+     * queuing delay for each message type), sampled once a second.  Call
+     * this before the simulation starts.
+     *
+     * @param capacity the number of samples to keep
+     * @return the statistics object
+     * @throws IllegalStateException if the network has zero bit width, since
+     * messages do not use any of the bus
+     */
+    public MessageUtilization enableMessageUtilization(int capacity) {
+        if (bitWidthNanos == 0) {
+            throw new IllegalStateException(this + ": per-message utilization requires a nonzero bit width");
+        }
+        if (messageUtilization == null) {
+            messageUtilization = new MessageUtilization(context, toString() + " Message Utilization", bitWidthNanos, capacity);
+        }
+        return messageUtilization;
+    }
+
+    /**
+     * @return the per-message statistics, or null if they are not enabled
+     */
+    public MessageUtilization getMessageUtilization() {
+        return messageUtilization;
+    }
+
     /* interface for registering fault models */
     public void registerFaultModel(NetworkFaultModel fm) {
         faultModels.add(fm);
@@ -424,6 +1104,7 @@ public abstract class NetworkScheduler implements TimeSensitive {
         dropLog("Fault Model ",sourceFaultModel, " dropping pending message ", currentMessage);
         timer.cancel();
         currentMessage = null;
+        currentRoute = null;
         utilization.endUtilization();
         if (!outgoingMessages.isEmpty()) {
             sendNext();
@@ -446,13 +1127,13 @@ public abstract class NetworkScheduler implements TimeSensitive {
 
     protected void log(Object... o) {
         if (verbose) {
-            Harness.log(toString(), o);
+            context.log(toString(), o);
         }
     }
     
     protected void dropLog(Object... o) {
         if (verbose || dropVerbose) {
-            Harness.log(toString(), o);
+            context.log(toString(), o);
         }
     }
 }
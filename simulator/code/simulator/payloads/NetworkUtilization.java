@@ -5,8 +5,8 @@
 package simulator.payloads;
 
 import jSimPack.SimTime;
-import simulator.framework.Harness;
-import simulator.framework.SystemTimer;
+import simulator.framework.SimulationContext;
+import simulator.framework.PeriodicTimer;
 import simulator.framework.TimeSensitive;
 
 /**
@@ -17,23 +17,39 @@ import simulator.framework.TimeSensitive;
  */
 public class NetworkUtilization implements TimeSensitive {
 
+    /** frames sent by a periodic (time-triggered) sender */
+    final static int TIME_TRIGGERED = 0;
+    /** frames sent by a change-triggered sender, on change or heartbeat */
+    final static int CHANGE_TRIGGERED = 1;
+    /** frames sent directly with sendOnce() */
+    final static int OTHER = 2;
+    private final static String[] KIND_NAMES = {"time-triggered", "change-triggered", "other"};
     private boolean verbose = false;
     private boolean enabled = true;
     private long totalUtilizedMicroseconds = 0;
     private long recentUtilizedMicroseconds = 0;
+    /** total time used by each kind of frame */
+    private final long[] kindUtilizedMicroseconds = new long[KIND_NAMES.length];
+    private final double[] kindUtilization = new double[KIND_NAMES.length];
+    private int lastKind = OTHER;
     private SimTime lastStart = null;
     private SimTime recentUtilizationPeriod = new SimTime(1, SimTime.SimTimeUnit.SECOND);
-    private SystemTimer timer = new SystemTimer(this);
+    private final SimulationContext context;
+    private final PeriodicTimer timer;
     private double overallUtilization;
     private double recentUtilization;
     private double maxUtilization;
     private String name;
+    /** totals at the start of the current quiescence window */
+    private final WindowCounters window = new WindowCounters();
 
-    NetworkUtilization(String name) {
-        this(name, true);
+    NetworkUtilization(SimulationContext context, String name) {
+        this(context, name, true);
     }
 
-    NetworkUtilization(String name, boolean enabled) {
+    NetworkUtilization(SimulationContext context, String name, boolean enabled) {
+        this.context = context;
+        this.timer = new PeriodicTimer(context, this, true);
         this.name = name;
         this.enabled = enabled;
         if (enabled) {
@@ -48,9 +64,14 @@ public class NetworkUtilization implements TimeSensitive {
         }
     }
 
-    void startUtilization() {
+    /**
+     * @param kind the kind of frame that is starting, TIME_TRIGGERED,
+     * CHANGE_TRIGGERED or OTHER
+     */
+    void startUtilization(int kind) {
         if (enabled) {
-            lastStart = Harness.getTime();
+            lastStart = context.getTime();
+            lastKind = kind;
         }
     }
 
@@ -59,39 +80,68 @@ public class NetworkUtilization implements TimeSensitive {
             if (lastStart == null) {
                 throw new RuntimeException("Called endUtilization without startUtilization");
             }
-            SimTime end = Harness.getTime();
+            SimTime end = context.getTime();
             long timeUsed = end.getTruncMicroseconds() - lastStart.getTruncMicroseconds();
             totalUtilizedMicroseconds += timeUsed;
             recentUtilizedMicroseconds += timeUsed;
+            kindUtilizedMicroseconds[lastKind] += timeUsed;
             lastStart = null;
         }
     }
 
     public void timerExpired(Object callbackData) {
         //don't check enabled because a disabled utilization object won't have the timer started
-        SimTime now = Harness.getTime();
+        SimTime now = context.getTime();
         if (lastStart != null) {
             //compute the partial utilization from the start to the present time
             long utilization = now.getTruncMicroseconds() - lastStart.getTruncMicroseconds();
             totalUtilizedMicroseconds += utilization;
             recentUtilizedMicroseconds += utilization;
+            kindUtilizedMicroseconds[lastKind] += utilization;
             //change the start time to reflect the part we have already logged
             lastStart = now;
         }
 
         overallUtilization = (double) totalUtilizedMicroseconds / (double) now.getTruncMicroseconds();
+        for (int kind = 0; kind < kindUtilization.length; kind++) {
+            kindUtilization[kind] = (double) kindUtilizedMicroseconds[kind] / (double) now.getTruncMicroseconds();
+        }
         recentUtilization = (double) recentUtilizedMicroseconds / (double) getRecentUtilizationPeriod().getTruncMicroseconds();
         if (getRecentUtilization() > getMaxUtilization()) {
             maxUtilization = getRecentUtilization();
         }
 
         if (verbose) {
-            Harness.log(name, toString());
+            context.log(name, toString());
         }
         
         //set up for next run
         recentUtilizedMicroseconds = 0;
-        timer.start(recentUtilizationPeriod);
+    }
+
+    /**
+     * Start a quiescence window (see {@link jSimPack.QuiescenceDetector}).
+     */
+    void markWindow() {
+        window.mark(totalUtilizedMicroseconds, kindUtilizedMicroseconds[TIME_TRIGGERED],
+                kindUtilizedMicroseconds[CHANGE_TRIGGERED], kindUtilizedMicroseconds[OTHER]);
+    }
+
+    /**
+     * Add the time used in the last quiescence window for each skipped
+     * window, and move the start of a frame that is on the bus forward with
+     * the skipped time.  The recent utilization needs nothing, since the
+     * sampler is moved forward along with the other pending events.
+     */
+    void skipWindows(long repeats, long shift) {
+        long[] totals = window.skip(repeats);
+        totalUtilizedMicroseconds = totals[0];
+        kindUtilizedMicroseconds[TIME_TRIGGERED] = totals[1];
+        kindUtilizedMicroseconds[CHANGE_TRIGGERED] = totals[2];
+        kindUtilizedMicroseconds[OTHER] = totals[3];
+        if (lastStart != null) {
+            lastStart = SimTime.add(lastStart, new SimTime(shift, SimTime.SimTimeUnit.NANOSECOND));
+        }
     }
 
     public double getRecentUtilization() {
@@ -110,13 +160,48 @@ public class NetworkUtilization implements TimeSensitive {
         return maxUtilization;
     }
 
+    /**
+     * @return the overall utilization by time-triggered frames
+     */
+    public double getTimeTriggeredUtilization() {
+        return getKindUtilization(TIME_TRIGGERED);
+    }
+
+    /**
+     * @return the overall utilization by change-triggered frames
+     */
+    public double getChangeTriggeredUtilization() {
+        return getKindUtilization(CHANGE_TRIGGERED);
+    }
+
+    private double getKindUtilization(int kind) {
+        return enabled ? kindUtilization[kind] : -1;
+    }
+
     @Override
     public String toString() {
         if (enabled) {
-            return String.format("Recent: %.2f %% Max: %.2f %%  Overall:  %.2f %%", 
+            String s = String.format("Recent: %.2f %% Max: %.2f %%  Overall:  %.2f %%", 
                     getRecentUtilization()*100,
                     getMaxUtilization()*100, 
                     getOverallUtilization()*100);
+            //break the overall figure down by send mode if any frames were change-triggered
+            if (kindUtilizedMicroseconds[CHANGE_TRIGGERED] > 0) {
+                StringBuilder sb = new StringBuilder(s);
+                sb.append(" (");
+                for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+                    if (kind == OTHER && kindUtilizedMicroseconds[OTHER] == 0) {
+                        continue;
+                    }
+                    if (kind > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(String.format("%s: %.2f %%", KIND_NAMES[kind], getKindUtilization(kind) * 100));
+                }
+                sb.append(")");
+                s = sb.toString();
+            }
+            return s;
         } else {
             return "Utilization disabled";
         }
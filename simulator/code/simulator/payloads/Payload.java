@@ -88,6 +88,15 @@ public abstract class Payload implements Comparable<Payload>, Cloneable {
         return name;
     }
 
+    /**
+     * @return true if the given payload of the same type carries the same
+     * value.  The default compares the strings, which include the value for
+     * every payload type.
+     */
+    boolean hasSameValue(Payload p) {
+        return toString().equals(p.toString());
+    }
+
     /**
      * Copies the state of the given object into this object's state.
      * Subclasses that override this method should also call this
@@ -79,6 +79,11 @@ public class PersonWeightPayload extends PhysicalPayload {
         weight = ((PersonWeightPayload) src).weight;
     }
 
+    @Override
+    boolean hasSameValue(Payload p) {
+        return weight == ((PersonWeightPayload) p).weight;
+    }
+
     @Override
     public String toString() {
         return super.toString() + "(" + weight + ")";
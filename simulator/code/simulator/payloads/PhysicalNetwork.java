@@ -4,6 +4,7 @@ import jSimPack.SimTime;
 import simulator.framework.Direction;
 import simulator.framework.Hallway;
 import simulator.framework.Harness;
+import simulator.framework.SimulationContext;
 import simulator.framework.TimeSensitive;
 import simulator.framework.Timer;
 import simulator.payloads.HallCallPayload.ReadableHallCallPayload;
@@ -37,7 +38,7 @@ public class PhysicalNetwork extends NetworkScheduler
     public class PhysicalConnection //implements NetworkConnection
     {
 
-        private NetworkConnection conn;
+        private Connection conn;
         private boolean isRegistered;
         private boolean isSending;
 
@@ -113,6 +114,22 @@ public class PhysicalNetwork extends NetworkScheduler
         {
             conn.setEnabled(enabled);
         }
+
+        /**
+         * @see NetworkScheduler.Connection#getInputVersion()
+         */
+        public long getInputVersion()
+        {
+            return conn.getInputVersion();
+        }
+
+        /**
+         * @see NetworkScheduler.Connection#getOutputValues()
+         */
+        public String getOutputValues()
+        {
+            return conn.getOutputValues();
+        }
     }
     
     public PhysicalNetwork()
@@ -120,6 +137,11 @@ public class PhysicalNetwork extends NetworkScheduler
         super();
     }
 
+    public PhysicalNetwork(SimulationContext context)
+    {
+        super(context, SimTime.ZERO);
+    }
+
     /**
      * Get a connection that is limited to time-triggered interfaces
      * @param networkNode
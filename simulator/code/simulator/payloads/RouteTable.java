@@ -0,0 +1,194 @@
+package simulator.payloads;
+
+/**
+ * Delivery table for a {@link NetworkScheduler}, keyed by payload type.
+ *
+ * Each message type that is registered or sent on the network has one
+ * {@link Route}, which holds everything the scheduler needs to deliver a
+ * message of that type:  the time-triggered listeners and event-triggered
+ * receivers as plain arrays (in registration order), the in-flight buffer,
+ * and the periodic or change-triggered sender.  The arrays are rebuilt when a registration is
+ * added, which happens while the simulation is being set up, so delivering a
+ * message is one table probe followed by array loops.
+ *
+ * CAN message ids use 29 bits, so the table is an open-addressed hash table
+ * with linear probing rather than an array indexed by type.
+ */
+final class RouteTable {
+
+    private final static Payload[] NO_PAYLOADS = new Payload[0];
+    private final static Networkable[] NO_NODES = new Networkable[0];
+    private final static ReadablePayload[] NO_READABLES = new ReadablePayload[0];
+    private final static long[] NO_TIMES = new long[0];
+
+    /**
+     * The delivery information for one message type.
+     */
+    static final class Route {
+
+        final int type;
+        /** payloads updated with every delivered message of this type */
+        Payload[] listeners = NO_PAYLOADS;
+        /** nodes notified of every delivered message, parallel to readables */
+        Networkable[] nodes = NO_NODES;
+        ReadablePayload[] readables = NO_READABLES;
+        /** copy of the message currently being transmitted, or null before the first one */
+        Payload inFlight;
+        /** the task that sends this type periodically, if any */
+        NetworkScheduler.Connection.RepeatedPayload periodicSender;
+        /** the task that sends this type when it changes, if any */
+        NetworkScheduler.Connection.ChangeTriggeredPayload changeSender;
+        /** number of messages of this type waiting in the outgoing queue */
+        int queued;
+        /**
+         * times the waiting messages were queued, in nanoseconds, oldest first,
+         * as a ring of queued entries starting at queueHead.  Kept only when
+         * per-message utilization is enabled.
+         */
+        private long[] queueTimes = NO_TIMES;
+        private int queueHead;
+        /** per-message utilization for this type, if enabled */
+        MessageUtilization.Series series;
+        /** contents of the last message sent, kept only in CHECK delivery mode */
+        String sentContents;
+        /**
+         * number of delivered messages whose value differed from the message
+         * before, counted only if the network tracks versions
+         */
+        long version;
+
+        Route(int type) {
+            this.type = type;
+        }
+
+        /**
+         * Records the time a message of this type was queued.  Call after
+         * incrementing queued.
+         */
+        void pushQueueTime(long time) {
+            if (queued > queueTimes.length) {
+                long[] larger = new long[Math.max(4, queueTimes.length * 2)];
+                for (int i = 0; i < queued - 1; i++) {
+                    larger[i] = queueTimes[(queueHead + i) % queueTimes.length];
+                }
+                queueTimes = larger;
+                queueHead = 0;
+            }
+            queueTimes[(queueHead + queued - 1) % queueTimes.length] = time;
+        }
+
+        /**
+         * Removes the time the oldest waiting message of this type was queued.
+         * Call before decrementing queued.
+         *
+         * @return the queue time
+         */
+        long popQueueTime() {
+            long time = queueTimes[queueHead];
+            queueHead = (queueHead + 1) % queueTimes.length;
+            return time;
+        }
+
+        /**
+         * Moves the queue times of the waiting messages by shift nanoseconds.
+         */
+        void shiftQueueTimes(long shift) {
+            for (int i = 0; i < queued; i++) {
+                queueTimes[(queueHead + i) % queueTimes.length] += shift;
+            }
+        }
+
+        void addListener(Payload payload) {
+            Payload[] larger = new Payload[listeners.length + 1];
+            System.arraycopy(listeners, 0, larger, 0, listeners.length);
+            larger[listeners.length] = payload;
+            listeners = larger;
+        }
+
+        void addReceiver(Networkable node, ReadablePayload payload) {
+            int n = nodes.length;
+            Networkable[] largerNodes = new Networkable[n + 1];
+            ReadablePayload[] largerReadables = new ReadablePayload[n + 1];
+            System.arraycopy(nodes, 0, largerNodes, 0, n);
+            System.arraycopy(readables, 0, largerReadables, 0, n);
+            largerNodes[n] = node;
+            largerReadables[n] = payload;
+            nodes = largerNodes;
+            readables = largerReadables;
+        }
+    }
+    private Route[] routes = new Route[64];
+    private int size = 0;
+
+    /**
+     * @return the route for the given type, or null if nothing has been
+     * registered or sent with that type
+     */
+    Route get(int type) {
+        int mask = routes.length - 1;
+        for (int i = hash(type) & mask;; i = (i + 1) & mask) {
+            Route r = routes[i];
+            if (r == null || r.type == type) {
+                return r;
+            }
+        }
+    }
+
+    /**
+     * @return the route for the given type, adding an empty one if needed
+     */
+    Route getOrAdd(int type) {
+        Route r = get(type);
+        if (r == null) {
+            if (2 * (size + 1) > routes.length) {
+                resize();
+            }
+            r = new Route(type);
+            insert(routes, r);
+            size++;
+        }
+        return r;
+    }
+
+    /**
+     * @return all the routes, in no particular order
+     */
+    Route[] getAll() {
+        Route[] all = new Route[size];
+        int n = 0;
+        for (Route r : routes) {
+            if (r != null) {
+                all[n++] = r;
+            }
+        }
+        return all;
+    }
+
+    private void resize() {
+        Route[] larger = new Route[2 * routes.length];
+        for (Route r : routes) {
+            if (r != null) {
+                insert(larger, r);
+            }
+        }
+        routes = larger;
+    }
+
+    private static void insert(Route[] table, Route r) {
+        int mask = table.length - 1;
+        int i = hash(r.type) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = r;
+    }
+
+    /**
+     * Spread the bits of the type, since CAN ids and physical payload types
+     * differ mostly in their upper bits.
+     */
+    private static int hash(int type) {
+        int h = type * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
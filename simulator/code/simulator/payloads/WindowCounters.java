@@ -0,0 +1,43 @@
+package simulator.payloads;
+
+/**
+ * The change of a set of statistics counters over the last window of a
+ * {@link jSimPack.QuiescenceDetector}, so the counters can be fast forwarded
+ * when windows are skipped.
+ *
+ * The owner calls {@link #mark(long...)} with the current values at the
+ * start of every window.  When windows are skipped, which happens right after
+ * a mark, {@link #skip(long)} returns the values the counters would have
+ * reached, and the owner stores them back.
+ */
+final class WindowCounters {
+
+    private long[] marked = null;
+    private long[] delta;
+
+    /**
+     * Start a new window.
+     */
+    void mark(long... counters) {
+        if (marked == null || marked.length != counters.length) {
+            marked = counters.clone();
+            delta = new long[counters.length];
+            return;
+        }
+        for (int i = 0; i < counters.length; i++) {
+            delta[i] = counters[i] - marked[i];
+            marked[i] = counters[i];
+        }
+    }
+
+    /**
+     * @return the counters marked at the start of this window, plus the
+     * change over the last window for each skipped window
+     */
+    long[] skip(long repeats) {
+        for (int i = 0; i < marked.length; i++) {
+            marked[i] += repeats * delta[i];
+        }
+        return marked;
+    }
+}
@@ -5,7 +5,6 @@
 
 package simulator.payloads.translators;
 
-import java.util.BitSet;
 import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 
@@ -41,13 +40,11 @@ public class BooleanCanPayloadTranslator extends CanPayloadTranslator {
 
     
     public void setValue(boolean value) {       
-        BitSet b = new BitSet(32);
-        b.set(31, value);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(setBit(0, 31, value), getByteSize());
     }
     
     public boolean getValue() {
-        return getMessagePayload().get(31);
+        return getBit(getMessageBits(), 31);
     }
     
     @Override
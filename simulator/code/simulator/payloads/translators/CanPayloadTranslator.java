@@ -18,6 +18,13 @@ import simulator.payloads.CanMailbox.WriteableCanMailbox;
  * ReadableCanMailbox objects so that the same translator can be used with
  * both types of objects.  Any translator descended from this class should
  * implement both constructors.
+ *
+ * The payload can be accessed either as a BitSet (getMessagePayload() and
+ * setMessagePayload(), with the addIntToBitset() family of helpers) or
+ * directly as a long (getMessageBits() and setMessageBits(), with the
+ * addIntToBits() family).  The long accessors do not allocate, so they are
+ * preferred for translators that are read or written every period.  Both
+ * views use the same bit numbering, so the encodings are identical.
  * 
  * @see BooleanCanPayloadTranslator
  * @see IntegerCanPayloadTranslator
@@ -156,7 +163,31 @@ public abstract class CanPayloadTranslator
         else throw new IllegalStateException("One mailbox must be initialized");
     }
 
-    
+    /**
+     * 
+     * @return the current binary message value, with bit 0 of the payload in
+     * the least significant bit
+     */
+    protected final long getMessageBits() {
+        if (wmailbox != null) return wmailbox.getPayloadBits();
+        else if (rmailbox != null) return rmailbox.getPayloadBits();
+        else throw new IllegalStateException("One mailbox must be initialized");
+    }
+
+    /**
+     * 
+     * @param newValue the new binary representation to put in the message,
+     * with bit 0 of the payload in the least significant bit
+     * @param payloadSize the size of the message
+     * @throws IllegalStateException if this method is called when the translator
+     * is initialized with a ReadableCanMailbox
+     */
+    protected final void setMessageBits(long newValue, int payloadSize) {
+        if (wmailbox != null) wmailbox.setPayloadBits(newValue, payloadSize);
+        else if (rmailbox != null) throw new IllegalStateException("Cannot call setMessageBits when created with a ReadableCanMailbox");
+        else throw new IllegalStateException("One mailbox must be initialized");
+    }
+
     /**
      * the expected byte size of the message
      * @return
@@ -381,6 +412,165 @@ public abstract class CanPayloadTranslator
     }
 
 
+    /**
+     * Equivalent of addIntToBitset() for payloads stored in a long.
+     * 
+     * @param bits
+     *        the current payload bits
+     * @param value
+     *        integer value to set. Negative values will be preserved
+     * @param startLocation
+     *        the bit index that corresponds to the least significant bit of the value.
+     *        This value is zero-indexed.
+     * @param bitSize
+     *        the number of bits used to represent the integer. Values larger
+     *        than 32 will generate an error.
+     * @return <code>bits</code> with the specified field replaced by value
+     */
+    public static long addIntToBits(long bits, int value, int startLocation, int bitSize)
+    {
+        checkField(startLocation, bitSize);
+        if (bitSize < 32)
+        {
+            // check min/max
+            int max = (1 << (bitSize - 1)) - 1;
+            int min = -(1 << (bitSize - 1));
+            if (value > max)
+            {
+                throw new IllegalArgumentException("Value " + value
+                        + " is too large place into " + bitSize + " bits.");
+            }
+            if (value < min)
+            {
+                throw new IllegalArgumentException("Value " + value
+                        + " is too small to place into " + bitSize + " bits.");
+            }
+        }
+        return setField(bits, value, startLocation, bitSize);
+    }
+
+    /**
+     * Equivalent of getIntFromBitset() for payloads stored in a long.
+     * 
+     * @param bits
+     *        the payload bits
+     * @param startLocation
+     *        The location of the lsb of the value. This value is zero-indexed.
+     * @param bitSize
+     *        The number of bits to read.
+     * @return The recovered integer value, sign extended from the top bit of
+     * the field.
+     */
+    public static int getIntFromBits(long bits, int startLocation, int bitSize)
+    {
+        checkField(startLocation, bitSize);
+        long field = bits << (64 - startLocation - bitSize);
+        return (int) (field >> (64 - bitSize));
+    }
+
+    /**
+     * Equivalent of addUnsignedIntToBitset() for payloads stored in a long.
+     * 
+     * @param bits
+     *        the current payload bits
+     * @param value
+     *        integer value to set. negative values are not allowed
+     * @param startLocation
+     *        the bit index that corresponds to the least significant bit of the value.
+     *        This value is zero-indexed.
+     * @param bitSize
+     *        the number of bits used to represent the integer. Values larger
+     *        than 32 will generate an error.
+     * @return <code>bits</code> with the specified field replaced by value
+     */
+    public static long addUnsignedIntToBits(long bits, int value, int startLocation, int bitSize)
+    {
+        checkField(startLocation, bitSize);
+        if (bitSize < 32)
+        {
+            // check min/max
+            int max = (1 << bitSize) - 1;
+            if (value > max)
+            {
+                throw new IllegalArgumentException("Value " + value
+                        + " is too large place into " + bitSize + " bits.");
+            }
+            if (value < 0)
+            {
+                throw new IllegalArgumentException("Value " + value
+                        + " cannot be negative");
+            }
+        }
+        return setField(bits, value, startLocation, bitSize);
+    }
+
+    /**
+     * Equivalent of getUnsignedIntFromBitset() for payloads stored in a long.
+     * 
+     * @param bits
+     *        the payload bits
+     * @param startLocation
+     *        The location of the lsb of the value. This value is zero-indexed.
+     * @param bitSize
+     *        The number of bits to read.
+     * @return The recovered (positive) integer value.
+     */
+    public static int getUnsignedIntFromBits(long bits, int startLocation, int bitSize)
+    {
+        checkField(startLocation, bitSize);
+        int value = (int) ((bits >>> startLocation) & ((1L << bitSize) - 1));
+        if (value < 0) {
+            throw new RuntimeException("Something unexpected happened because the unsigned value came out negative.");
+        }
+        return value;
+    }
+
+    /**
+     * @return <code>bits</code> with bit <code>index</code> set to value
+     */
+    public static long setBit(long bits, int index, boolean value)
+    {
+        if (index < 0 || index >= 64)
+        {
+            throw new IllegalArgumentException("bit index out of range: " + index);
+        }
+        return value ? bits | (1L << index) : bits & ~(1L << index);
+    }
+
+    /**
+     * @return the value of bit <code>index</code> of <code>bits</code>
+     */
+    public static boolean getBit(long bits, int index)
+    {
+        if (index < 0 || index >= 64)
+        {
+            throw new IllegalArgumentException("bit index out of range: " + index);
+        }
+        return ((bits >>> index) & 1) != 0;
+    }
+
+    private static void checkField(int startLocation, int bitSize)
+    {
+        if (bitSize > 32)
+        {
+            throw new IllegalArgumentException("bitSize too large");
+        }
+        if (bitSize <= 0)
+        {
+            throw new IllegalArgumentException("bitSize must be positive");
+        }
+        if (startLocation < 0 || startLocation + bitSize > 64)
+        {
+            throw new IllegalArgumentException("field does not fit in a 64 bit payload");
+        }
+    }
+
+    private static long setField(long bits, int value, int startLocation, int bitSize)
+    {
+        long mask = ((1L << bitSize) - 1) << startLocation;
+        return (bits & ~mask) | (((long) value << startLocation) & mask);
+    }
+
     /**
      * Utility method to convert bitset to a hex string
      * 
@@ -5,7 +5,6 @@
 
 package simulator.payloads.translators;
 
-import java.util.BitSet;
 import simulator.payloads.CanMailbox.ReadableCanMailbox;
 import simulator.payloads.CanMailbox.WriteableCanMailbox;
 
@@ -40,13 +39,11 @@ public class IntegerCanPayloadTranslator extends CanPayloadTranslator {
     }
     
     public void setValue(int value) {
-        BitSet b = new BitSet();
-        addIntToBitset(b, value, 0, 32);
-        setMessagePayload(b, getByteSize());
+        setMessageBits(addIntToBits(0, value, 0, 32), getByteSize());
     }
     
     public int getValue() {
-        return getIntFromBitset(getMessagePayload(), 0, 32);
+        return getIntFromBits(getMessageBits(), 0, 32);
     }
     
     @Override